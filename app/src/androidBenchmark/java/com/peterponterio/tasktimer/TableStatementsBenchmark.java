@@ -0,0 +1,111 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the time per timing insert with SQLiteDatabase.insert, which builds and compiles its SQL on
+ * every call, and with {@link TableStatements}, which reuses a compiled statement. Results are written
+ * as JSON by {@link BenchmarkReport} to files/benchmark-results.
+ *
+ * Uses its own database file, built with {@link AppDatabase}'s schema, so the app's data isn't touched.
+ * The inserts run in one transaction, as they would in a bulkInsert, so the time isn't all spent
+ * syncing to disk.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TableStatementsBenchmark {
+    private static final int TASKS = 100;
+    private static final int BATCH_SIZE = 1000;
+    private static final int BATCHES = 20;
+    private static final int WARM_UP_BATCHES = 1;
+
+    private Context mContext;
+    private File mFile;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mFile = mContext.getDatabasePath("TableStatementsBenchmark.db");
+        mContext.deleteDatabase(mFile.getName());
+
+        mDb = SQLiteDatabase.openOrCreateDatabase(mFile, null);
+        AppDatabase appDatabase = AppDatabase.getInstance(mContext);
+        appDatabase.onConfigure(mDb);
+        appDatabase.onCreate(mDb);
+
+        ContentValues values = new ContentValues();
+        for(int i = 1; i <= TASKS; i++) {
+            values.put(TasksContract.Columns.TASKS_NAME, "Task " + i);
+            mDb.insert(TasksContract.TABLE_NAME, null, values);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+        mContext.deleteDatabase(mFile.getName());
+    }
+
+    @Test
+    public void timingInserts() throws Exception {
+        final TableStatements statements = new TableStatements(TimingsContract.TABLE_NAME,
+                TimingsContract.Columns.TIMINGS_TASK_ID, TimingsContract.Columns.TIMINGS_START_TIME,
+                TimingsContract.Columns.TIMINGS_DURATION);
+
+        //the warm up batches mean both are timed with the connection and the schema already loaded
+        BenchmarkReport report = new BenchmarkReport("TableStatementsBenchmark");
+        report.measure("insert_timing_database", TASKS, BATCH_SIZE, WARM_UP_BATCHES, BATCHES, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                insertTimings(null, BATCH_SIZE);
+            }
+        });
+        report.measure("insert_timing_table_statements", TASKS, BATCH_SIZE, WARM_UP_BATCHES, BATCHES, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                insertTimings(statements, BATCH_SIZE);
+            }
+        });
+
+        assertEquals(2 * (WARM_UP_BATCHES + BATCHES) * BATCH_SIZE,
+                DatabaseUtils.queryNumEntries(mDb, TimingsContract.TABLE_NAME));
+        assertEquals(1, statements.getCompileCount());
+        assertEquals(0, statements.getFallbackCount());
+
+        report.write(new File(mContext.getFilesDir(), "benchmark-results"));
+    }
+
+
+    //inserts count timings in one transaction, with statements or db.insert if it's null
+    private void insertTimings(TableStatements statements, int count) {
+        ContentValues values = new ContentValues();
+        mDb.beginTransaction();
+        try {
+            for(int i = 0; i < count; i++) {
+                values.put(TimingsContract.Columns.TIMINGS_TASK_ID, 1 + i % TASKS);
+                values.put(TimingsContract.Columns.TIMINGS_START_TIME, i * 60L);
+                values.put(TimingsContract.Columns.TIMINGS_DURATION, 60);
+                long id = (statements != null) ? statements.insert(mDb, values)
+                        : mDb.insert(TimingsContract.TABLE_NAME, null, values);
+                assertTrue(id > 0);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.peterponterio.tasktimer;
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures how long it takes to pass a task to the edit screen, and how many bytes it takes up: as a
+ * Serializable (the way Task used to be passed), as a Parcelable, and by id only. Each round trip
+ * writes the arguments Bundle to a Parcel and reads the task back out of it, which is what happens
+ * when the bundle goes through the binder. Results are written as JSON by {@link BenchmarkReport} to
+ * files/benchmark-results, with the bytes each way takes in the notes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskMarshallingBenchmark {
+    private static final String KEY = Task.class.getSimpleName();
+    private static final int WARM_UP = 500;
+    private static final int ROUND_TRIPS = 5000;
+
+    //the fields Task had when it was Serializable
+    private static class SerializableTask implements Serializable {
+        public static final long serialVersionUID = 20180316L;
+
+        private long m_Id;
+        private final String mName;
+        private final String mDescription;
+        private final int mSortOrder;
+
+        SerializableTask(long id, String name, String description, int sortOrder) {
+            m_Id = id;
+            mName = name;
+            mDescription = description;
+            mSortOrder = sortOrder;
+        }
+    }
+
+    private interface Marshaller {
+        void put(Bundle bundle);
+        void get(Bundle bundle);
+    }
+
+    @Test
+    public void roundTrips() throws Exception {
+        BenchmarkReport report = new BenchmarkReport("TaskMarshallingBenchmark");
+        compare(report, "short", "Write report", "Quarterly numbers for the team");
+
+        char[] description = new char[AddEditActivityFragment.LARGE_TASK_CHARS * 2];
+        Arrays.fill(description, 'x');
+        compare(report, "long", "Write report", new String(description));
+
+        report.write(new File(InstrumentationRegistry.getTargetContext().getFilesDir(), "benchmark-results"));
+    }
+
+
+    private void compare(BenchmarkReport report, String label, String name, String description) throws Exception {
+        final SerializableTask serializableTask = new SerializableTask(42, name, description, 3);
+        final Task task = new Task(42, name, description, 3);
+
+        run(report, label + "_serializable", new Marshaller() {
+            @Override
+            public void put(Bundle bundle) {
+                bundle.putSerializable(KEY, serializableTask);
+            }
+
+            @Override
+            public void get(Bundle bundle) {
+                assertEquals(42, ((SerializableTask) bundle.getSerializable(KEY)).m_Id);
+            }
+        });
+
+        run(report, label + "_parcelable", new Marshaller() {
+            @Override
+            public void put(Bundle bundle) {
+                bundle.putParcelable(KEY, task);
+            }
+
+            @Override
+            public void get(Bundle bundle) {
+                bundle.setClassLoader(Task.class.getClassLoader());
+                assertEquals(42, ((Task) bundle.getParcelable(KEY)).getId());
+            }
+        });
+
+        run(report, label + "_id_only", new Marshaller() {
+            @Override
+            public void put(Bundle bundle) {
+                bundle.putLong(AddEditActivityFragment.ARG_TASK_ID, task.getId());
+            }
+
+            @Override
+            public void get(Bundle bundle) {
+                assertEquals(42, bundle.getLong(AddEditActivityFragment.ARG_TASK_ID));
+            }
+        });
+    }
+
+
+    //times ROUND_TRIPS trips through a Parcel, and notes how many bytes one takes
+    private void run(BenchmarkReport report, String scenario, final Marshaller marshaller) throws Exception {
+        final int[] bytes = new int[1];
+        report.measure(scenario, 1, 1, WARM_UP, ROUND_TRIPS, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                Bundle bundle = new Bundle();
+                marshaller.put(bundle);
+
+                Parcel parcel = Parcel.obtain();
+                try {
+                    parcel.writeBundle(bundle);
+                    bytes[0] = parcel.dataSize();
+                    parcel.setDataPosition(0);
+                    marshaller.get(parcel.readBundle(getClass().getClassLoader()));
+                } finally {
+                    parcel.recycle();
+                }
+            }
+        });
+        report.note(scenario + "_bytes", bytes[0]);
+    }
+}
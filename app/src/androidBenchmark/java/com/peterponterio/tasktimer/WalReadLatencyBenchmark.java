@@ -0,0 +1,142 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures how long a page of the task list takes to read while another thread keeps writing timings,
+ * with the database in rollback journal mode and in write-ahead log mode. Results are written as JSON
+ * by {@link BenchmarkReport} to files/benchmark-results.
+ *
+ * Uses its own database file, built with {@link AppDatabase}'s schema, so the app's data isn't touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WalReadLatencyBenchmark {
+    private static final int TASKS = 1000;
+    private static final int READS = 500;
+    private static final int TIMINGS_PER_TRANSACTION = 500;
+
+    private static final String LIST_QUERY = "SELECT " + TasksContract.Columns._ID + ", "
+            + TasksContract.Columns.TASKS_NAME + ", " + TasksContract.Columns.TASKS_DESCRIPTION + ", "
+            + TasksContract.Columns.TASKS_SORTORDER
+            + " FROM " + TasksContract.TABLE_NAME
+            + " ORDER BY " + TaskPager.SORT_ORDER + " LIMIT " + (TaskPager.PAGE_SIZE + 1);
+
+    private Context mContext;
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mFile = mContext.getDatabasePath("WalReadLatencyBenchmark.db");
+        mContext.deleteDatabase(mFile.getName());
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(mFile.getName());
+    }
+
+    @Test
+    public void readLatencyUnderWriteLoad() throws Exception {
+        BenchmarkReport report = new BenchmarkReport("WalReadLatencyBenchmark");
+        run(report, "list_page_rollback_journal", false);
+        mContext.deleteDatabase(mFile.getName());
+        run(report, "list_page_wal", true);
+        report.write(new File(mContext.getFilesDir(), "benchmark-results"));
+    }
+
+
+    /*
+        fills the tasks table, then starts a writer thread inserting timings in transactions as fast as
+        it can, and times READS list queries on this thread while it runs
+     */
+    private void run(BenchmarkReport report, String scenario, boolean wal) throws Exception {
+        final SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(mFile, null);
+        try {
+            AppDatabase appDatabase = AppDatabase.getInstance(mContext);
+            if(wal) {
+                appDatabase.onConfigure(db);
+            }
+            appDatabase.onCreate(db);
+            insertTasks(db);
+
+            final AtomicBoolean writing = new AtomicBoolean(true);
+            final AtomicInteger transactions = new AtomicInteger();
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ContentValues values = new ContentValues();
+                    while(writing.get()) {
+                        db.beginTransaction();
+                        try {
+                            for(int i = 0; i < TIMINGS_PER_TRANSACTION; i++) {
+                                values.put(TimingsContract.Columns.TIMINGS_TASK_ID, 1 + i % TASKS);
+                                values.put(TimingsContract.Columns.TIMINGS_START_TIME, i * 60);
+                                values.put(TimingsContract.Columns.TIMINGS_DURATION, 60);
+                                db.insert(TimingsContract.TABLE_NAME, null, values);
+                            }
+                            db.setTransactionSuccessful();
+                        } finally {
+                            db.endTransaction();
+                        }
+                        transactions.incrementAndGet();
+                    }
+                }
+            });
+            writer.start();
+
+            try {
+                report.measure(scenario, TASKS, TaskPager.PAGE_SIZE + 1, 0, READS, new BenchmarkReport.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        Cursor cursor = db.rawQuery(LIST_QUERY, null);
+                        try {
+                            assertEquals(TaskPager.PAGE_SIZE + 1, cursor.getCount());
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                });
+            } finally {
+                writing.set(false);
+                writer.join();
+            }
+
+            report.note(scenario + "_writer_transactions", transactions.get());
+        } finally {
+            db.close();
+        }
+    }
+
+    private void insertTasks(SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for(int i = 1; i <= TASKS; i++) {
+                values.put(TasksContract.Columns.TASKS_NAME, "Task " + i);
+                values.put(TasksContract.Columns.TASKS_DESCRIPTION, "Description " + i);
+                values.put(TasksContract.Columns.TASKS_SORTORDER, i % 10);
+                db.insert(TasksContract.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
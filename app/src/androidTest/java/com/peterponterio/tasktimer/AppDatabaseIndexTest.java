@@ -0,0 +1,116 @@
+package com.peterponterio.tasktimer;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks, with EXPLAIN QUERY PLAN, that the task list and timing lookups use the indexes created by
+ * {@link AppDatabase}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AppDatabaseIndexTest {
+
+    private static final String LIST_QUERY = "SELECT " + TasksContract.Columns._ID + ", "
+            + TasksContract.Columns.TASKS_NAME + ", " + TasksContract.Columns.TASKS_DESCRIPTION + ", "
+            + TasksContract.Columns.TASKS_SORTORDER
+            + " FROM " + TasksContract.TABLE_NAME
+            + " ORDER BY " + TaskPager.SORT_ORDER + " LIMIT " + (TaskPager.PAGE_SIZE + 1);
+
+    private static final String TASK_TIMINGS_QUERY = "SELECT * FROM " + TimingsContract.TABLE_NAME
+            + " WHERE " + TimingsContract.Columns.TIMINGS_TASK_ID + " = 1"
+            + " ORDER BY " + TimingsContract.Columns.TIMINGS_START_TIME;
+
+    private static final String DATE_TIMINGS_QUERY = "SELECT * FROM " + TimingsContract.TABLE_NAME
+            + " WHERE " + TimingsContract.Columns.TIMINGS_START_TIME + " >= 0"
+            + " AND " + TimingsContract.Columns.TIMINGS_START_TIME + " < 86400";
+
+    private AppDatabase mAppDatabase;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void createDatabase() {
+        mAppDatabase = AppDatabase.getInstance(InstrumentationRegistry.getTargetContext());
+        mDb = TestDatabases.inMemory(InstrumentationRegistry.getTargetContext());
+    }
+
+    @After
+    public void closeDatabase() {
+        mDb.close();
+    }
+
+    @Test
+    public void listQuery_withoutIndex_sortsWholeTable() throws Exception {
+        dropIndexes();
+
+        String plan = explain(LIST_QUERY);
+        assertTrue(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void listQuery_usesCoveringIndex() throws Exception {
+        String plan = explain(LIST_QUERY);
+        assertTrue(plan, plan.contains("COVERING INDEX " + AppDatabase.TASKS_LIST_INDEX));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void timingQueries_withoutIndexes_scanTable() throws Exception {
+        dropIndexes();
+
+        assertFalse(explain(TASK_TIMINGS_QUERY).contains("INDEX"));
+        assertFalse(explain(DATE_TIMINGS_QUERY).contains("INDEX"));
+    }
+
+    @Test
+    public void timingQueries_useIndexes() throws Exception {
+        String plan = explain(TASK_TIMINGS_QUERY);
+        assertTrue(plan, plan.contains("INDEX " + AppDatabase.TIMINGS_TASK_INDEX));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+
+        plan = explain(DATE_TIMINGS_QUERY);
+        assertTrue(plan, plan.contains("INDEX " + AppDatabase.TIMINGS_START_INDEX));
+    }
+
+    @Test
+    public void upgradeFromVersion3_createsIndexes() throws Exception {
+        dropIndexes();
+
+        mAppDatabase.onUpgrade(mDb, 3, AppDatabase.DATABASE_VERSION);
+
+        assertTrue(explain(LIST_QUERY).contains("COVERING INDEX " + AppDatabase.TASKS_LIST_INDEX));
+        assertTrue(explain(TASK_TIMINGS_QUERY).contains("INDEX " + AppDatabase.TIMINGS_TASK_INDEX));
+        assertTrue(explain(DATE_TIMINGS_QUERY).contains("INDEX " + AppDatabase.TIMINGS_START_INDEX));
+    }
+
+
+    //puts the database back to how a version 3 database looked
+    private void dropIndexes() {
+        mDb.execSQL("DROP INDEX " + AppDatabase.TASKS_LIST_INDEX);
+        mDb.execSQL("DROP INDEX " + AppDatabase.TIMINGS_TASK_INDEX);
+        mDb.execSQL("DROP INDEX " + AppDatabase.TIMINGS_START_INDEX);
+    }
+
+    //the detail column of every step of the query's plan, one per line
+    private String explain(String sql) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detailColumn = cursor.getColumnIndex("detail");
+            while(cursor.moveToNext()) {
+                plan.append(cursor.getString(detailColumn)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+}
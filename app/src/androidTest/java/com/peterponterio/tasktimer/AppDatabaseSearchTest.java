@@ -0,0 +1,132 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the full-text index created by {@link AppDatabase} follows the tasks table, and that
+ * {@link TaskSearch} finds and ranks tasks with it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AppDatabaseSearchTest {
+
+    private AppDatabase mAppDatabase;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void createDatabase() {
+        mAppDatabase = AppDatabase.getInstance(InstrumentationRegistry.getTargetContext());
+        mDb = TestDatabases.inMemory(InstrumentationRegistry.getTargetContext());
+    }
+
+    @After
+    public void closeDatabase() {
+        mDb.close();
+    }
+
+    @Test
+    public void search_matchesPrefixesOfEveryWord() throws Exception {
+        long report = insertTask("Weekly report", "for the team", 1);
+        insertTask("Reading", "a book", 2);
+        insertTask("Weekly shop", null, 3);
+
+        assertEquals(ids(report), search("week rep"));
+        assertEquals(2, search("WEEKLY").size());
+        assertTrue(search("invoice").isEmpty());
+    }
+
+    @Test
+    public void search_ranksNameMatchesFirst() throws Exception {
+        long inDescription = insertTask("Email", "reply about the garden", 1);
+        long inName = insertTask("Garden", "weeding", 2);
+
+        assertEquals(ids(inName, inDescription), search("garden"));
+    }
+
+    @Test
+    public void index_followsUpdatesAndDeletes() throws Exception {
+        long id = insertTask("Old name", null, 1);
+
+        ContentValues values = new ContentValues();
+        values.put(TasksContract.Columns.TASKS_NAME, "New name");
+        mDb.update(TasksContract.TABLE_NAME, values, TableStatements.ID_SELECTION, new String[]{Long.toString(id)});
+        assertTrue(search("old").isEmpty());
+        assertEquals(ids(id), search("new"));
+
+        //changing only the sort order leaves the index alone, and the task is still found
+        values = new ContentValues();
+        values.put(TasksContract.Columns.TASKS_SORTORDER, 9);
+        mDb.update(TasksContract.TABLE_NAME, values, TableStatements.ID_SELECTION, new String[]{Long.toString(id)});
+        assertEquals(ids(id), search("new"));
+
+        mDb.delete(TasksContract.TABLE_NAME, TableStatements.ID_SELECTION, new String[]{Long.toString(id)});
+        assertTrue(search("new").isEmpty());
+    }
+
+    @Test
+    public void upgradeFromVersion4_indexesExistingTasks() throws Exception {
+        mDb.execSQL("DROP TABLE " + AppDatabase.TASKS_SEARCH_TABLE);
+        mDb.execSQL("DROP TRIGGER Tasks_Search_Insert");
+        mDb.execSQL("DROP TRIGGER Tasks_Search_Before_Update");
+        mDb.execSQL("DROP TRIGGER Tasks_Search_After_Update");
+        mDb.execSQL("DROP TRIGGER Tasks_Search_Delete");
+        long id = insertTask("Existing task", null, 1);
+
+        mAppDatabase.onUpgrade(mDb, 4, AppDatabase.DATABASE_VERSION);
+
+        assertEquals(ids(id), search("existing"));
+    }
+
+    @Test
+    public void matchExpression_dropsSearchSyntax() throws Exception {
+        assertEquals("week* rep*", TaskSearch.matchExpression("  Week \"rep\" "));
+        assertEquals("or* not*", TaskSearch.matchExpression("OR -NOT"));
+        assertNull(TaskSearch.matchExpression(" *()- "));
+        assertNull(TaskSearch.matchExpression(null));
+    }
+
+
+    private long insertTask(String name, String description, int sortOrder) {
+        ContentValues values = new ContentValues();
+        values.put(TasksContract.Columns.TASKS_NAME, name);
+        values.put(TasksContract.Columns.TASKS_DESCRIPTION, description);
+        values.put(TasksContract.Columns.TASKS_SORTORDER, sortOrder);
+        return mDb.insert(TasksContract.TABLE_NAME, null, values);
+    }
+
+    //the ids of the tasks found for text, in the order they were returned
+    private List<Long> search(String text) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = TaskSearch.query(mDb, text, new String[]{TasksContract.Columns._ID},
+                null, null, null, null, null, null);
+        try {
+            while(cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private static List<Long> ids(long... values) {
+        List<Long> ids = new ArrayList<>();
+        for(long value : values) {
+            ids.add(value);
+        }
+        return ids;
+    }
+}
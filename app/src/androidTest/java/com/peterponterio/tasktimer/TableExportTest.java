@@ -0,0 +1,145 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks what {@link TableExport} writes, read back from the other end of a pipe the way another app
+ * would read it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TableExportTest {
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void createDatabase() {
+        mDb = TestDatabases.inMemory(InstrumentationRegistry.getTargetContext());
+    }
+
+    @After
+    public void closeDatabase() {
+        mDb.close();
+    }
+
+    @Test
+    public void csv_quotesValuesThatNeedIt() throws Exception {
+        insertTask("Plain", null, 1);
+        insertTask("Commas, \"quotes\"", "two\nlines", 2);
+
+        List<String> lines = export(TasksContract.TABLE_NAME, ExportContract.FORMAT_CSV);
+
+        assertEquals("_id,Name,Description,SortOrder", lines.get(0));
+        assertEquals("1,Plain,,1", lines.get(1));
+        assertEquals("2,\"Commas, \"\"quotes\"\"\",\"two", lines.get(2));
+        assertEquals("lines\",2", lines.get(3));
+    }
+
+    @Test
+    public void csv_includesEveryRowAcrossChunks() throws Exception {
+        int count = TableExport.CHUNK_ROWS * 2 + 7;
+        mDb.beginTransaction();
+        try {
+            for(int i = 0; i < count; i++) {
+                ContentValues values = new ContentValues();
+                values.put(TimingsContract.Columns.TIMINGS_TASK_ID, 1);
+                values.put(TimingsContract.Columns.TIMINGS_START_TIME, i * 60);
+                values.put(TimingsContract.Columns.TIMINGS_DURATION, 30);
+                mDb.insert(TimingsContract.TABLE_NAME, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        List<String> lines = export(TimingsContract.TABLE_NAME, ExportContract.FORMAT_CSV);
+
+        assertEquals(count + 1, lines.size());
+        assertEquals(count + ",1," + ((count - 1) * 60) + ",30", lines.get(count));
+    }
+
+    @Test
+    public void json_isAnArrayOfRows() throws Exception {
+        insertTask("Task", "with \"quotes\"", 3);
+        insertTask("No sort order", null, null);
+
+        StringBuilder text = new StringBuilder();
+        for(String line : export(TasksContract.TABLE_NAME, ExportContract.FORMAT_JSON)) {
+            text.append(line).append('\n');
+        }
+        JSONArray rows = new JSONArray(text.toString());
+
+        assertEquals(2, rows.length());
+        JSONObject first = rows.getJSONObject(0);
+        assertEquals("with \"quotes\"", first.getString(TasksContract.Columns.TASKS_DESCRIPTION));
+        assertEquals(3, first.getInt(TasksContract.Columns.TASKS_SORTORDER));
+        assertTrue(rows.getJSONObject(1).isNull(TasksContract.Columns.TASKS_SORTORDER));
+    }
+
+    @Test
+    public void emptyTable_givesHeaderOnly() throws Exception {
+        assertEquals(1, export(TasksContract.TABLE_NAME, ExportContract.FORMAT_CSV).size());
+        assertEquals("[]", export(TasksContract.TABLE_NAME, ExportContract.FORMAT_JSON).get(0));
+    }
+
+
+    private void insertTask(String name, String description, Integer sortOrder) {
+        ContentValues values = new ContentValues();
+        values.put(TasksContract.Columns.TASKS_NAME, name);
+        values.put(TasksContract.Columns.TASKS_DESCRIPTION, description);
+        values.put(TasksContract.Columns.TASKS_SORTORDER, sortOrder);
+        mDb.insert(TasksContract.TABLE_NAME, null, values);
+    }
+
+    //writes the table into a pipe on another thread, as openPipeHelper does, and reads it back line by line
+    private List<String> export(final String table, final String format) throws Exception {
+        final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+        final Uri uri = ExportContract.buildExportUri(table, format);
+        final TableExport export = new TableExport(mDb, table, TableExport.columnsFor(table));
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                export.writeDataToPipe(pipe[1], uri, ExportContract.mimeTypeOf(format), null, format);
+                try {
+                    pipe[1].close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writer.start();
+
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]), "UTF-8"));
+        try {
+            String line;
+            while((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        writer.join();
+        return lines;
+    }
+}
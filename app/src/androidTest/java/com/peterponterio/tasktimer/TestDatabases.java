@@ -0,0 +1,27 @@
+package com.peterponterio.tasktimer;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Created by peterponterio on 4/10/18.
+ *
+ * In-memory databases built with {@link AppDatabase}'s schema, for the tests that need one. They go
+ * when they're closed, and the app's own data on the device is never touched
+ */
+
+class TestDatabases {
+
+    private TestDatabases() {
+        //only static methods
+    }
+
+
+
+    //a new, empty database with every table, index and trigger the app has. Close it when done
+    static SQLiteDatabase inMemory(Context context) {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        AppDatabase.getInstance(context).onCreate(db);
+        return db;
+    }
+}
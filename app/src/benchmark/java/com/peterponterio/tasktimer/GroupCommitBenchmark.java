@@ -0,0 +1,119 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress benchmark for {@link AppProvider}'s group commit: several threads insert timings one at a
+ * time, all at once, with group commit turned off and then on. Only runs with -Pbenchmark:
+ *
+ *   ./gradlew :app:testDebugUnitTest -Pbenchmark --tests '*GroupCommitBenchmark'
+ *
+ * Each operation is one round of every thread making WRITES_PER_THREAD inserts, so rowsPerSecond is
+ * the throughput of all the threads together. Without group commit it should stay about flat as
+ * threads are added; with it, it should rise. Afterwards the table is counted, to check that no write
+ * was lost or made twice under the contention.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class GroupCommitBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+    private static final int WRITES_PER_THREAD = 200;
+
+    private AppProvider mProvider;
+    private long mInserted = 0;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(AppProvider.class)
+                .create(AppProvider.CONTENT_AUTHORITY).get();
+        ContentValues task = new ContentValues();
+        task.put(TasksContract.Columns.TASKS_NAME, "Timed task");
+        assertNotNull(mProvider.insert(TasksContract.CONTENT_URI, task));
+    }
+
+    @Test
+    public void concurrentInserts() throws Exception {
+        BenchmarkReport report = new BenchmarkReport("GroupCommitBenchmark");
+
+        for(boolean groupCommit : new boolean[]{false, true}) {
+            mProvider.setGroupCommit(groupCommit);
+            for(final int threads : THREADS) {
+                String scenario = (groupCommit ? "group_commit_" : "separate_commits_") + threads + "_threads";
+                report.measure(scenario, threads, threads * WRITES_PER_THREAD, 2, 10, new BenchmarkReport.Operation() {
+                    @Override
+                    public void run(int iteration) throws Exception {
+                        insertConcurrently(threads);
+                    }
+                });
+            }
+            if(groupCommit) {
+                report.note("groupCommitter", mProvider.getGroupCommitter().toString());
+            }
+        }
+
+        Cursor cursor = mProvider.query(TimingsContract.CONTENT_URI, new String[]{"COUNT(*)"}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(mInserted, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+
+        report.write();
+    }
+
+
+    //starts threads threads together, each making WRITES_PER_THREAD single inserts, and waits for them all
+    private void insertConcurrently(int threads) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final long now = System.currentTimeMillis() / 1000;
+
+        List<Thread> writers = new ArrayList<>(threads);
+        for(int t = 0; t < threads; t++) {
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for(int i = 0; i < WRITES_PER_THREAD; i++) {
+                            ContentValues values = new ContentValues();
+                            values.put(TimingsContract.Columns.TIMINGS_TASK_ID, 1);
+                            values.put(TimingsContract.Columns.TIMINGS_START_TIME, now - i * 60);
+                            values.put(TimingsContract.Columns.TIMINGS_DURATION, 30);
+                            assertNotNull(mProvider.insert(TimingsContract.CONTENT_URI, values));
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+
+        start.countDown();
+        for(Thread writer : writers) {
+            writer.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        mInserted += threads * WRITES_PER_THREAD;
+    }
+}
@@ -0,0 +1,170 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks {@link AppProvider} and {@link AppDatabase} on the development machine, using Robolectric's
+ * SQLite, which runs the real native SQLite library. Only runs with -Pbenchmark:
+ *
+ *   ./gradlew :app:testDebugUnitTest -Pbenchmark --tests '*ProviderBenchmark'
+ *
+ * Results are written as JSON to app/build/benchmark-results.
+ *
+ * The scenarios run one after another against the same provider. The list queries go first, growing
+ * the tasks table from 1,000 to 100,000 rows, and the writes then run against the full table. The
+ * absolute numbers are for a desktop JVM, not a phone; they're for comparing one run with another.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ProviderBenchmark {
+
+    private static final int[] LIST_SIZES = {1000, 10000, 100000};
+    private static final int BATCH_SIZE = 1000;
+    private static final int TIMING_BATCHES = 50;
+
+    private AppProvider mProvider;
+    private final Random mRandom = new Random(42);
+    private int mTaskCount = 0;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(AppProvider.class)
+                .create(AppProvider.CONTENT_AUTHORITY).get();
+    }
+
+    @Test
+    public void providerScenarios() throws Exception {
+        BenchmarkReport report = new BenchmarkReport("ProviderBenchmark");
+
+        for(final int size : LIST_SIZES) {
+            addTasks(size - mTaskCount);
+
+            final Uri firstPage = AppProvider.withLimit(TasksContract.CONTENT_URI, 0, TaskPager.PAGE_SIZE + 1);
+            report.measure("list_first_page", size, TaskPager.PAGE_SIZE + 1, 20, 500, new BenchmarkReport.Operation() {
+                @Override
+                public void run(int iteration) {
+                    assertEquals(TaskPager.PAGE_SIZE + 1, readAll(firstPage, TaskPager.PROJECTION, null, null, TaskPager.SORT_ORDER));
+                }
+            });
+
+            report.measure("list_full_scan", size, size, 2, Math.max(5, 200000 / size), new BenchmarkReport.Operation() {
+                @Override
+                public void run(int iteration) {
+                    assertEquals(size, readAll(TasksContract.CONTENT_URI, TaskPager.PROJECTION, null, null, TaskPager.SORT_ORDER));
+                }
+            });
+        }
+
+        report.measure("insert_task_single", mTaskCount, 1, 200, 2000, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                assertNotNull(mProvider.insert(TasksContract.CONTENT_URI, task(mTaskCount++)));
+            }
+        });
+
+        report.measure("bulk_insert_timings", mTaskCount, BATCH_SIZE, 5, TIMING_BATCHES, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                assertEquals(BATCH_SIZE, mProvider.bulkInsert(TimingsContract.CONTENT_URI, timings(iteration)));
+            }
+        });
+
+        report.measure("update_task_by_id", mTaskCount, 1, 200, 2000, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                ContentValues values = new ContentValues();
+                values.put(TasksContract.Columns.TASKS_NAME, "Renamed " + iteration);
+                assertEquals(1, mProvider.update(TasksContract.buildTaskUri(randomTaskId()), values, null, null));
+            }
+        });
+
+        report.measure("durations_report", mTaskCount, 0, 2, 20, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                String[] projection = {DurationsContract.Columns.DURATIONS_NAME,
+                        DurationsContract.Columns.DURATIONS_START_DATE, DurationsContract.Columns.DURATIONS_DURATION};
+                assertTrue(readAll(DurationsContract.CONTENT_URI, projection, null, null,
+                        DurationsContract.Columns.DURATIONS_START_DATE + "," + DurationsContract.Columns.DURATIONS_NAME) > 0);
+            }
+        });
+
+        //tasks are deleted from the end, so every id deleted is one that's still there
+        report.measure("delete_task_by_id", mTaskCount, 1, 200, 2000, new BenchmarkReport.Operation() {
+            @Override
+            public void run(int iteration) {
+                assertEquals(1, mProvider.delete(TasksContract.buildTaskUri(mTaskCount - iteration), null, null));
+            }
+        });
+
+        report.write();
+    }
+
+
+    private void addTasks(int count) {
+        while(count > 0) {
+            int batchSize = Math.min(BATCH_SIZE, count);
+            ContentValues[] batch = new ContentValues[batchSize];
+            for(int i = 0; i < batchSize; i++) {
+                batch[i] = task(mTaskCount++);
+            }
+            mProvider.bulkInsert(TasksContract.CONTENT_URI, batch);
+            count -= batchSize;
+        }
+    }
+
+    private ContentValues task(int number) {
+        ContentValues values = new ContentValues();
+        values.put(TasksContract.Columns.TASKS_NAME, "Task " + number);
+        values.put(TasksContract.Columns.TASKS_DESCRIPTION, "Description " + number);
+        values.put(TasksContract.Columns.TASKS_SORTORDER, mRandom.nextInt(10));
+        return values;
+    }
+
+    //timings spread over the last year, one batch per iteration
+    private ContentValues[] timings(int iteration) {
+        long now = System.currentTimeMillis() / 1000;
+        ContentValues[] batch = new ContentValues[BATCH_SIZE];
+        for(int i = 0; i < BATCH_SIZE; i++) {
+            ContentValues values = new ContentValues();
+            values.put(TimingsContract.Columns.TIMINGS_TASK_ID, randomTaskId());
+            values.put(TimingsContract.Columns.TIMINGS_START_TIME, now - mRandom.nextInt(365) * DurationsContract.SECONDS_PER_DAY);
+            values.put(TimingsContract.Columns.TIMINGS_DURATION, 60 + mRandom.nextInt(7200));
+            batch[i] = values;
+        }
+        return batch;
+    }
+
+    //tasks are only inserted until the deletes start, so their ids run from 1 to mTaskCount
+    private long randomTaskId() {
+        return 1 + mRandom.nextInt(mTaskCount);
+    }
+
+    //runs the query and reads every row, the way a list or report would. Returns the number of rows
+    private int readAll(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        Cursor cursor = mProvider.query(uri, projection, selection, selectionArgs, sortOrder);
+        assertNotNull(cursor);
+        try {
+            int rows = 0;
+            while(cursor.moveToNext()) {
+                cursor.getString(1);
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.peterponterio.tasktimer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A small JMH-style harness for the local and the instrumented benchmarks: each scenario runs some warm
+ * up iterations that aren't recorded, then times every measured iteration on its own. The results are
+ * written as JSON, so two runs can be compared: by the local benchmarks to the directory in the
+ * benchmark.output system property, and by the instrumented ones to a directory in the app's files.
+ * Nothing is printed; the JSON is the report.
+ */
+class BenchmarkReport {
+
+    //one timed unit of work. iteration counts up from 0 across the warm up and measured iterations
+    interface Operation {
+        void run(int iteration) throws Exception;
+    }
+
+    private final String mName;
+    private final JSONArray mResults = new JSONArray();
+    private final JSONObject mNotes = new JSONObject();
+
+    BenchmarkReport(String name) {
+        mName = name;
+    }
+
+
+    /*
+        runs operation warmUp times, then iterations times, timing each. rows is the size of the data
+        the scenario ran against, and rowsPerOperation the rows each operation handled, so a bulk insert
+        can be compared with single inserts
+     */
+    void measure(String scenario, int rows, int rowsPerOperation, int warmUp, int iterations,
+                 Operation operation) throws Exception {
+        for(int i = 0; i < warmUp; i++) {
+            operation.run(i);
+        }
+
+        long[] nanos = new long[iterations];
+        for(int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            operation.run(warmUp + i);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+
+        long total = 0;
+        for(long n : nanos) {
+            total += n;
+        }
+        long mean = total / iterations;
+
+        JSONObject result = new JSONObject();
+        result.put("scenario", scenario);
+        result.put("rows", rows);
+        result.put("rowsPerOperation", rowsPerOperation);
+        result.put("iterations", iterations);
+        result.put("meanNs", mean);
+        result.put("minNs", nanos[0]);
+        result.put("p50Ns", nanos[iterations / 2]);
+        result.put("p90Ns", nanos[iterations * 9 / 10]);
+        result.put("p99Ns", nanos[iterations * 99 / 100]);
+        result.put("maxNs", nanos[iterations - 1]);
+        result.put("operationsPerSecond", (mean > 0) ? 1e9 / mean : 0);
+        result.put("rowsPerSecond", (mean > 0) ? 1e9 * rowsPerOperation / mean : 0);
+        mResults.put(result);
+    }
+
+
+    //adds something worth knowing about the run, such as a counter, to the report's notes
+    void note(String key, Object value) throws JSONException {
+        mNotes.put(key, value);
+    }
+
+
+    //writes the results to <benchmark.output>/<name>-<time>.json and returns the file
+    File write() throws IOException, JSONException {
+        return write(new File(System.getProperty("benchmark.output", "build/benchmark-results")));
+    }
+
+
+    //writes the results to <directory>/<name>-<time>.json and returns the file
+    File write(File directory) throws IOException, JSONException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+
+        long now = System.currentTimeMillis();
+        JSONObject report = new JSONObject();
+        report.put("benchmark", mName);
+        report.put("timestamp", now);
+        report.put("java", System.getProperty("java.version"));
+        report.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+        report.put("results", mResults);
+        report.put("notes", mNotes);
+
+        File file = new File(directory, mName + "-" + now + ".json");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(report.toString(2));
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -4,7 +4,9 @@ import android.app.Activity;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.support.v4.app.Fragment;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -12,6 +14,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.Toast;
 
 /**
  * A placeholder fragment containing a simple view.
@@ -20,10 +23,43 @@ public class AddEditActivityFragment extends Fragment {
     private static final String TAG = "AddEditActivityFragment";
 
 
+    /*
+        the fragment is given either the whole task to edit, under Task's class name, or just the id of
+        the task under ARG_TASK_ID, in which case it loads the task itself. Use arguments() to build
+        the bundle
+     */
+    static final String ARG_TASK_ID = "TaskId";
+
+    /*
+        tasks with more characters than this are passed by id. Everything in a bundle is copied through
+        the binder when the activity starts or its state is saved, and a big enough description would
+        fail with a TransactionTooLargeException
+     */
+    static final int LARGE_TASK_CHARS = 8 * 1024;
+
+    private static final String[] TASK_PROJECTION = {TasksContract.Columns._ID, TasksContract.Columns.TASKS_NAME,
+            TasksContract.Columns.TASKS_DESCRIPTION, TasksContract.Columns.TASKS_SORTORDER};
+
+
     //enum used to keep track of whether fragments being used to add or edit
     public enum FragmentEditMode { EDIT, ADD }
     private FragmentEditMode mMode; //private field to track fragment
 
+    //the task being edited. null when adding, or until a task passed by id has been loaded
+    private Task mTask = null;
+    //true if the widgets text was restored from saved state, so a loaded task mustnt replace it
+    private boolean mTextRestored = false;
+
+    //reads the task when only its id was passed. null otherwise, and once the task has been read
+    private ObservableQuery<Task> mTaskQuery = null;
+
+    private final ObservableQuery.Subscriber<Task> mTaskSubscriber = new ObservableQuery.Subscriber<Task>() {
+        @Override
+        public void onResult(Task task) {
+            onTaskLoaded(task);
+        }
+    };
+
 
     /*
         Get references to all our widgets so we can attach a listener to the button and get the text
@@ -76,6 +112,26 @@ public class AddEditActivityFragment extends Fragment {
 
 
 
+    /*
+        the arguments for editing task, or adding a new task if task is null. Small tasks are passed
+        whole, so the screen can show them straight away. Large ones are passed by id and loaded
+     */
+    static Bundle arguments(Task task) {
+        Bundle arguments = new Bundle();
+        if(task != null) {
+            int chars = ((task.getName() != null) ? task.getName().length() : 0)
+                    + ((task.getDescription() != null) ? task.getDescription().length() : 0);
+            if(chars > LARGE_TASK_CHARS) {
+                arguments.putLong(ARG_TASK_ID, task.getId());
+            } else {
+                arguments.putParcelable(Task.class.getSimpleName(), task);
+            }
+        }
+        return arguments;
+    }
+
+
+
 
 
     /*
@@ -198,28 +254,30 @@ public class AddEditActivityFragment extends Fragment {
 
 
         /*
-            task is made final because we're going to refer to it in the buttons onClickListener, and
-            an inner class can only access final variables of its enclosing class. That means we have
-            to initialize it to null, otherwise theres a path through the code that could result in it
-            not being initialized, which results in an error
+            the task is kept in the mTask field, because the buttons onClickListener refers to it and,
+            when only the task's id was passed, it isnt known until mTaskQuery has read it.
+            Until then the save button is disabled
          */
-        final Task task;
+        mTextRestored = (savedInstanceState != null);
         if(arguments != null) {
             Log.d(TAG, "onCreateView: retrieving task details");
 
-            task = (Task) arguments.getSerializable(Task.class.getSimpleName());
-            if(task != null) {
+            mTask = arguments.getParcelable(Task.class.getSimpleName());
+            if(mTask != null) {
                 Log.d(TAG, "onCreateView: Task details found, editing...");
-                mNameTextView.setText(task.getName());
-                mDescriptionTextView.setText(task.getDescription());
-                mSortOrderTextView.setText(Integer.toString(task.getSortOrder()));
+                showTask(mTask);
+                mMode = FragmentEditMode.EDIT;
+            } else if(arguments.containsKey(ARG_TASK_ID)) {
+                Log.d(TAG, "onCreateView: Task id found, loading task...");
+                mSaveButton.setEnabled(false);
                 mMode = FragmentEditMode.EDIT;
+                mTaskQuery = taskQuery(getActivity().getContentResolver(), arguments.getLong(ARG_TASK_ID));
+                mTaskQuery.subscribe(mTaskSubscriber);
             } else {
                 //No task, so we must be adding a new task, and not editing an existing one
                 mMode = FragmentEditMode.ADD;
             }
         } else {
-            task = null;
             Log.d(TAG, "onCreateView: No arguments, adding new record");
             mMode = FragmentEditMode.ADD;
         }
@@ -250,10 +308,21 @@ public class AddEditActivityFragment extends Fragment {
 
 
                 /*
-                    get a reference to the activity that the fragments attached to first, and then
-                    call getContentResolver on that activity reference
+                    the write is handed to the WriteDispatcher, which makes it on its own thread, so the
+                    screen can close straight away instead of waiting for the database. The callback
+                    only has to report a failure, and the screen may be gone by then, so it uses the
+                    application's context
                  */
-                ContentResolver contentResolver = getActivity().getContentResolver();
+                WriteDispatcher writeDispatcher = WriteDispatcher.getInstance(getActivity());
+                final Context appContext = getActivity().getApplicationContext();
+                WriteDispatcher.Callback reportFailure = new WriteDispatcher.Callback() {
+                    @Override
+                    public void onWriteComplete(WriteDispatcher.Result result) {
+                        if(!result.succeeded()) {
+                            Toast.makeText(appContext, R.string.save_failed, Toast.LENGTH_LONG).show();
+                        }
+                    }
+                };
                 ContentValues values = new ContentValues();
 
 
@@ -270,6 +339,7 @@ public class AddEditActivityFragment extends Fragment {
                  */
                 switch (mMode) {
                     case EDIT:
+                        final Task task = mTask;
                         /*
                             checking each editText value against the orignal task object that was passed
                             in the bundle. and if the value has changed, the new value is added to the
@@ -288,7 +358,7 @@ public class AddEditActivityFragment extends Fragment {
                         }
                         if(values.size() != 0) {
                             Log.d(TAG, "onClick: updating task");
-                            contentResolver.update(TasksContract.buildTaskUri(task.getId()), values, null, null);
+                            writeDispatcher.update(TasksContract.buildTaskUri(task.getId()), values, reportFailure);
                         }
                         break;
                     case ADD:
@@ -297,7 +367,7 @@ public class AddEditActivityFragment extends Fragment {
                             values.put(TasksContract.Columns.TASKS_NAME, mNameTextView.getText().toString());
                             values.put(TasksContract.Columns.TASKS_DESCRIPTION, mDescriptionTextView.getText().toString());
                             values.put(TasksContract.Columns.TASKS_SORTORDER, so);
-                            contentResolver.insert(TasksContract.CONTENT_URI, values);
+                            writeDispatcher.insert(TasksContract.CONTENT_URI, values, reportFailure);
                         }
                         break;
                 }
@@ -322,5 +392,85 @@ public class AddEditActivityFragment extends Fragment {
 
 
     }
-}
 
+
+
+
+
+
+    private void showTask(Task task) {
+        if(mTextRestored) {
+            //the widgets already hold what the user was editing before the fragment was recreated
+            return;
+        }
+        mNameTextView.setText(task.getName());
+        mDescriptionTextView.setText(task.getDescription());
+        mSortOrderTextView.setText(Integer.toString(task.getSortOrder()));
+    }
+
+
+
+
+
+
+    //stops reading the task if it's still being read; the widgets it would fill are going
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if(mTaskQuery != null) {
+            mTaskQuery.unsubscribe(mTaskSubscriber);
+            mTaskQuery = null;
+        }
+    }
+
+
+
+
+
+
+    /*
+        reads the task whose id was passed in the arguments, on a background thread. A recreated
+        fragment reads it again, which the provider's task cache answers from memory
+     */
+    private static ObservableQuery<Task> taskQuery(final ContentResolver contentResolver, final long taskId) {
+        return new ObservableQuery<Task>(TasksContract.CONTENT_URI) {
+            @Override
+            Task load(CancellationSignal cancellationSignal) {
+                Cursor cursor = contentResolver.query(TasksContract.buildTaskUri(taskId), TASK_PROJECTION,
+                        null, null, null, cancellationSignal);
+                if(cursor == null) {
+                    return null;
+                }
+                try {
+                    if(!cursor.moveToFirst()) {
+                        return null;
+                    }
+                    return new Task(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getInt(3));
+                } finally {
+                    cursor.close();
+                }
+            }
+        };
+    }
+
+
+    /*
+        only the first result is used, so the query is dropped once it arrives. The task changes again
+        when this screen saves it, and by then the user's edits are what matter
+     */
+    private void onTaskLoaded(Task task) {
+        mTaskQuery.unsubscribe(mTaskSubscriber);
+        mTaskQuery = null;
+
+        if(task != null) {
+            mTask = task;
+            Log.d(TAG, "onTaskLoaded: loaded " + mTask.getId());
+            showTask(mTask);
+        } else {
+            //the task has been deleted since it was picked, so theres nothing left to edit
+            Log.d(TAG, "onTaskLoaded: task not found, adding new record");
+            mMode = FragmentEditMode.ADD;
+        }
+        mSaveButton.setEnabled(true);
+    }
+}
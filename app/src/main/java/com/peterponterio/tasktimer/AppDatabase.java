@@ -1,10 +1,17 @@
 package com.peterponterio.tasktimer;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.util.concurrent.CountDownLatch;
+
 /**
  * Created by peterponterio on 3/8/18.
  *
@@ -18,10 +25,41 @@ class AppDatabase extends SQLiteOpenHelper {
     private static final String TAG = "AppDatabase";
 
     public static final String DATABASE_NAME = "TaskTimer.db";
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 5;
+
+    /*
+        index names, so the upgrade code (and the tests) can refer to them. The tasks index covers the
+        main list's query: its rows are already in SortOrder, Name order, and it holds every column the
+        list shows, so the list is read from the index alone, without sorting and without going back
+        to the table
+     */
+    static final String TASKS_LIST_INDEX = "Tasks_SortOrder_Name";
+    static final String TIMINGS_TASK_INDEX = "Timings_TaskId_StartTime";
+    static final String TIMINGS_START_INDEX = "Timings_StartTime";
+
+    //the full-text index of task names and descriptions, searched by TaskSearch
+    static final String TASKS_SEARCH_TABLE = "TasksSearch";
+
+    /*
+        write-ahead log settings. A checkpoint copies the log back into the database file once it reaches
+        this many pages (of 4KB), and after a checkpoint the log file is cut back to the size limit so a
+        burst of writes doesn't leave a huge file behind
+     */
+    static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+    static final long WAL_SIZE_LIMIT_BYTES = 4 * 1024 * 1024;
 
     //implement AppDatabase as a Singleton
-    private static AppDatabase instance = null;
+    //volatile, so a thread that sees the instance also sees it fully constructed
+    private static volatile AppDatabase instance = null;
+
+
+    /*
+        counted down once openInBackground has finished opening the database. Null until
+        openInBackground is called, in which case nobody has to wait
+     */
+    private volatile CountDownLatch mOpened = null;
+    private volatile Thread mOpenThread = null;
+    private volatile long mOpenTimeMillis = -1;
 
 
     /*
@@ -49,13 +87,21 @@ class AppDatabase extends SQLiteOpenHelper {
      * method getInstance. Ensuring we only have one copy of the instance field that has been set up at
      * any point in time
      *
+     * The first call can come from more than one thread at once (the provider, a test, the open thread),
+     * so the instance is created inside a synchronized block, checking again once the lock is held so
+     * only one of them creates it. Once it exists no lock is needed
+     *
      * @param context the content providers context
      * @return a SQLite database helper object
      */
     static AppDatabase getInstance(Context context) {
         if(instance == null) {
-            Log.d(TAG, "getInstance: creating new instance");
-            instance = new AppDatabase(context);
+            synchronized (AppDatabase.class) {
+                if(instance == null) {
+                    Log.d(TAG, "getInstance: creating new instance");
+                    instance = new AppDatabase(context.getApplicationContext());
+                }
+            }
         }
 
         return instance;
@@ -63,6 +109,180 @@ class AppDatabase extends SQLiteOpenHelper {
     }
 
 
+    /*
+        opening the database is slow the first time: the file is opened, the connection configured, and
+        onCreate or onUpgrade may have to build or change the whole schema. Without this, that happens
+        on whichever thread runs the first query or save, which can be the main thread.
+
+        this opens it on a thread of its own as soon as the provider is created, which is while
+        MainActivity is still being inflated. It also prepares the statements the app runs first, which
+        makes SQLite load the schema into the connections now rather than during the first real query.
+        Anyone who asks for the database before it's ready waits for this to finish (see awaitOpen).
+
+        only the first call does anything
+     */
+    void openInBackground() {
+        synchronized (this) {
+            if(mOpened != null) {
+                return;
+            }
+            mOpened = new CountDownLatch(1);
+        }
+
+        mOpenThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                try {
+                    SQLiteDatabase db = AppDatabase.super.getWritableDatabase();
+                    prepareStatements(db);
+                    mOpenTimeMillis = SystemClock.elapsedRealtime() - start;
+                    Log.d(TAG, "openInBackground: database opened in " + mOpenTimeMillis + "ms");
+                } catch (RuntimeException e) {
+                    //whoever asks for the database next will try again, and get the error themselves
+                    Log.e(TAG, "openInBackground: failed to open database", e);
+                } finally {
+                    mOpened.countDown();
+                }
+            }
+        }, "AppDatabase-open");
+        mOpenThread.start();
+    }
+
+
+
+    /*
+        prepares (and throws away) the statements that are used first: the task list, the task count
+        and the inserts. Preparing a statement needs the schema, so this is where each connection
+        actually reads it. The list query is stepped through its first page rather than just prepared
+        (rawQuery alone doesnt run it until the cursor is read), so that one of the reading connections
+        the write-ahead log allows is opened and warmed up as well
+     */
+    private void prepareStatements(SQLiteDatabase db) {
+        String listQuery = SQLiteQueryBuilder.buildQueryString(false, TasksContract.TABLE_NAME, TaskPager.PROJECTION,
+                null, null, null, TaskPager.SORT_ORDER, Integer.toString(TaskPager.PAGE_SIZE + 1));
+        DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TasksContract.TABLE_NAME, null);
+        Cursor cursor = db.rawQuery(listQuery, null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+
+        String[] statements = {
+                "INSERT INTO " + TasksContract.TABLE_NAME + " ("
+                        + TasksContract.Columns.TASKS_NAME + ", "
+                        + TasksContract.Columns.TASKS_DESCRIPTION + ", "
+                        + TasksContract.Columns.TASKS_SORTORDER + ") VALUES (?, ?, ?)",
+                "INSERT INTO " + TimingsContract.TABLE_NAME + " ("
+                        + TimingsContract.Columns.TIMINGS_TASK_ID + ", "
+                        + TimingsContract.Columns.TIMINGS_START_TIME + ", "
+                        + TimingsContract.Columns.TIMINGS_DURATION + ") VALUES (?, ?, ?)"
+        };
+        for(String sql : statements) {
+            SQLiteStatement statement = db.compileStatement(sql);
+            statement.close();
+        }
+    }
+
+
+
+    /*
+        if openInBackground is still opening the database, waits for it to finish instead of starting a
+        second open on this thread. The open thread itself never waits
+     */
+    private void awaitOpen() {
+        CountDownLatch opened = mOpened;
+        if((opened == null) || (opened.getCount() == 0) || (Thread.currentThread() == mOpenThread)) {
+            return;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        try {
+            opened.await();
+        } catch (InterruptedException e) {
+            //carry on and open it here; SQLiteOpenHelper's own lock still stops it being opened twice
+            Thread.currentThread().interrupt();
+        }
+        Log.d(TAG, "awaitOpen: waited " + (SystemClock.elapsedRealtime() - start) + "ms on "
+                + Thread.currentThread().getName());
+    }
+
+
+
+    //how long openInBackground took to open the database, or -1 if it hasnt finished (or wasnt called)
+    long getOpenTimeMillis() {
+        return mOpenTimeMillis;
+    }
+
+
+
+    @Override
+    public SQLiteDatabase getWritableDatabase() {
+        awaitOpen();
+        return super.getWritableDatabase();
+    }
+
+
+
+    @Override
+    public SQLiteDatabase getReadableDatabase() {
+        awaitOpen();
+        return super.getReadableDatabase();
+    }
+
+
+
+
+
+    /*
+        called every time a connection to the database is opened, before onCreate or onUpgrade.
+
+        in the default rollback journal mode a write locks the whole database file, so a long write (the
+        timings of a bulk insert, say) makes the task list wait for it, and the other way round. With
+        write-ahead logging, writes go to a separate log file, readers carry on reading the last
+        committed data, and SQLiteDatabase keeps a pool of connections so several readers can run at
+        the same time as the writer.
+
+        synchronous NORMAL only syncs the log at checkpoints rather than on every commit. A commit can't
+        be lost if the app crashes, only if the device loses power, and for a timer app that's a good
+        trade for much cheaper commits. It's set after enabling WAL, because enabling WAL resets it
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        Log.d(TAG, "onConfigure: starts");
+        super.onConfigure(db);
+
+        db.enableWriteAheadLogging();
+        setPragma(db, "synchronous", "NORMAL");
+        setPragma(db, "wal_autocheckpoint", Integer.toString(WAL_AUTOCHECKPOINT_PAGES));
+        setPragma(db, "journal_size_limit", Long.toString(WAL_SIZE_LIMIT_BYTES));
+    }
+
+
+
+    /*
+        sets a pragma on the connection onConfigure is given, which is always the primary connection: the
+        pool's read connections are only opened later, once WAL is on. All three pragmas belong to one
+        connection and only change how that connection commits and checkpoints, and the primary
+        connection is the only one that ever writes, so the read connections dont need them.
+
+        the pragma goes through rawQuery because some pragmas return their new value as a row, which
+        execSQL refuses, and others return nothing, which longForQuery refuses. A cursor copes with both
+     */
+    private static void setPragma(SQLiteDatabase db, String pragma, String value) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma + " = " + value, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+
+
+
     //called when database is created for the first time
     @Override
     public void onCreate(SQLiteDatabase db) {
@@ -83,12 +303,258 @@ class AppDatabase extends SQLiteOpenHelper {
         Log.d(TAG, sSQL);
         db.execSQL(sSQL); //executes the sql passed in by sSQL
 
+        addTimingsTable(db);
+        addDurationsTable(db);
+        addIndexes(db);
+        addSearchTable(db);
+
         Log.d(TAG, "onCreate: ends");
 
     }
 
 
-    //only on version 1 so theres nothing to upgrade
+    /*
+        creates the Timings table, and a trigger that removes a tasks timings when the task itself is
+        deleted. Used by onCreate for a new database and by onUpgrade for a version 1 database
+     */
+    private void addTimingsTable(SQLiteDatabase db) {
+        String sSQL = "CREATE TABLE " + TimingsContract.TABLE_NAME + " ("
+                + TimingsContract.Columns._ID + " INTEGER PRIMARY KEY NOT NULL, "
+                + TimingsContract.Columns.TIMINGS_TASK_ID + " INTEGER NOT NULL, "
+                + TimingsContract.Columns.TIMINGS_START_TIME + " INTEGER, "
+                + TimingsContract.Columns.TIMINGS_DURATION + " INTEGER);";
+        Log.d(TAG, sSQL);
+        db.execSQL(sSQL);
+
+        sSQL = "CREATE TRIGGER Remove_Task"
+                + " AFTER DELETE ON " + TasksContract.TABLE_NAME
+                + " FOR EACH ROW"
+                + " BEGIN"
+                + " DELETE FROM " + TimingsContract.TABLE_NAME
+                + " WHERE " + TimingsContract.Columns.TIMINGS_TASK_ID + " = OLD." + TasksContract.Columns._ID + ";"
+                + " END;";
+        Log.d(TAG, sSQL);
+        db.execSQL(sSQL);
+    }
+
+
+
+
+
+    /*
+        creates the TaskDurations summary table and the view the durations report reads from.
+
+        the summary holds one row per task per day. Rather than adding up every timing each time the
+        report is opened, triggers on the Timings table add to or subtract from the matching day's row
+        whenever a timing is inserted, updated or deleted. That way the report reads one row per task per
+        day no matter how many timings have been recorded
+
+        the last statement fills the summary from any timings that already exist, which only matters when
+        upgrading a database that already has timings in it
+     */
+    private void addDurationsTable(SQLiteDatabase db) {
+        String sSQL = "CREATE TABLE " + DurationsContract.SUMMARY_TABLE_NAME + " ("
+                + DurationsContract.Columns._ID + " INTEGER PRIMARY KEY NOT NULL, "
+                + DurationsContract.Columns.DURATIONS_TASK_ID + " INTEGER NOT NULL, "
+                + DurationsContract.Columns.DURATIONS_START_DATE + " INTEGER NOT NULL, "
+                + DurationsContract.Columns.DURATIONS_DURATION + " INTEGER NOT NULL DEFAULT 0, "
+                + DurationsContract.Columns.DURATIONS_TIMING_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + "UNIQUE (" + DurationsContract.Columns.DURATIONS_TASK_ID + ", "
+                + DurationsContract.Columns.DURATIONS_START_DATE + "));";
+        Log.d(TAG, sSQL);
+        db.execSQL(sSQL);
+
+        sSQL = "CREATE VIEW " + DurationsContract.TABLE_NAME + " AS SELECT "
+                + DurationsContract.SUMMARY_TABLE_NAME + "." + DurationsContract.Columns._ID + ", "
+                + DurationsContract.SUMMARY_TABLE_NAME + "." + DurationsContract.Columns.DURATIONS_TASK_ID + ", "
+                + TasksContract.TABLE_NAME + "." + TasksContract.Columns.TASKS_NAME + ", "
+                + TasksContract.TABLE_NAME + "." + TasksContract.Columns.TASKS_DESCRIPTION + ", "
+                + DurationsContract.SUMMARY_TABLE_NAME + "." + DurationsContract.Columns.DURATIONS_START_DATE + ", "
+                + DurationsContract.SUMMARY_TABLE_NAME + "." + DurationsContract.Columns.DURATIONS_DURATION + ", "
+                + DurationsContract.SUMMARY_TABLE_NAME + "." + DurationsContract.Columns.DURATIONS_TIMING_COUNT
+                + " FROM " + DurationsContract.SUMMARY_TABLE_NAME
+                + " INNER JOIN " + TasksContract.TABLE_NAME
+                + " ON " + DurationsContract.SUMMARY_TABLE_NAME + "." + DurationsContract.Columns.DURATIONS_TASK_ID
+                + " = " + TasksContract.TABLE_NAME + "." + TasksContract.Columns._ID + ";";
+        Log.d(TAG, sSQL);
+        db.execSQL(sSQL);
+
+        sSQL = "CREATE TRIGGER Timings_Insert"
+                + " AFTER INSERT ON " + TimingsContract.TABLE_NAME
+                + " FOR EACH ROW"
+                + " BEGIN"
+                + addToDuration("NEW", "+")
+                + " END;";
+        Log.d(TAG, sSQL);
+        db.execSQL(sSQL);
+
+        sSQL = "CREATE TRIGGER Timings_Delete"
+                + " AFTER DELETE ON " + TimingsContract.TABLE_NAME
+                + " FOR EACH ROW"
+                + " BEGIN"
+                + addToDuration("OLD", "-")
+                + " END;";
+        Log.d(TAG, sSQL);
+        db.execSQL(sSQL);
+
+        sSQL = "CREATE TRIGGER Timings_Update"
+                + " AFTER UPDATE OF " + TimingsContract.Columns.TIMINGS_TASK_ID + ", "
+                + TimingsContract.Columns.TIMINGS_START_TIME + ", "
+                + TimingsContract.Columns.TIMINGS_DURATION
+                + " ON " + TimingsContract.TABLE_NAME
+                + " FOR EACH ROW"
+                + " BEGIN"
+                + addToDuration("OLD", "-")
+                + addToDuration("NEW", "+")
+                + " END;";
+        Log.d(TAG, sSQL);
+        db.execSQL(sSQL);
+
+        String day = "(" + TimingsContract.Columns.TIMINGS_START_TIME + " / " + DurationsContract.SECONDS_PER_DAY
+                + ") * " + DurationsContract.SECONDS_PER_DAY;
+        sSQL = "INSERT INTO " + DurationsContract.SUMMARY_TABLE_NAME + " ("
+                + DurationsContract.Columns.DURATIONS_TASK_ID + ", "
+                + DurationsContract.Columns.DURATIONS_START_DATE + ", "
+                + DurationsContract.Columns.DURATIONS_DURATION + ", "
+                + DurationsContract.Columns.DURATIONS_TIMING_COUNT + ")"
+                + " SELECT " + TimingsContract.Columns.TIMINGS_TASK_ID + ", " + day + ", "
+                + "SUM(IFNULL(" + TimingsContract.Columns.TIMINGS_DURATION + ", 0)), COUNT(*)"
+                + " FROM " + TimingsContract.TABLE_NAME
+                + " WHERE " + TimingsContract.Columns.TIMINGS_START_TIME + " IS NOT NULL"
+                + " GROUP BY " + TimingsContract.Columns.TIMINGS_TASK_ID + ", " + day + ";";
+        Log.d(TAG, sSQL);
+        db.execSQL(sSQL);
+    }
+
+
+
+    /*
+        builds the trigger statements that add a timing to (sign "+"), or remove it from (sign "-"), the
+        summary row for its task and day. row is NEW or OLD depending on which version of the timing
+        row the trigger should use.
+
+        when adding, the day's row is created first if it doesnt exist yet (INSERT OR IGNORE relies on
+        the UNIQUE constraint). When removing, the day's row is deleted once it has no timings left.
+        A timing with no start time has no day, so the INSERT is ignored and it never appears in the report
+     */
+    private static String addToDuration(String row, String sign) {
+        String taskId = row + "." + TimingsContract.Columns.TIMINGS_TASK_ID;
+        String day = "(" + row + "." + TimingsContract.Columns.TIMINGS_START_TIME + " / "
+                + DurationsContract.SECONDS_PER_DAY + ") * " + DurationsContract.SECONDS_PER_DAY;
+        String where = " WHERE " + DurationsContract.Columns.DURATIONS_TASK_ID + " = " + taskId
+                + " AND " + DurationsContract.Columns.DURATIONS_START_DATE + " = " + day;
+
+        String sql = "";
+        if(sign.equals("+")) {
+            sql += " INSERT OR IGNORE INTO " + DurationsContract.SUMMARY_TABLE_NAME + " ("
+                    + DurationsContract.Columns.DURATIONS_TASK_ID + ", "
+                    + DurationsContract.Columns.DURATIONS_START_DATE + ")"
+                    + " VALUES (" + taskId + ", " + day + ");";
+        }
+
+        sql += " UPDATE " + DurationsContract.SUMMARY_TABLE_NAME + " SET "
+                + DurationsContract.Columns.DURATIONS_DURATION + " = " + DurationsContract.Columns.DURATIONS_DURATION
+                + " " + sign + " IFNULL(" + row + "." + TimingsContract.Columns.TIMINGS_DURATION + ", 0), "
+                + DurationsContract.Columns.DURATIONS_TIMING_COUNT + " = " + DurationsContract.Columns.DURATIONS_TIMING_COUNT
+                + " " + sign + " 1"
+                + where + ";";
+
+        if(sign.equals("-")) {
+            sql += " DELETE FROM " + DurationsContract.SUMMARY_TABLE_NAME
+                    + where + " AND " + DurationsContract.Columns.DURATIONS_TIMING_COUNT + " <= 0;";
+        }
+        return sql;
+    }
+
+
+
+
+
+    /*
+        creates the indexes used by the task list and by timing lookups.
+
+        the list is sorted by SortOrder, then Name ignoring case, then _id so that every row has a
+        different key for paging. Putting _id in the index keeps the index in exactly that order, and
+        Description at the end means the index holds every column the list reads.
+
+        timings are looked up by task (the Remove_Task trigger, a task's history) and by date, so they
+        get an index for each
+     */
+    private void addIndexes(SQLiteDatabase db) {
+        String sSQL = "CREATE INDEX " + TASKS_LIST_INDEX + " ON " + TasksContract.TABLE_NAME + " ("
+                + TasksContract.Columns.TASKS_SORTORDER + ", "
+                + TasksContract.Columns.TASKS_NAME + " COLLATE NOCASE, "
+                + TasksContract.Columns._ID + ", "
+                + TasksContract.Columns.TASKS_DESCRIPTION + ");";
+        Log.d(TAG, sSQL);
+        db.execSQL(sSQL);
+
+        sSQL = "CREATE INDEX " + TIMINGS_TASK_INDEX + " ON " + TimingsContract.TABLE_NAME + " ("
+                + TimingsContract.Columns.TIMINGS_TASK_ID + ", "
+                + TimingsContract.Columns.TIMINGS_START_TIME + ");";
+        Log.d(TAG, sSQL);
+        db.execSQL(sSQL);
+
+        sSQL = "CREATE INDEX " + TIMINGS_START_INDEX + " ON " + TimingsContract.TABLE_NAME + " ("
+                + TimingsContract.Columns.TIMINGS_START_TIME + ");";
+        Log.d(TAG, sSQL);
+        db.execSQL(sSQL);
+    }
+
+
+
+
+
+    /*
+        creates the full-text index that the task search reads, and the triggers that keep it in step
+        with the tasks table. Searching with LIKE '%x%' would read every row of the tasks table on every
+        keystroke; the FTS4 table keeps an index of the words in each task's name and description, so a
+        search only reads the tasks that match.
+
+        the FTS table is an external content table: it holds the index but not a second copy of the
+        text, and reads the text from the tasks table when it needs it. Its docid is the task's _id.
+        The triggers follow SQLite's recipe for that: the old words are removed before a row changes
+        (while the old row can still be read) and the new words added after. Updates that only change
+        the sort order dont touch the index.
+
+        the last statement indexes any tasks that already exist. Everything uses IF NOT EXISTS so this is
+        safe to run against a database that has the table already
+     */
+    private void addSearchTable(SQLiteDatabase db) {
+        String name = TasksContract.Columns.TASKS_NAME;
+        String description = TasksContract.Columns.TASKS_DESCRIPTION;
+        String deleteOld = " DELETE FROM " + TASKS_SEARCH_TABLE + " WHERE docid = OLD." + TasksContract.Columns._ID + ";";
+        String insertNew = " INSERT INTO " + TASKS_SEARCH_TABLE + " (docid, " + name + ", " + description + ")"
+                + " VALUES (NEW." + TasksContract.Columns._ID + ", NEW." + name + ", NEW." + description + ");";
+        String changedColumns = " OF " + TasksContract.Columns._ID + ", " + name + ", " + description;
+
+        String[] statements = {
+                "CREATE VIRTUAL TABLE IF NOT EXISTS " + TASKS_SEARCH_TABLE + " USING fts4("
+                        + "content=\"" + TasksContract.TABLE_NAME + "\", " + name + ", " + description + ");",
+                "CREATE TRIGGER IF NOT EXISTS Tasks_Search_Insert AFTER INSERT ON " + TasksContract.TABLE_NAME
+                        + " FOR EACH ROW BEGIN" + insertNew + " END;",
+                "CREATE TRIGGER IF NOT EXISTS Tasks_Search_Before_Update BEFORE UPDATE" + changedColumns
+                        + " ON " + TasksContract.TABLE_NAME + " FOR EACH ROW BEGIN" + deleteOld + " END;",
+                "CREATE TRIGGER IF NOT EXISTS Tasks_Search_After_Update AFTER UPDATE" + changedColumns
+                        + " ON " + TasksContract.TABLE_NAME + " FOR EACH ROW BEGIN" + insertNew + " END;",
+                "CREATE TRIGGER IF NOT EXISTS Tasks_Search_Delete BEFORE DELETE ON " + TasksContract.TABLE_NAME
+                        + " FOR EACH ROW BEGIN" + deleteOld + " END;",
+                "INSERT INTO " + TASKS_SEARCH_TABLE + " (" + TASKS_SEARCH_TABLE + ") VALUES ('rebuild');"
+        };
+        for(String sSQL : statements) {
+            Log.d(TAG, sSQL);
+            db.execSQL(sSQL);
+        }
+    }
+
+
+
+
+
+    /*
+        each case upgrades the database by one version and then falls through to the next case, so a
+        database that is several versions old gets every upgrade applied in order
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         Log.d(TAG, "onUpgrade: starts");
@@ -96,6 +562,19 @@ class AppDatabase extends SQLiteOpenHelper {
         switch(oldVersion) {
             case 1:
                 //upgrade logic from version 1
+                addTimingsTable(db);
+                //fall through, to apply the version 2 upgrade as well
+            case 2:
+                //upgrade logic from version 2
+                addDurationsTable(db);
+                //fall through, to apply the version 3 upgrade as well
+            case 3:
+                //upgrade logic from version 3
+                addIndexes(db);
+                //fall through, to apply the version 4 upgrade as well
+            case 4:
+                //upgrade logic from version 4
+                addSearchTable(db);
                 break;
             default:
                 throw new IllegalStateException("onUpgrade() with unknown newVersion: " + newVersion);
@@ -1,15 +1,31 @@
 package com.peterponterio.tasktimer;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.util.Log;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Created by peterponterio on 3/11/18.
@@ -25,6 +41,48 @@ public class AppProvider extends ContentProvider {
     private static final String TAG = "AppProvider";
 
     private AppDatabase mOpenHelper;
+    private NotificationCoalescer mNotificationCoalescer;
+
+    //compiled statements for the writes to each table, reused from call to call
+    private final TableStatements mTaskStatements = new TableStatements(TasksContract.TABLE_NAME,
+            TasksContract.Columns.TASKS_NAME, TasksContract.Columns.TASKS_DESCRIPTION,
+            TasksContract.Columns.TASKS_SORTORDER);
+    private final TableStatements mTimingStatements = new TableStatements(TimingsContract.TABLE_NAME,
+            TimingsContract.Columns.TIMINGS_TASK_ID, TimingsContract.Columns.TIMINGS_START_TIME,
+            TimingsContract.Columns.TIMINGS_DURATION);
+
+    //recently read tasks, for queries on a single task
+    private final TaskRowCache mTaskCache = new TaskRowCache();
+
+    //tells the app's own screens which tables each commit changed
+    private final InvalidationTracker mInvalidationTracker = InvalidationTracker.getInstance();
+
+    /*
+        single inserts, updates and deletes are handed to this and committed in groups. null when group
+        commit is turned off, in which case each write commits on the thread that made it
+     */
+    private volatile GroupCommitter mGroupCommitter;
+
+    /*
+        the tasks whose moves used up the room next to them, waiting for a rebalance around each. A
+        rebalance is queued when the first is added, and takes them all, but they're only taken off once
+        the rebalance has been committed; a rebalance rolled back with the rest of its group is retried,
+        and has to find them again. Guarded by itself, along with mRebalanceQueued
+     */
+    private final Set<Long> mCrowdedTasks = new HashSet<>();
+    private boolean mRebalanceQueued = false;
+
+
+    /*
+        while bulkInsert or applyBatch is running on a thread, this holds the uris that have changed so
+        far in that batch. insert, update and delete add to it instead of notifying straight away, and the
+        batch notifies each uri once when its transaction has been committed. It's null when the thread
+        isn't running a batch. Each binder thread gets its own set, so concurrent batches dont mix
+     */
+    private final ThreadLocal<Set<Uri>> mBatchUris = new ThreadLocal<>();
+
+    //the crowded tasks rebalanced so far in the batch running on this thread, if there are any
+    private final ThreadLocal<Set<Long>> mBatchRebalanced = new ThreadLocal<>();
 
 
     private static final UriMatcher sUriMatcher = buildUriMatcher();
@@ -44,9 +102,25 @@ public class AppProvider extends ContentProvider {
     public static final Uri CONTENT_AUTHORITY_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
 
 
+    /*
+        optional query parameter that limits the number of rows a query returns. The value is either
+        a row count, or "offset,count" to skip rows first. Use withLimit to add it to a uri
+     */
+    static final String QUERY_PARAMETER_LIMIT = "limit";
+
+
+
+    //returns uri with a limit of count rows, starting after the first offset rows
+    static Uri withLimit(Uri uri, int offset, int count) {
+        String limit = (offset > 0) ? offset + "," + count : Integer.toString(count);
+        return uri.buildUpon().appendQueryParameter(QUERY_PARAMETER_LIMIT, limit).build();
+    }
+
+
 
     private static final int TASKS = 100;
     private static final int TASKS_ID = 101;
+    private static final int TASKS_SEARCH = 102;
 
     private static final int TIMINGS = 200;
     private static final int TIMINGS_ID = 201;
@@ -60,6 +134,8 @@ public class AppProvider extends ContentProvider {
     private static final int TASK_DURATIONS = 400;
     private static final int TASK_DURATIONS_ID = 401;
 
+    private static final int EXPORT = 500;
+
 
 
     /*
@@ -75,14 +151,24 @@ public class AppProvider extends ContentProvider {
         matcher.addURI(CONTENT_AUTHORITY, TasksContract.TABLE_NAME, TASKS);
         //  content://com.peterponterio.tasktimer.provider/Tasks/8
         matcher.addURI(CONTENT_AUTHORITY, TasksContract.TABLE_NAME + "/#", TASKS_ID);
+        //  content://com.peterponterio.tasktimer.provider/Tasks/search?q=text
+        matcher.addURI(CONTENT_AUTHORITY, TasksContract.TABLE_NAME + "/" + TasksContract.SEARCH_PATH, TASKS_SEARCH);
+
+
+        //  content://com.peterponterio.tasktimer.provider/Timings
+        matcher.addURI(CONTENT_AUTHORITY, TimingsContract.TABLE_NAME, TIMINGS);
+        //  content://com.peterponterio.tasktimer.provider/Timings/8
+        matcher.addURI(CONTENT_AUTHORITY, TimingsContract.TABLE_NAME + "/#", TIMINGS_ID);
+
 
+        //  content://com.peterponterio.tasktimer.provider/vwTaskDurations
+        matcher.addURI(CONTENT_AUTHORITY, DurationsContract.TABLE_NAME, TASK_DURATIONS);
+        //  content://com.peterponterio.tasktimer.provider/vwTaskDurations/8
+        matcher.addURI(CONTENT_AUTHORITY, DurationsContract.TABLE_NAME + "/#", TASK_DURATIONS_ID);
 
-//        matcher.addURI(CONTENT_AUTHORITY, TimingsContract.TABLE_NAME, TIMINGS);
-//        matcher.addURI(CONTENT_AUTHORITY, TimingsContract.TABLE_NAME + "/#", TIMINGS_ID);
-//
-//
-//        matcher.addURI(CONTENT_AUTHORITY, DurationsContract.TABLE_NAME, TASK_DURATIONS);
-//        matcher.addURI(CONTENT_AUTHORITY, DurationsContract.TABLE_NAME + "/#", TASK_DURATIONS_ID);
+
+        //  content://com.peterponterio.tasktimer.provider/export/Timings.csv
+        matcher.addURI(CONTENT_AUTHORITY, ExportContract.PATH + "/*", EXPORT);
 
         return matcher;
     }
@@ -101,25 +187,130 @@ public class AppProvider extends ContentProvider {
         //get the instance of the database and store it in mOpenHelper.
         mOpenHelper = AppDatabase.getInstance(getContext());
 
+        /*
+            the provider is created as the app starts, so start opening the database now, off the main
+            thread. Queries that arrive before it's open wait for it rather than opening it themselves
+         */
+        mOpenHelper.openInBackground();
+        mNotificationCoalescer = new NotificationCoalescer(getContext().getContentResolver());
+        setGroupCommit(true);
+
         return true;
     }
 
 
 
+    //only called by unit tests, which create a provider for each test
+    @Override
+    public void shutdown() {
+        setGroupCommit(false);
+        mNotificationCoalescer.quit();
+        super.shutdown();
+    }
 
 
 
+    /*
+        turns group commit on or off. It's on from onCreate; the benchmarks turn it off to compare.
+        Turning it off waits for the writes that are already queued to be committed
+     */
+    synchronized void setGroupCommit(boolean enabled) {
+        if(enabled && (mGroupCommitter == null)) {
+            mGroupCommitter = new GroupCommitter(mOpenHelper, new GroupCommitter.Listener() {
+                //only used on the writer thread
+                private boolean mOwnsBatch;
 
+                /*
+                    the group's writes are a batch like bulkInsert's, so their notifications wait for the
+                    commit, and are dropped if the group is rolled back
+                 */
+                @Override
+                public void onGroupStarted() {
+                    mOwnsBatch = beginBatch();
+                }
+
+                @Override
+                public void onGroupEnded(boolean committed) {
+                    endBatch(mOwnsBatch, committed);
+                }
+            });
+        } else if(!enabled && (mGroupCommitter != null)) {
+            mGroupCommitter.close();
+            mGroupCommitter = null;
+        }
+    }
+
+
+
+    //only used by unit tests, to queue writes of their own in the same groups as the provider's
+    GroupCommitter getGroupCommitter() {
+        return mGroupCommitter;
+    }
+
+
+
+    /*
+        gives in-process callers (ContentProviderClient.getLocalContentProvider) access to the
+        notification counters
+     */
+    NotificationCoalescer getNotificationCoalescer() {
+        return mNotificationCoalescer;
+    }
+
+
+
+    //as above, for the statement counters of the tasks and timings tables
+    TableStatements getTaskStatements() {
+        return mTaskStatements;
+    }
+
+    TableStatements getTimingStatements() {
+        return mTimingStatements;
+    }
+
+    //as above, for the hit, miss and eviction counts of the task cache
+    TaskRowCache getTaskCache() {
+        return mTaskCache;
+    }
+
+    //as above, for the group sizes of group commit. null when it's turned off
+    GroupCommitter getGroupCommitter() {
+        return mGroupCommitter;
+    }
+
+
+
+
+
+
+
+
+
+
+    /*
+        the version of query that ContentResolver calls when it's given a CancellationSignal. A search
+        runs on every pause in typing, so a search that's been overtaken by the next one is cancelled
+        rather than left to finish. The other queries are quick enough not to need it
+     */
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder,
+                        @Nullable CancellationSignal cancellationSignal) {
+        if(sUriMatcher.match(uri) == TASKS_SEARCH) {
+            return searchTasks(uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        }
+        return query(uri, projection, selection, selectionArgs, sortOrder);
+    }
 
 
 
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
-        Log.d(TAG, "query: called with URI " + uri);
+        final long start = ProviderTrace.start();
         //use the value of match to decide which uri was passed into the query method
         final int match = sUriMatcher.match(uri);
-        Log.d(TAG, "query: match is " + match);
 
         SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
 
@@ -133,7 +324,8 @@ public class AppProvider extends ContentProvider {
 
             when an id is included, the uri matches TASKS_ID, TIMINGS_ID, or TASK_DURATIONS_ID, we call
             the getTaskId, getTimingId, or getDuration method and that will extract the ID from the uri.
-            Then we call queryBuilder's .appendWhere method and that adds a WHERE clause to the query
+            Then the id is added to the WHERE clause as an argument, rather than written into the SQL,
+            so the SQL is the same whichever row is asked for and SQLite can reuse its compiled query
 
 
             its up to the contract classes(TasksContract, TimingsContract, DurationsContract) to parse
@@ -146,37 +338,62 @@ public class AppProvider extends ContentProvider {
                 queryBuilder.setTables(TasksContract.TABLE_NAME);
                 break;
 
+            /*
+                a plain query for a single task is answered from mTaskCache when it can be. Anything
+                with a selection of its own goes to the database as usual
+             */
             case TASKS_ID:
                 queryBuilder.setTables(TasksContract.TABLE_NAME);
                 long taskId = TasksContract.getTaskId(uri);
-                queryBuilder.appendWhere(TasksContract.Columns._ID + " = " + taskId);
+                if(((selection == null) || (selection.length() == 0))
+                        && (uri.getQueryParameter(QUERY_PARAMETER_LIMIT) == null)) {
+                    Cursor cached = mTaskCache.query(mOpenHelper.getReadableDatabase(), taskId, projection);
+                    if(cached != null) {
+                        cached.setNotificationUri(getContext().getContentResolver(), uri);
+                        ProviderTrace.end("query", uri, start, cached.getCount());
+                        return cached;
+                    }
+                }
+                selection = idSelection(selection);
+                selectionArgs = idSelectionArgs(taskId, selectionArgs);
                 break;
 
+            case TASKS_SEARCH:
+                return searchTasks(uri, projection, selection, selectionArgs, sortOrder, null);
 
+            case EXPORT:
+                return queryExport(uri, projection);
 
 
-//            case TIMINGS:
-//                queryBuilder.setTables(TimingsContract.TABLE_NAME);
-//                break;
 
-//            case TIMINGS_ID:
-//                queryBuilder.setTables(TimingsContract.TABLE_NAME);
-//                long timingId = TimingsContract.getTimingId(uri);
-//                queryBuilder.appendWhere(TimingsContract.Columns._ID + " = " + timingId);
-//                break;
-//
 
+            case TIMINGS:
+                queryBuilder.setTables(TimingsContract.TABLE_NAME);
+                break;
+
+            case TIMINGS_ID:
+                queryBuilder.setTables(TimingsContract.TABLE_NAME);
+                long timingId = TimingsContract.getTimingId(uri);
+                selection = idSelection(selection);
+                selectionArgs = idSelectionArgs(timingId, selectionArgs);
+                break;
 
-//
-//            case TASK_DURATIONS:
-//                queryBuilder.setTables(DurationsContract.TABLE_NAME);
-//                break;
 
-//            case TASK_DURATIONS_ID:
-//                queryBuilder.setTables(DurationsContract.TABLE_NAME);
-//                long durationId = DurationsContract.getDuration(uri);
-//                queryBuilder.appendWhere(DurationsContract.Columns._ID + " = " + durationId);
-//                break;
+
+            /*
+                the durations report reads the summary view, which already holds one row per task per
+                day, so there's no grouping over the timings table here
+             */
+            case TASK_DURATIONS:
+                queryBuilder.setTables(DurationsContract.TABLE_NAME);
+                break;
+
+            case TASK_DURATIONS_ID:
+                queryBuilder.setTables(DurationsContract.TABLE_NAME);
+                long durationId = DurationsContract.getDurationId(uri);
+                selection = idSelection(selection);
+                selectionArgs = idSelectionArgs(durationId, selectionArgs);
+                break;
 
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
@@ -196,10 +413,44 @@ public class AppProvider extends ContentProvider {
             table rather than a specific record. So that means that any changes to the table can be
             notified
          */
-        Cursor cursor = queryBuilder.query(db, projection, selection, selectionArgs, null, null, sortOrder);
-        Log.d(TAG, "query: rows in returned cursor = " + cursor.getCount()); // TODO remove this line
+        /*
+            the cursor is returned without asking it for its count. SQLite doesnt run the query until
+            the cursor is first read, so whoever asked for it decides when that happens, and on which
+            thread. In debug builds the cursor comes from ProviderTrace's factory, which times that
+            first read and counts the rows as it happens
+         */
+        if(ProviderTrace.ENABLED) {
+            queryBuilder.setCursorFactory(ProviderTrace.cursorFactory(uri));
+        }
+        String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+        Cursor cursor = queryBuilder.query(db, projection, selection, selectionArgs, null, null, sortOrder, limit);
 
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        ProviderTrace.end("query", uri, start, -1);
+        return cursor;
+    }
+
+
+
+
+
+
+
+    /*
+        searches the tasks' names and descriptions for the uri's search text, through the full-text
+        index. The rows are tasks rows, those whose name matches first, so the cursor is told about
+        changes to the tasks table like any other query on it
+     */
+    private Cursor searchTasks(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                               String sortOrder, CancellationSignal cancellationSignal) {
+        final long start = ProviderTrace.start();
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        Cursor cursor = TaskSearch.query(db, TasksContract.getSearchText(uri), projection, selection, selectionArgs,
+                sortOrder, uri.getQueryParameter(QUERY_PARAMETER_LIMIT), cancellationSignal,
+                ProviderTrace.ENABLED ? ProviderTrace.cursorFactory(uri) : null);
+
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        ProviderTrace.end("query", uri, start, -1);
         return cursor;
     }
 
@@ -216,24 +467,27 @@ public class AppProvider extends ContentProvider {
         //returns appropriate MIME type
         switch (match) {
             case TASKS:
+            case TASKS_SEARCH:
                 return TasksContract.CONTENT_TYPE;
 
             case TASKS_ID:
                 return TasksContract.CONTENT_ITEM_TYPE;
 
-//            case TIMINGS:
-//                return TimingsContract.Timings.CONTENT_TYPE;
-//
-//            case TIMINGS_ID:
-//                return TimingsContract.Timings.CONTENT_ITEM_TYPE;
-//
-//            case TASK_DURATIONS:
-//                return DurationsContract.TaskDurations.CONTENT_TYPE;
-//
-//            case TASK_DURATIONS_ID:
-//                return DurationsContract.TaskDurations.CONTENT_ITEM_TYPE;
-//
-//
+            case TIMINGS:
+                return TimingsContract.CONTENT_TYPE;
+
+            case TIMINGS_ID:
+                return TimingsContract.CONTENT_ITEM_TYPE;
+
+            case TASK_DURATIONS:
+                return DurationsContract.CONTENT_TYPE;
+
+            case TASK_DURATIONS_ID:
+                return DurationsContract.CONTENT_ITEM_TYPE;
+
+            case EXPORT:
+                return ExportContract.mimeTypeOf(ExportContract.getFormat(uri));
+
             default:
                 throw new IllegalArgumentException("unknown Uri: " + uri);
         }
@@ -248,13 +502,137 @@ public class AppProvider extends ContentProvider {
 
 
 
+    /*
+        an export can be streamed as either format, whichever extension its uri has. Used by
+        ContentResolver.getStreamTypes and openTypedAssetFileDescriptor
+     */
+    @Nullable
+    @Override
+    public String[] getStreamTypes(@NonNull Uri uri, @NonNull String mimeTypeFilter) {
+        if(sUriMatcher.match(uri) != EXPORT) {
+            return null;
+        }
+        List<String> types = new ArrayList<>();
+        for(String type : new String[]{ExportContract.MIME_TYPE_CSV, ExportContract.MIME_TYPE_JSON}) {
+            if(ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                types.add(type);
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+
+
+    //opens an export in the format of its uri's extension
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        return openExport(uri, mode, ExportContract.getFormat(uri));
+    }
+
+
+
+    //opens an export in whichever format matches mimeTypeFilter, csv if both do
+    @Nullable
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(@NonNull Uri uri, @NonNull String mimeTypeFilter,
+                                                  @Nullable Bundle opts) throws FileNotFoundException {
+        if(sUriMatcher.match(uri) != EXPORT) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        String format = ClipDescription.compareMimeTypes(ExportContract.MIME_TYPE_CSV, mimeTypeFilter)
+                ? ExportContract.FORMAT_CSV : ExportContract.FORMAT_JSON;
+        if(!ClipDescription.compareMimeTypes(ExportContract.mimeTypeOf(format), mimeTypeFilter)) {
+            throw new FileNotFoundException("Can't export " + uri + " as " + mimeTypeFilter);
+        }
+        ParcelFileDescriptor pipe = openExport(uri, "r", format);
+        return new AssetFileDescriptor(pipe, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+
+
+    /*
+        returns the read end of a pipe, and starts writing the table into the other end on a background
+        thread (openPipeHelper uses AsyncTask's thread pool). The reader can start reading straight
+        away; see TableExport for how the rows are read
+     */
+    private ParcelFileDescriptor openExport(Uri uri, String mode, String format) throws FileNotFoundException {
+        if(sUriMatcher.match(uri) != EXPORT) {
+            throw new FileNotFoundException("Not an export: " + uri);
+        }
+        if(!"r".equals(mode)) {
+            throw new FileNotFoundException("Exports are read only: " + uri);
+        }
+        String[] columns = TableExport.columnsFor(ExportContract.getTableName(uri));
+        if(columns == null) {
+            throw new FileNotFoundException("Unknown table: " + uri);
+        }
+
+        TableExport export = new TableExport(mOpenHelper.getReadableDatabase(),
+                ExportContract.getTableName(uri), columns);
+        return openPipeHelper(uri, ExportContract.mimeTypeOf(format), null, format, export);
+    }
+
+
+
+    /*
+        apps that an export is shared with usually ask for its name and size before they read it. The
+        size isnt known until it's been written, so it's left null
+     */
+    private Cursor queryExport(Uri uri, String[] projection) {
+        if(projection == null) {
+            projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        Object[] row = new Object[projection.length];
+        for(int i = 0; i < projection.length; i++) {
+            if(OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                row[i] = "TaskTimer-" + uri.getLastPathSegment();
+            }
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+
+
+
+
+
+
+
+
+
+    /*
+        insert, update and delete each hand the write to the group committer when there is one, and wait
+        for the group it's in to be committed. A write made during bulkInsert or applyBatch, or by the
+        writer thread itself, is already inside a transaction, so it runs straight away instead; it
+        would never be committed if it waited for the writer, which is waiting for that transaction
+     */
     @Nullable
     @Override
-    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+    public Uri insert(@NonNull final Uri uri, @Nullable final ContentValues values) {
+        GroupCommitter groupCommitter = groupCommitterFor();
+        if(groupCommitter == null) {
+            return insertNow(uri, values);
+        }
+        final long start = ProviderTrace.start();
+        Uri result = groupCommitter.execute(new GroupCommitter.Write<Uri>() {
+            @Override
+            public Uri run(SQLiteDatabase db) {
+                return insertNow(uri, values);
+            }
+        });
+        ProviderTrace.end("insert", uri, start, (result != null) ? 1 : 0);
+        return result;
+    }
+
+
+
+    private Uri insertNow(Uri uri, ContentValues values) {
         //check the uri and get a result back from the uri matcher
-        Log.d(TAG, "Entering insert, called with uri: " + uri);
+        final long start = traceStart();
         final int match = sUriMatcher.match(uri);
-        Log.d(TAG, "match is " + match);
 
         final SQLiteDatabase db;
 
@@ -271,9 +649,12 @@ public class AppProvider extends ContentProvider {
                     just passing it onto the database insert method, we dont need to call any of it methods
 
                     the db insert method will return the ID of the new row
+
+                    mTaskStatements does the same thing as db's insert method, but with a statement
+                    that's been compiled already
                  */
                 db = mOpenHelper.getWritableDatabase();
-                recordId = db.insert(TasksContract.TABLE_NAME, null, values);
+                recordId = mTaskStatements.insert(db, values);
                 if(recordId >=0) {
                     //appending the id to the uri
                     returnUri = TasksContract.buildTaskUri(recordId);
@@ -283,14 +664,14 @@ public class AppProvider extends ContentProvider {
                 break;
 
             case TIMINGS:
-//                db = mOpenHelper.getWritableDatabase();
-//                recordId = db.insert(TimingsContract.Timings.buildTimingUri(recordId));
-//                if(recordId >=0) {
-//                    returnUri = TimingsContract.Timings.buildTimingUri(recordId);
-//                } else {
-//                    throw new android.database.SQLException("Failed to insert into " + uri.toString());
-//                }
-//                break;
+                db = mOpenHelper.getWritableDatabase();
+                recordId = mTimingStatements.insert(db, values);
+                if(recordId >=0) {
+                    returnUri = TimingsContract.buildTimingUri(recordId);
+                } else {
+                    throw new android.database.SQLException("Failed to insert into " + uri.toString());
+                }
+                break;
 
             default:
                 throw new IllegalArgumentException("Unknown uri: " + uri);
@@ -300,16 +681,19 @@ public class AppProvider extends ContentProvider {
         //trigger notifications
         if (recordId >= 0) {
             //something was inserted
-            Log.d(TAG, "insert: Setting notifyChanged with " + uri);
-            getContext().getContentResolver().notifyChange(uri, null);
-        } else {
-            Log.d(TAG, "insert: nothing inserted");
+            if(match == TASKS) {
+                mTaskCache.invalidate(recordId);
+            }
+            notifyChange(uri);
+            if(match == TIMINGS) {
+                notifyDurationsChanged();
+            }
         }
 
 
 
 
-        Log.d(TAG, "Exiting insert, returning " + returnUri);
+        ProviderTrace.end("insert", uri, start, (recordId >= 0) ? 1 : 0);
         return returnUri;
     }
 
@@ -322,23 +706,291 @@ public class AppProvider extends ContentProvider {
 
 
 
+    /*
+        the default bulkInsert calls insert once for each row, and each of those would be its own implicit
+        SQLite transaction, synced to disk before the next row can start, and would send its own change
+        notification. Here all the rows are inserted inside a single transaction, so there's one sync for
+        the whole batch, and each changed uri is notified once after the commit
+
+        the rows still go through insert, so they're checked and routed exactly like a single insert. If
+        any row fails, insert throws before setTransactionSuccessful is called, so none of the rows are
+        kept and nothing is notified
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final long start = ProviderTrace.start();
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final boolean ownsBatch = beginBatch();
+        boolean successful = false;
+        int count = 0;
+
+        db.beginTransaction();
+        try {
+            for(ContentValues row : values) {
+                if(insert(uri, row) != null) {
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            endBatch(ownsBatch, successful);
+        }
 
 
+        ProviderTrace.end("bulkInsert", uri, start, count);
+        return count;
+    }
+
 
 
 
 
 
 
+
+
+
+    /*
+        the default applyBatch applies each operation on its own, so every operation is a separate
+        transaction with its own notification. Here they all run inside one transaction; either every
+        operation is applied or, if one of them throws, none of them are. Notifications are held back
+        until the commit, and each changed uri is only notified once
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final long start = ProviderTrace.start();
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final boolean ownsBatch = beginBatch();
+        boolean successful = false;
+        ContentProviderResult[] results;
+
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            endBatch(ownsBatch, successful);
+        }
+
+        ProviderTrace.end("applyBatch", CONTENT_AUTHORITY_URI, start, operations.size());
+        return results;
+    }
+
+
+
+
+
+
+
+
+
+
+    /*
+        the only method is TasksContract.METHOD_MOVE_TASK, which moves a task to a new place in the list.
+        A move is a single write, so like insert, update and delete it goes through the group committer
+     */
+    @Nullable
     @Override
-    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
-        Log.d(TAG, "delete called with uri " + uri);
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if(!TasksContract.METHOD_MOVE_TASK.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        if((extras == null) || !extras.containsKey(TasksContract.EXTRA_TASK_ID)) {
+            throw new IllegalArgumentException(method + " needs " + TasksContract.EXTRA_TASK_ID);
+        }
+        final long taskId = extras.getLong(TasksContract.EXTRA_TASK_ID);
+        final long afterTaskId = extras.getLong(TasksContract.EXTRA_AFTER_TASK_ID, 0);
+
+        GroupCommitter groupCommitter = groupCommitterFor();
+        if(groupCommitter == null) {
+            return moveTaskNow(taskId, afterTaskId);
+        }
+        final long start = ProviderTrace.start();
+        Bundle result = groupCommitter.execute(new GroupCommitter.Write<Bundle>() {
+            @Override
+            public Bundle run(SQLiteDatabase db) {
+                return moveTaskNow(taskId, afterTaskId);
+            }
+        });
+        ProviderTrace.end("moveTask", TasksContract.buildTaskUri(taskId), start, (result != null) ? 1 : 0);
+        return result;
+    }
+
+
+
+    /*
+        a move reads the task's new neighbours and then writes between them, so it has a transaction of
+        its own even when it's part of a group. If the move took the last of the gap next to the task,
+        the rows around it are rebalanced after it, in the background
+     */
+    private Bundle moveTaskNow(long taskId, long afterTaskId) {
+        final long start = traceStart();
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final boolean ownsBatch = beginBatch();
+        boolean successful = false;
+        TaskReorder.Move move;
+
+        db.beginTransaction();
+        try {
+            move = TaskReorder.move(db, taskId, afterTaskId);
+            if(move != null) {
+                notifyChange(TasksContract.CONTENT_URI);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            endBatch(ownsBatch, successful);
+        }
+
+        ProviderTrace.end("moveTask", TasksContract.buildTaskUri(taskId), start, (move != null) ? 1 : 0);
+        if(move == null) {
+            return null;
+        }
+        if(move.crowded) {
+            scheduleRebalance(taskId);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(TasksContract.EXTRA_SORT_ORDER, move.sortOrder);
+        return result;
+    }
+
+
+
+    /*
+        queues a rebalance of the sort orders around taskId on the group committer's thread, so it doesnt
+        hold up the move that asked for it. Moves that ask while one is queued share it. With group
+        commit turned off it runs straight away instead
+     */
+    private void scheduleRebalance(long taskId) {
+        synchronized (mCrowdedTasks) {
+            mCrowdedTasks.add(taskId);
+            if(mRebalanceQueued) {
+                return;
+            }
+            mRebalanceQueued = true;
+        }
+        queueRebalance();
+    }
+
+
+
+    private void queueRebalance() {
+        GroupCommitter groupCommitter = mGroupCommitter;
+        if(groupCommitter == null) {
+            rebalanceNow();
+            return;
+        }
+        try {
+            groupCommitter.submit(new GroupCommitter.Write<Integer>() {
+                @Override
+                public Integer run(SQLiteDatabase db) {
+                    return rebalanceNow();
+                }
+            });
+        } catch (IllegalStateException e) {
+            //group commit was turned off just now; the next move that needs room will rebalance them all
+            synchronized (mCrowdedTasks) {
+                mRebalanceQueued = false;
+            }
+        }
+    }
+
+
+
+    private int rebalanceNow() {
+        Long[] taskIds;
+        synchronized (mCrowdedTasks) {
+            taskIds = mCrowdedTasks.toArray(new Long[mCrowdedTasks.size()]);
+        }
+        final long start = ProviderTrace.start();
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final boolean ownsBatch = beginBatch();
+        boolean successful = false;
+        int count;
+
+        //taken off mCrowdedTasks by endBatch, once it knows whether the batch was committed
+        Set<Long> rebalanced = mBatchRebalanced.get();
+        if(rebalanced == null) {
+            rebalanced = new HashSet<>();
+            mBatchRebalanced.set(rebalanced);
+        }
+        Collections.addAll(rebalanced, taskIds);
+
+        db.beginTransaction();
+        try {
+            //a task deleted since its move has nothing around it to rebalance
+            count = 0;
+            for(Long taskId : taskIds) {
+                count += TaskReorder.rebalance(db, taskId);
+            }
+            if(count > 0) {
+                notifyChange(TasksContract.CONTENT_URI);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            endBatch(ownsBatch, successful);
+        }
+
+        ProviderTrace.end("rebalance", TasksContract.CONTENT_URI, start, count);
+        return count;
+    }
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+    @Override
+    public int delete(@NonNull final Uri uri, @Nullable final String selection, @Nullable final String[] selectionArgs) {
+        GroupCommitter groupCommitter = groupCommitterFor();
+        if(groupCommitter == null) {
+            return deleteNow(uri, selection, selectionArgs);
+        }
+        final long start = ProviderTrace.start();
+        int count = groupCommitter.execute(new GroupCommitter.Write<Integer>() {
+            @Override
+            public Integer run(SQLiteDatabase db) {
+                return deleteNow(uri, selection, selectionArgs);
+            }
+        });
+        ProviderTrace.end("delete", uri, start, count);
+        return count;
+    }
+
+
+
+    private int deleteNow(Uri uri, String selection, String[] selectionArgs) {
+        final long start = traceStart();
         final int match = sUriMatcher.match(uri);
-        Log.d(TAG, "match is  " + match);
 
         final SQLiteDatabase db;
         int count;
-        String selectionCriteria;
 
 
         switch (match) {
@@ -352,31 +1004,31 @@ public class AppProvider extends ContentProvider {
             case TASKS_ID:
                 db = mOpenHelper.getWritableDatabase();
                 long taskId = TasksContract.getTaskId(uri);
-                selectionCriteria = TasksContract.Columns._ID + " = " + taskId;
 
                 if((selection != null) && (selection.length()>0)) {
-                    selectionCriteria += " AND (" + selection + ")";
+                    count = db.delete(TasksContract.TABLE_NAME, idSelection(selection), idSelectionArgs(taskId, selectionArgs));
+                } else {
+                    count = mTaskStatements.delete(db, taskId);
                 }
-                count = db.delete(TasksContract.TABLE_NAME, selectionCriteria, selectionArgs);
                 break;
 
 
 
-//            case TIMINGS:
-//                db = mOpenHelper.getWritableDatabase();
-//                count = db.delete(TimingsContract.TABLE_NAME, selection, selectionArgs);
-//                break;
-//
-//            case TIMINGS_ID:
-//                db = mOpenHelper.getWritableDatabase();
-//                long timingsId = TimingsContract.getTaskId(uri);
-//                selectionCriteria = TimingsContract.Columns._ID + " = " + timingsId;
-//
-//                if((selection != null) && (selection.length()>0)) {
-//                    selectionCriteria += " AND (" + selection + ")";
-//                }
-//                count = db.delete(TimingsContract.TABLE_NAME, selectionCriteria, selectionArgs);
-//                break;
+            case TIMINGS:
+                db = mOpenHelper.getWritableDatabase();
+                count = db.delete(TimingsContract.TABLE_NAME, selection, selectionArgs);
+                break;
+
+            case TIMINGS_ID:
+                db = mOpenHelper.getWritableDatabase();
+                long timingsId = TimingsContract.getTimingId(uri);
+
+                if((selection != null) && (selection.length()>0)) {
+                    count = db.delete(TimingsContract.TABLE_NAME, idSelection(selection), idSelectionArgs(timingsId, selectionArgs));
+                } else {
+                    count = mTimingStatements.delete(db, timingsId);
+                }
+                break;
 
 
 
@@ -389,15 +1041,14 @@ public class AppProvider extends ContentProvider {
         //trigger notifications
         if(count > 0) {
             //somethign was deleted
-            Log.d(TAG, "delete: Setting notifyChange with " + uri);
-            getContext().getContentResolver().notifyChange(uri, null);
-        } else {
-            Log.d(TAG, "delete: nothing deleted");
+            invalidateTasks(match, uri);
+            notifyChange(uri);
+            notifyDurationsChanged();
         }
 
 
 
-        Log.d(TAG, "Exiting update, returning " + count);
+        ProviderTrace.end("delete", uri, start, count);
         return count;
     }
 
@@ -414,14 +1065,31 @@ public class AppProvider extends ContentProvider {
 
 
     @Override
-    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
-        Log.d(TAG, "update called with uri " + uri);
+    public int update(@NonNull final Uri uri, @Nullable final ContentValues values, @Nullable final String selection,
+                      @Nullable final String[] selectionArgs) {
+        GroupCommitter groupCommitter = groupCommitterFor();
+        if(groupCommitter == null) {
+            return updateNow(uri, values, selection, selectionArgs);
+        }
+        final long start = ProviderTrace.start();
+        int count = groupCommitter.execute(new GroupCommitter.Write<Integer>() {
+            @Override
+            public Integer run(SQLiteDatabase db) {
+                return updateNow(uri, values, selection, selectionArgs);
+            }
+        });
+        ProviderTrace.end("update", uri, start, count);
+        return count;
+    }
+
+
+
+    private int updateNow(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        final long start = traceStart();
         final int match = sUriMatcher.match(uri);
-        Log.d(TAG, "match is  " + match);
 
         final SQLiteDatabase db;
         int count;
-        String selectionCriteria;
 
 
         switch (match) {
@@ -441,40 +1109,41 @@ public class AppProvider extends ContentProvider {
 
 
             /*
-                start by getting the id from the uri using the getTaskId method and then we have to
-                build up a string containing the condition for the WHERE clause
+                start by getting the id from the uri using the getTaskId method. When there's no
+                selection the update is always the same shape, so the compiled statement for it is used
+                with the id bound as an argument
 
                 check to see if the selection parameter contains something and if it does, we add it
-                to the selection criteria
+                to the selection criteria, after the id
              */
             case TASKS_ID:
                 db = mOpenHelper.getWritableDatabase();
                 long taskId = TasksContract.getTaskId(uri);
-                selectionCriteria = TasksContract.Columns._ID + " = " + taskId;
 
                 if((selection != null) && (selection.length()>0)) {
-                    selectionCriteria += " AND (" + selection + ")";
+                    count = db.update(TasksContract.TABLE_NAME, values, idSelection(selection), idSelectionArgs(taskId, selectionArgs));
+                } else {
+                    count = mTaskStatements.update(db, values, taskId);
                 }
-                count = db.update(TasksContract.TABLE_NAME, values, selectionCriteria, selectionArgs);
                 break;
 
 
 
-//            case TIMINGS:
-//                db = mOpenHelper.getWritableDatabase();
-//                count = db.update(TimingsContract.TABLE_NAME, values, selection, selectionArgs);
-//                break;
-//
-//            case TIMINGS_ID:
-//                db = mOpenHelper.getWritableDatabase();
-//                long timingsId = TimingsContract.getTaskId(uri);
-//                selectionCriteria = TimingsContract.Columns._ID + " = " + timingsId;
-//
-//                if((selection != null) && (selection.length()>0)) {
-//                    selectionCriteria += " AND (" + selection + ")";
-//                }
-//                count = db.update(TimingsContract.TABLE_NAME, values, selectionCriteria, selectionArgs);
-//                break;
+            case TIMINGS:
+                db = mOpenHelper.getWritableDatabase();
+                count = db.update(TimingsContract.TABLE_NAME, values, selection, selectionArgs);
+                break;
+
+            case TIMINGS_ID:
+                db = mOpenHelper.getWritableDatabase();
+                long timingsId = TimingsContract.getTimingId(uri);
+
+                if((selection != null) && (selection.length()>0)) {
+                    count = db.update(TimingsContract.TABLE_NAME, values, idSelection(selection), idSelectionArgs(timingsId, selectionArgs));
+                } else {
+                    count = mTimingStatements.update(db, values, timingsId);
+                }
+                break;
 
 
 
@@ -487,16 +1156,237 @@ public class AppProvider extends ContentProvider {
         //trigger notifications
         if(count > 0) {
             //somethign was updated
-            Log.d(TAG, "update: Setting notifyChange with " + uri);
-            getContext().getContentResolver().notifyChange(uri, null);
-        } else {
-            Log.d(TAG, "update: nothing deleted");
+            invalidateTasks(match, uri);
+            notifyChange(uri);
+            notifyDurationsChanged();
         }
 
 
-        Log.d(TAG, "Exiting update, returning " + count);
+        ProviderTrace.end("update", uri, start, count);
         return count;
     }
 
 
+
+
+
+
+
+
+
+
+    /*
+        the start time for tracing a single write, or 0 (not traced) when it's part of a batch. A
+        bulkInsert of 10000 rows is traced once, as a bulkInsert, rather than once for each row as well.
+        Writes handed to the group committer are traced by the thread that made them instead, since on
+        the writer thread they're part of the group's batch
+     */
+    private long traceStart() {
+        if(mBatchUris.get() != null) {
+            return 0;
+        }
+        return ProviderTrace.start();
+    }
+
+
+
+    //the group committer a write on this thread should go through, or null if it should run straight away
+    private GroupCommitter groupCommitterFor() {
+        if(mBatchUris.get() != null) {
+            return null;
+        }
+        return mGroupCommitter;
+    }
+
+
+
+
+
+
+
+
+
+
+    /*
+        the WHERE clause for a single row, with the id as its first argument, followed by selection if
+        there is one
+     */
+    private static String idSelection(String selection) {
+        if((selection != null) && (selection.length()>0)) {
+            return TableStatements.ID_SELECTION + " AND (" + selection + ")";
+        }
+        return TableStatements.ID_SELECTION;
+    }
+
+
+
+    //the arguments for idSelection: the id, then selectionArgs
+    private static String[] idSelectionArgs(long id, String[] selectionArgs) {
+        int extra = (selectionArgs != null) ? selectionArgs.length : 0;
+        String[] args = new String[extra + 1];
+        args[0] = Long.toString(id);
+        if(extra > 0) {
+            System.arraycopy(selectionArgs, 0, args, 1, extra);
+        }
+        return args;
+    }
+
+
+
+
+
+
+
+
+
+
+    //drops the cached copies of the tasks that a write to uri has changed
+    private void invalidateTasks(int match, Uri uri) {
+        if(match == TASKS) {
+            mTaskCache.invalidateAll();
+        } else if(match == TASKS_ID) {
+            mTaskCache.invalidate(TasksContract.getTaskId(uri));
+        }
+    }
+
+
+
+
+
+
+
+
+
+
+    /*
+        the durations report is built by triggers from the timings, and it shows the task names as well, so
+        any change to a timing, or an update or delete of a task, changes what the report shows. Any
+        cursor on the report registered its notification uri against the durations uri, so it wont hear
+        about changes to the timings or tasks uris and has to be told separately
+     */
+    private void notifyDurationsChanged() {
+        notifyChange(DurationsContract.CONTENT_URI);
+    }
+
+
+
+
+
+
+
+
+
+
+    /*
+        records that the data for uri has changed. The uri is widened to its table's uri first; a
+        notification for a table also reaches everyone watching a single row of it, so a burst of edits
+        to different rows only needs one notification.
+
+        if this thread is in the middle of a batch the uri is kept for the batch to hand over once it's
+        committed, otherwise it goes to the coalescer, which notifies it at the end of a short window.
+        The invalidation tracker doesnt wait for the window; its observers collapse changes themselves
+     */
+    private void notifyChange(Uri uri) {
+        Uri tableUri = tableUriFor(uri);
+        Set<Uri> batchUris = mBatchUris.get();
+        if(batchUris != null) {
+            batchUris.add(tableUri);
+        } else {
+            mNotificationCoalescer.markDirty(tableUri);
+            mInvalidationTracker.invalidate(Collections.singleton(tableUri));
+        }
+    }
+
+
+
+    //returns the uri of the table that uri refers to
+    private static Uri tableUriFor(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case TASKS:
+            case TASKS_ID:
+            case TASKS_SEARCH:
+                return TasksContract.CONTENT_URI;
+
+            case TIMINGS:
+            case TIMINGS_ID:
+                return TimingsContract.CONTENT_URI;
+
+            case TASK_DURATIONS:
+            case TASK_DURATIONS_ID:
+                return DurationsContract.CONTENT_URI;
+
+            default:
+                return uri;
+        }
+    }
+
+
+
+    /*
+        starts collecting notifications for a batch on this thread. Returns false if the thread is already
+        in a batch, in which case the outer batch is the one that sends the notifications
+     */
+    private boolean beginBatch() {
+        if(mBatchUris.get() != null) {
+            return false;
+        }
+        mBatchUris.set(new HashSet<Uri>());
+        return true;
+    }
+
+
+
+    /*
+        finishes the batch started by beginBatch. The collected uris are only notified if the batch's
+        transaction was committed, and they're notified along with anything else that's pending. If it
+        was rolled back then nothing actually changed
+     */
+    private void endBatch(boolean ownsBatch, boolean successful) {
+        if(!ownsBatch) {
+            return;
+        }
+
+        Set<Uri> batchUris = mBatchUris.get();
+        mBatchUris.remove();
+
+        /*
+            a query for a task made while the batch was running could have cached a row the batch
+            changed but hadnt committed yet, or one that was then rolled back, so the cache can only
+            be trusted again now the transaction has ended
+         */
+        if(batchUris.contains(TasksContract.CONTENT_URI)) {
+            mTaskCache.invalidateAll();
+        }
+        if(successful) {
+            //the transaction has ended, so theres no point waiting for the rest of the window
+            mNotificationCoalescer.markDirtyAndFlush(batchUris);
+            mInvalidationTracker.invalidate(batchUris);
+        }
+
+        Set<Long> rebalanced = mBatchRebalanced.get();
+        if(rebalanced != null) {
+            mBatchRebalanced.remove();
+            endRebalance(rebalanced, successful);
+        }
+    }
+
+
+
+    /*
+        once the batch a rebalance ran in has ended, the tasks it rebalanced are taken off mCrowdedTasks
+        if it was committed. If it was rolled back they stay, for the write's retry or the next crowded
+        move to find. A move made crowded while the rebalance was running gets a rebalance of its own
+     */
+    private void endRebalance(Set<Long> taskIds, boolean committed) {
+        synchronized (mCrowdedTasks) {
+            if(committed) {
+                mCrowdedTasks.removeAll(taskIds);
+            }
+            mRebalanceQueued = committed && !mCrowdedTasks.isEmpty();
+            if(!mRebalanceQueued) {
+                return;
+            }
+        }
+        queueRebalance();
+    }
 }
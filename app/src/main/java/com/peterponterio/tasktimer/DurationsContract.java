@@ -0,0 +1,78 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+import static com.peterponterio.tasktimer.AppProvider.CONTENT_AUTHORITY;
+import static com.peterponterio.tasktimer.AppProvider.CONTENT_AUTHORITY_URI;
+
+/**
+ * Created by peterponterio on 3/24/18.
+ *
+ * Read only contract for the durations report. Each row is the total time recorded against one task
+ * on one day
+ */
+
+public class DurationsContract {
+
+    /*
+        the report is read from a view that joins the summary table to the tasks table, so the
+        report gets the task name and description without having to look them up itself
+     */
+    static final String TABLE_NAME = "vwTaskDurations";
+
+    /*
+        the summary table behind the view. It holds one row per task per day and is kept up to date by
+        triggers on the Timings table, so the report never has to add up the timings itself
+     */
+    static final String SUMMARY_TABLE_NAME = "TaskDurations";
+
+    //length of one day bucket, in seconds. StartDate is the start of the (UTC) day that a timing started on
+    static final long SECONDS_PER_DAY = 86400L;
+
+
+    //Durations fields
+    public static class Columns {
+        public static final String _ID = BaseColumns._ID;
+        public static final String DURATIONS_TASK_ID = "TaskId";
+        public static final String DURATIONS_NAME = TasksContract.Columns.TASKS_NAME;
+        public static final String DURATIONS_DESCRIPTION = TasksContract.Columns.TASKS_DESCRIPTION;
+        public static final String DURATIONS_START_DATE = "StartDate";
+        public static final String DURATIONS_DURATION = "Duration";
+        public static final String DURATIONS_TIMING_COUNT = "TimingCount";
+
+
+        private Columns() {
+            //private constructor to prevent instantiation
+        }
+
+    }
+
+
+
+    /*
+        The URI to access the durations report
+     */
+    public static final Uri CONTENT_URI = Uri.withAppendedPath(CONTENT_AUTHORITY_URI, TABLE_NAME);
+
+
+
+
+    static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd." + CONTENT_AUTHORITY + "." + TABLE_NAME;
+    static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd." + CONTENT_AUTHORITY + "." + TABLE_NAME;
+
+
+
+    //add an id to the uri(CONTENT_URI)
+    static Uri buildDurationUri(long durationId) {
+        return ContentUris.withAppendedId(CONTENT_URI, durationId);
+    }
+
+
+
+    //used to exact(return) the id from a uri
+    static long getDurationId(Uri uri) {
+        return ContentUris.parseId(uri);
+    }
+}
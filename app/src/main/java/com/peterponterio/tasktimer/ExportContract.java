@@ -0,0 +1,63 @@
+package com.peterponterio.tasktimer;
+
+import android.net.Uri;
+
+import static com.peterponterio.tasktimer.AppProvider.CONTENT_AUTHORITY_URI;
+
+/**
+ * Created by peterponterio on 4/5/18.
+ *
+ * Contract for exporting the tasks and timings tables as files. An export uri is opened as a stream
+ * (ContentResolver.openInputStream, or shared with another app), not queried
+ */
+
+public class ExportContract {
+
+    static final String PATH = "export";
+
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_JSON = "json";
+
+    static final String MIME_TYPE_CSV = "text/csv";
+    static final String MIME_TYPE_JSON = "application/json";
+
+
+    /*
+        the uri of an export of tableName (TasksContract.TABLE_NAME or TimingsContract.TABLE_NAME) in
+        format, which also becomes the file's extension
+        ex: content://com.peterponterio.tasktimer.provider/export/Timings.csv
+     */
+    public static Uri buildExportUri(String tableName, String format) {
+        return CONTENT_AUTHORITY_URI.buildUpon().appendPath(PATH).appendPath(tableName + "." + format).build();
+    }
+
+
+
+    //the table an export uri is for
+    static String getTableName(Uri uri) {
+        String file = uri.getLastPathSegment();
+        int dot = file.lastIndexOf('.');
+        return (dot < 0) ? file : file.substring(0, dot);
+    }
+
+
+
+    //the format an export uri asks for, from its extension. No extension means csv
+    static String getFormat(Uri uri) {
+        String file = uri.getLastPathSegment();
+        int dot = file.lastIndexOf('.');
+        return (dot < 0) ? FORMAT_CSV : file.substring(dot + 1);
+    }
+
+
+
+    static String mimeTypeOf(String format) {
+        return FORMAT_JSON.equals(format) ? MIME_TYPE_JSON : MIME_TYPE_CSV;
+    }
+
+
+
+    private ExportContract() {
+        //private constructor to prevent instantiation
+    }
+}
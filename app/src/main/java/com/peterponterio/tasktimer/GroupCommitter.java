@@ -0,0 +1,435 @@
+package com.peterponterio.tasktimer;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by peterponterio on 4/7/18.
+ *
+ * Runs single writes from many threads on one writer thread, committing the writes that arrive
+ * together in one transaction. Each caller waits until the transaction its write was in has been
+ * committed, so to the caller it looks the same as committing on its own
+ *
+ * the only class that should use this is {@link AppProvider}
+ */
+
+/*
+    every transaction pays for its commit: the write lock, the commit record in the log, and a sync
+    whenever the log is checkpointed. With binder threads, the timer and the edit screen all writing
+    at once, each write committing on its own means the writers queue up for that lock one at a time,
+    and the number of writes per second is capped at the number of commits per second. Here the
+    writes that are waiting when the writer thread gets to them share one commit, so the more writers
+    there are, the more writes each commit carries.
+
+    a write that's on its own doesnt wait for others to join it; it's committed straight away. The
+    writer only waits, for up to the window, when the last group had more than one write in it or
+    others are already waiting, so a lone save isnt slowed down by contention that isnt there.
+
+    if any write in a group throws, the whole group is rolled back, then each of its writes is run
+    again in a transaction of its own, so only the write that failed reports the failure
+ */
+class GroupCommitter {
+    private static final String TAG = "GroupCommitter";
+
+    //how long the writer waits for more writes to join a group, when there's contention
+    static final long WINDOW_MILLIS = 2;
+
+    //the most writes committed in one transaction
+    static final int MAX_GROUP_SIZE = 64;
+
+
+    //one write, run on the writer thread inside the group's transaction
+    interface Write<T> {
+        T run(SQLiteDatabase db);
+    }
+
+
+    /*
+        told on the writer thread when each group's transaction starts, and when it ends and whether it
+        was committed. Any writes a group is retried with are groups of their own
+     */
+    interface Listener {
+        void onGroupStarted();
+        void onGroupEnded(boolean committed);
+    }
+
+
+
+    //put on the queue by close; the writer stops when it reaches it
+    private static final Pending<Void> CLOSE = new Pending<>(null);
+
+    private final SQLiteOpenHelper mOpenHelper;
+    private final Listener mListener;
+    private final long mWindowNanos;
+    private final int mMaxGroupSize;
+
+    private final BlockingQueue<Pending<?>> mQueue = new LinkedBlockingQueue<>();
+    private final Thread mWriter;
+    private boolean mClosed = false;        //guarded by this
+
+    private final AtomicLong mWrites = new AtomicLong();
+    private final AtomicLong mGroups = new AtomicLong();
+    private final AtomicLong mRetriedGroups = new AtomicLong();
+    private final AtomicInteger mLargestGroup = new AtomicInteger();
+
+
+
+    GroupCommitter(SQLiteOpenHelper openHelper, Listener listener) {
+        this(openHelper, listener, WINDOW_MILLIS, MAX_GROUP_SIZE);
+    }
+
+
+
+    GroupCommitter(SQLiteOpenHelper openHelper, Listener listener, long windowMillis, int maxGroupSize) {
+        mOpenHelper = openHelper;
+        mListener = listener;
+        mWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        mMaxGroupSize = maxGroupSize;
+
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        }, TAG);
+        mWriter.start();
+    }
+
+
+
+    //queues write and returns straight away. The future completes once the write has been committed
+    <T> Future<T> submit(Write<T> write) {
+        Pending<T> pending = new Pending<>(write);
+        enqueue(pending);
+        return pending;
+    }
+
+
+
+    /*
+        queues write and waits for it to be committed. Returns what the write returned, or throws what
+        it threw. The wait isnt cut short by an interrupt, since the write would still be made; the
+        thread's interrupt is set again once it's over
+     */
+    <T> T execute(Write<T> write) {
+        if(Thread.currentThread() == mWriter) {
+            throw new IllegalStateException("execute called from the writer thread");
+        }
+        Pending<T> pending = new Pending<>(write);
+        enqueue(pending);
+        return pending.getUninterruptibly();
+    }
+
+
+
+    //nothing can be queued after CLOSE, or it would never be run
+    private synchronized void enqueue(Pending<?> pending) {
+        if(mClosed) {
+            throw new IllegalStateException("GroupCommitter is closed");
+        }
+        mQueue.add(pending);
+    }
+
+
+
+    /*
+        stops taking writes. Writes already queued are still committed, and this waits for them before
+        it returns
+     */
+    void close() {
+        synchronized (this) {
+            if(mClosed) {
+                return;
+            }
+            mClosed = true;
+            mQueue.add(CLOSE);
+        }
+
+        boolean interrupted = false;
+        while(mWriter.isAlive()) {
+            try {
+                mWriter.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+
+
+
+
+
+
+
+
+    private void runWriter() {
+        List<Pending<?>> group = new ArrayList<>(mMaxGroupSize);
+        int lastGroupSize = 0;
+        boolean closing = false;
+
+        while(!closing) {
+            try {
+                Pending<?> first = mQueue.take();
+                if(first == CLOSE) {
+                    break;
+                }
+                group.add(first);
+                closing = collect(group, (lastGroupSize > 1) || !mQueue.isEmpty());
+            } catch (InterruptedException e) {
+                //nothing interrupts the writer but the process going away
+                mQueue.addAll(group);
+                break;
+            }
+
+            commit(group);
+            lastGroupSize = group.size();
+            group.clear();
+        }
+
+        //only left if the writer was interrupted, and then nothing else will write them
+        Pending<?> pending;
+        while((pending = mQueue.poll()) != null) {
+            if(pending != CLOSE) {
+                pending.fail(new IllegalStateException("GroupCommitter is closed"));
+            }
+        }
+    }
+
+
+
+    /*
+        adds the writes that are already waiting to group, and when contended, any more that arrive
+        before the window ends, up to mMaxGroupSize. Returns true if it came to CLOSE
+     */
+    private boolean collect(List<Pending<?>> group, boolean contended) throws InterruptedException {
+        long deadline = System.nanoTime() + mWindowNanos;
+        while(group.size() < mMaxGroupSize) {
+            long wait = contended ? deadline - System.nanoTime() : 0;
+            Pending<?> next = (wait > 0) ? mQueue.poll(wait, TimeUnit.NANOSECONDS) : mQueue.poll();
+            if(next == null) {
+                return false;
+            }
+            if(next == CLOSE) {
+                return true;
+            }
+            group.add(next);
+        }
+        return false;
+    }
+
+
+
+    private void commit(List<Pending<?>> group) {
+        SQLiteDatabase db;
+        try {
+            db = mOpenHelper.getWritableDatabase();
+        } catch (RuntimeException e) {
+            for(Pending<?> pending : group) {
+                pending.fail(e);
+            }
+            return;
+        }
+
+        mGroups.incrementAndGet();
+        mWrites.addAndGet(group.size());
+        int largest;
+        while(group.size() > (largest = mLargestGroup.get())) {
+            if(mLargestGroup.compareAndSet(largest, group.size())) {
+                break;
+            }
+        }
+
+        RuntimeException error = runGroup(db, group);
+        if(error == null) {
+            for(Pending<?> pending : group) {
+                pending.complete();
+            }
+            return;
+        }
+        if(group.size() == 1) {
+            group.get(0).fail(error);
+            return;
+        }
+
+        //one of the writes failed and took the others down with it, so they each get a transaction of their own
+        Log.w(TAG, "commit: group of " + group.size() + " rolled back, retrying one at a time", error);
+        mRetriedGroups.incrementAndGet();
+        for(Pending<?> pending : group) {
+            RuntimeException retryError = runGroup(db, Collections.<Pending<?>>singletonList(pending));
+            if(retryError == null) {
+                pending.complete();
+            } else {
+                pending.fail(retryError);
+            }
+        }
+    }
+
+
+
+    //runs every write in group in one transaction. Returns null if it was committed, or what stopped it
+    private RuntimeException runGroup(SQLiteDatabase db, List<Pending<?>> group) {
+        boolean committed = false;
+        RuntimeException error = null;
+
+        mListener.onGroupStarted();
+        try {
+            db.beginTransaction();
+            try {
+                for(Pending<?> pending : group) {
+                    pending.run(db);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            committed = true;
+        } catch (RuntimeException e) {
+            error = e;
+        } finally {
+            mListener.onGroupEnded(committed);
+        }
+        return error;
+    }
+
+
+
+    //writes committed, including any that were retried
+    long getWriteCount() {
+        return mWrites.get();
+    }
+
+    //transactions committed or rolled back, not counting retries
+    long getGroupCount() {
+        return mGroups.get();
+    }
+
+    //groups that were rolled back and retried one write at a time
+    long getRetriedGroupCount() {
+        return mRetriedGroups.get();
+    }
+
+    int getLargestGroup() {
+        return mLargestGroup.get();
+    }
+
+
+    @Override
+    public String toString() {
+        long groups = mGroups.get();
+        return TAG + "{" +
+                "writes=" + mWrites.get() +
+                ", groups=" + groups +
+                ", averageGroup=" + ((groups == 0) ? 0 : mWrites.get() / groups) +
+                ", largestGroup=" + mLargestGroup.get() +
+                ", retried=" + mRetriedGroups.get() +
+                '}';
+    }
+
+
+
+
+
+    /*
+        a write waiting for its group's commit. The writer stores the result when the write runs, but
+        only releases the caller once the transaction has ended, by complete or fail
+     */
+    private static class Pending<T> implements Future<T> {
+        private final Write<T> mWrite;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private T mResult;
+        private RuntimeException mError;
+
+        Pending(Write<T> write) {
+            mWrite = write;
+        }
+
+        void run(SQLiteDatabase db) {
+            mResult = mWrite.run(db);
+        }
+
+        void complete() {
+            mDone.countDown();
+        }
+
+        void fail(RuntimeException error) {
+            mResult = null;
+            mError = error;
+            mDone.countDown();
+        }
+
+        T getUninterruptibly() {
+            boolean interrupted = false;
+            while(true) {
+                try {
+                    mDone.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if(mError != null) {
+                throw mError;
+            }
+            return mResult;
+        }
+
+        //a write can't be taken back once it's queued
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            mDone.await();
+            return result();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if(!mDone.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return result();
+        }
+
+        private T result() throws ExecutionException {
+            if(mError != null) {
+                throw new ExecutionException(mError);
+            }
+            return mResult;
+        }
+    }
+}
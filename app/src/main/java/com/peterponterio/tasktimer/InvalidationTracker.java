@@ -0,0 +1,151 @@
+package com.peterponterio.tasktimer;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by peterponterio on 4/8/18.
+ *
+ * Tells the app's own screens which of {@link AppProvider}'s tables a committed write changed. Each
+ * observer says which tables it reads, and is only told about changes to those
+ *
+ * tables are named by their content uris (TasksContract.CONTENT_URI, TimingsContract.CONTENT_URI and
+ * DurationsContract.CONTENT_URI), which are what the provider widens every change to before it's
+ * notified. The provider also marks the durations table whenever a write changes what the report
+ * shows, so observers dont need to know how the report is built
+ */
+
+/*
+    a ContentObserver hears about a change through the system's content service: the provider's
+    notifyChange goes out to another process and back in again on a binder thread, once for each
+    observer, and every observer registered on a uri is woken whichever rows changed. This stays in the
+    process. The provider hands over the set of tables each commit touched, and the tracker calls the
+    observers that read any of them, straight away, on the thread that committed. Other apps still get
+    the provider's usual notifications
+ */
+class InvalidationTracker {
+    private static final String TAG = "InvalidationTracker";
+
+    private static final InvalidationTracker sInstance = new InvalidationTracker();
+
+
+    /*
+        called on whichever thread committed the write, with the tables it touched that the observer
+        reads. It should only note the change and hand any work off to another thread
+     */
+    interface Observer {
+        void onInvalidated(Set<Uri> tables);
+    }
+
+
+    //an observer and the tables it reads
+    private static class Entry {
+        final Observer observer;
+        final Set<Uri> tables;
+
+        Entry(Observer observer, Set<Uri> tables) {
+            this.observer = observer;
+            this.tables = tables;
+        }
+    }
+
+    //read on every commit and only changed when a screen starts or stops, so a copy on write suits it
+    private final CopyOnWriteArrayList<Entry> mEntries = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong mInvalidations = new AtomicLong();
+    private final AtomicLong mDelivered = new AtomicLong();
+    private final AtomicLong mSkipped = new AtomicLong();
+
+
+
+    static InvalidationTracker getInstance() {
+        return sInstance;
+    }
+
+
+
+    //tells observer about changes to any of tables, from now until it's removed
+    void addObserver(Observer observer, Uri... tables) {
+        mEntries.add(new Entry(observer, new HashSet<>(Arrays.asList(tables))));
+    }
+
+
+
+    void removeObserver(Observer observer) {
+        for(Entry entry : mEntries) {
+            if(entry.observer == observer) {
+                mEntries.remove(entry);
+            }
+        }
+    }
+
+
+
+    /*
+        called by the provider once a write that touched tables has been committed. Observers that dont
+        read any of them are left alone
+     */
+    void invalidate(Collection<Uri> tables) {
+        if(tables.isEmpty()) {
+            return;
+        }
+        mInvalidations.incrementAndGet();
+
+        for(Entry entry : mEntries) {
+            Set<Uri> touched = null;
+            for(Uri table : tables) {
+                if(entry.tables.contains(table)) {
+                    if(touched == null) {
+                        touched = new HashSet<>();
+                    }
+                    touched.add(table);
+                }
+            }
+
+            if(touched == null) {
+                mSkipped.incrementAndGet();
+            } else {
+                if(ProviderTrace.ENABLED) {
+                    Log.d(TAG, "invalidate: " + touched + " for " + entry.observer);
+                }
+                mDelivered.incrementAndGet();
+                entry.observer.onInvalidated(touched);
+            }
+        }
+    }
+
+
+
+    //number of commits reported
+    long getInvalidationCount() {
+        return mInvalidations.get();
+    }
+
+    //number of times an observer was told about a change
+    long getDeliveredCount() {
+        return mDelivered.get();
+    }
+
+    //number of times an observer wasnt told, because the change was to tables it doesnt read
+    long getSkippedCount() {
+        return mSkipped.get();
+    }
+
+
+    @Override
+    public String toString() {
+        return TAG + "{" +
+                "observers=" + mEntries.size() +
+                ", invalidations=" + mInvalidations.get() +
+                ", delivered=" + mDelivered.get() +
+                ", skipped=" + mSkipped.get() +
+                '}';
+    }
+}
@@ -4,6 +4,7 @@ package com.peterponterio.tasktimer;
 import android.annotation.SuppressLint;
 import android.support.v7.app.AlertDialog;
 import android.content.ActivityNotFoundException;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.net.Uri;
@@ -16,11 +17,14 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.util.ArrayList;
 
-public class MainActivity extends AppCompatActivity implements CursorRecyclerViewAdapter.OnTaskClickListener,
+
+public class MainActivity extends AppCompatActivity implements TaskListAdapter.OnTaskClickListener,
         AddEditActivityFragment.OnSaveClicked, AppDialog.DialogEvents {
     private static final String TAG = "MainActivity";
 
@@ -121,6 +125,13 @@ public class MainActivity extends AppCompatActivity implements CursorRecyclerVie
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        //the data generator is only for testing, so it's only offered in debug builds
+        if(BuildConfig.DEBUG) {
+            MenuItem generate = menu.findItem(R.id.menumain_generate);
+            generate.setVisible(true);
+        }
+
         return true;
     }
 
@@ -144,12 +155,16 @@ public class MainActivity extends AppCompatActivity implements CursorRecyclerVie
                 break;
             case R.id.menumain_showDurations:
                 break;
+            case R.id.menumain_export:
+                shareExport();
+                break;
             case R.id.menumain_settings:
                 break;
             case R.id.menumain_showAbout:
                 showAboutDialog();
                 break;
             case R.id.menumain_generate:
+                showGenerateDialog();
                 break;
         }
 
@@ -163,6 +178,78 @@ public class MainActivity extends AppCompatActivity implements CursorRecyclerVie
 
 
 
+    /*
+        offers the tasks and timings, as CSV files, to whichever app the user picks from the share sheet.
+        The files are never written anywhere; the app they're shared with reads them straight from the
+        content provider, which writes them as they're read. The read permission lets that app open
+        these two uris, and nothing else in the provider
+     */
+    private void shareExport() {
+        ArrayList<Uri> uris = new ArrayList<>();
+        uris.add(ExportContract.buildExportUri(TasksContract.TABLE_NAME, ExportContract.FORMAT_CSV));
+        uris.add(ExportContract.buildExportUri(TimingsContract.TABLE_NAME, ExportContract.FORMAT_CSV));
+
+        Intent intent = new Intent(Intent.ACTION_SEND_MULTIPLE);
+        intent.setType(ExportContract.MIME_TYPE_CSV);
+        intent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, uris);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+
+        try {
+            startActivity(Intent.createChooser(intent, getString(R.string.export_title)));
+        } catch (ActivityNotFoundException e) {
+            Toast.makeText(this, R.string.export_no_app, Toast.LENGTH_LONG).show();
+        }
+    }
+
+
+
+
+
+
+
+
+    /*
+        asks how many tasks and timings to generate, starting with the counts that were asked for last
+        time. Like the about dialog it's kept in mDialog, so it's dismissed in onStop. An empty field
+        counts as 0
+     */
+    private void showGenerateDialog() {
+        @SuppressLint("InflateParams") View countsView = getLayoutInflater().inflate(R.layout.generate, null, false);
+        final EditText taskCountView = (EditText) countsView.findViewById(R.id.generate_task_count);
+        final EditText timingCountView = (EditText) countsView.findViewById(R.id.generate_timing_count);
+        taskCountView.setText(String.valueOf(TestData.getTaskCount(this)));
+        timingCountView.setText(String.valueOf(TestData.getTimingCount(this)));
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.menumain_generate);
+        builder.setView(countsView);
+        builder.setPositiveButton(R.string.generate_start, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                TestData.generate(MainActivity.this, countIn(taskCountView), countIn(timingCountView));
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+
+        mDialog = builder.create();
+        mDialog.show();
+    }
+
+
+
+    //the number typed into view. The field only takes digits, and at most 9 of them
+    private static int countIn(EditText view) {
+        String text = view.getText().toString().trim();
+        return (text.length() > 0) ? Integer.parseInt(text) : 0;
+    }
+
+
+
+
+
+
+
+
     @SuppressLint("SetTextI18n") //suppress warnings when you're absolutely sure you don't need them
     public void showAboutDialog() {
         /*
@@ -287,14 +374,26 @@ public class MainActivity extends AppCompatActivity implements CursorRecyclerVie
 
 
 
-    //interface methods (CursorRecyclerViewAdapter)
+    //interface methods (TaskListAdapter)
     @Override
     public void onEditClick(Task task) {
         taskEditRequest(task);
     }
 
 
-    //interface methods (CursorRecyclerViewAdapter)
+    /*
+        interface methods (TaskListAdapter)
+
+        tapping a task starts timing it, stopping whichever task was being timed before. Tapping the
+        task thats being timed stops it
+     */
+    @Override
+    public void onTaskClick(Task task) {
+        TimerEngine.getInstance(this).toggle(task.getId(), task.getName());
+    }
+
+
+    //interface methods (TaskListAdapter)
     @Override
     public void onDeleteClick(Task task) {
         Log.d(TAG, "onDeleteClick: starts");
@@ -359,11 +458,11 @@ public class MainActivity extends AppCompatActivity implements CursorRecyclerVie
 
             /*
                 We pass our task object to the fragment by using a bundle. Instead of using the putExtra
-                method, we just create a new bundle and put the task in there.
+                method, the fragment creates a bundle with the task in it (or just its id, if the task
+                is too big to be worth copying).
                 The fragment has a setArguments method that we use to add the bundle to it
              */
-            Bundle arguments = new Bundle();
-            arguments.putSerializable(Task.class.getSimpleName(), task);
+            Bundle arguments = AddEditActivityFragment.arguments(task);
             fragment.setArguments(arguments); //added task to bundle and added bundle to fragments arguments
 
 
@@ -381,7 +480,7 @@ public class MainActivity extends AppCompatActivity implements CursorRecyclerVie
             //in single pane mode, start the detaul activity for the selected item Id
             Intent detailIntent = new Intent(this, AddEditActivity.class);
             if (task != null) { //editing a task
-                detailIntent.putExtra(Task.class.getSimpleName(), task);
+                detailIntent.putExtras(AddEditActivityFragment.arguments(task));
                 startActivity(detailIntent);
             } else { //adding a new task
                 startActivity(detailIntent);
@@ -409,7 +508,35 @@ public class MainActivity extends AppCompatActivity implements CursorRecyclerVie
                 //retrieving taskId from bundle
                 Long taskId = args.getLong("TaskId");
                 if(BuildConfig.DEBUG && taskId ==0) throw new AssertionError("Task ID is zero");
-                getContentResolver().delete(TasksContract.buildTaskUri(taskId), null, null);
+                /*
+                    the delete is made on the WriteDispatcher's thread, after any edit to the task that's
+                    still queued. The list drops the row straight away, and gets it back if the delete
+                    fails or didnt find the task
+                 */
+                final long deletedId = taskId;
+                final Context appContext = getApplicationContext();
+                final MainActivityFragment listFragment =
+                        (MainActivityFragment) getSupportFragmentManager().findFragmentById(R.id.fragment);
+                if(listFragment != null) {
+                    listFragment.removeTask(deletedId);
+                }
+                WriteDispatcher.getInstance(this).delete(TasksContract.buildTaskUri(deletedId), new WriteDispatcher.Callback() {
+                    @Override
+                    public void onWriteComplete(WriteDispatcher.Result result) {
+                        if(result.succeeded()) {
+                            //the task's timings are deleted with it, so a timing thats running for it is thrown away too
+                            TimerEngine.getInstance(appContext).discard(deletedId);
+                        } else {
+                            Toast.makeText(appContext, R.string.delete_failed, Toast.LENGTH_LONG).show();
+                        }
+
+                        //a delete that changed nothing doesnt refresh the list by itself
+                        if((!result.succeeded() || (result.rows == 0))
+                                && (listFragment != null) && listFragment.isAdded()) {
+                            listFragment.reloadTasks();
+                        }
+                    }
+                });
                 break;
             case DIALOG_ID_CANCEL_EDIT:
                 //user clicks continue editing when back button is pressed while editing task (doesnt abandon the edit)
@@ -1,72 +1,56 @@
 package com.peterponterio.tasktimer;
 
-import android.database.Cursor;
 import android.os.Bundle;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.os.Handler;
 import android.support.v4.app.Fragment;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-
-import java.security.InvalidParameterException;
+import android.widget.EditText;
+import android.widget.TextView;
 
 /**
  * A placeholder fragment containing a simple view.
  */
-public class MainActivityFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+public class MainActivityFragment extends Fragment implements TimerEngine.Listener {
     private static final String TAG = "MainActivityFragment";
 
-    public static final int LOADER_ID = 0;
-
-
-
-    private CursorRecyclerViewAdapter mAdapter; //add adapter reference
+    //the search waits until the user has stopped typing for this long
+    static final long SEARCH_DELAY_MILLIS = 300;
 
 
 
+    private TaskListAdapter mAdapter; //add adapter reference
+    private TextView mCurrentTask;
+    private TimerEngine mTimerEngine;
+    private EditText mSearch;
 
-
-    public MainActivityFragment() {
-        Log.d(TAG, "MainActivityFragment: starts");
-    }
-
-
+    private final Handler mSearchHandler = new Handler();
 
 
+    /*
+        runs the search for whatever is in the search box. Each change to the text puts it off again,
+        so typing a word runs one search at the end rather than one for every letter. The pager cancels
+        the last search's queries if they're still running
+     */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mAdapter.setSearch(mSearch.getText().toString());
+        }
+    };
 
 
 
 
 
-    @Override
-    public void onActivityCreated(@Nullable Bundle savedInstanceState) {
-        Log.d(TAG, "onActivityCreated: starts");
-        super.onActivityCreated(savedInstanceState);
-        /*
-             get a reference to the loader manager by calling the fragments getLoaderManager method, and
-             then we use that to call initLoader. This is where our LOADER_ID comes into play because
-             we have to tell the manager which loader we're initializing. The loader manager passes that
-             ID in as an argument to all our methods that it calls so that we can make the methods
-             respond differently depending on which loader theyre getting called for
-
-             The second parameter will always be null when using Androids cursor loader class because
-              that doesnt accept any other parameters. But if you've extended or created your own loader,
-              then you may need to pass extra arguments in a bundle
-
-              The third parameter is a loader manager.loader callbacks object, so this is where we tell
-              the manager which object will be handling the onCreate, the onLoadFinished and the OnLoaderReset
-              calls. Youd normally use the activity or fragment thats initializing the loader and thats
-              why we've passes 'this' for our argument. So our fragment implements LoaderManager.LoaderCallBacks
-              so 'this' is fine
-         */
-        getLoaderManager().initLoader(LOADER_ID, null, this);
+    public MainActivityFragment() {
+        Log.d(TAG, "MainActivityFragment: starts");
     }
 
 
@@ -93,26 +77,44 @@ public class MainActivityFragment extends Fragment implements LoaderManager.Load
             Create a new cursor RecyclerView Adapter and link that to our recycler view
          */
         View view = inflater.inflate(R.layout.fragment_main, container, false);
+        mCurrentTask = (TextView) view.findViewById(R.id.current_task);
+        mSearch = (EditText) view.findViewById(R.id.task_search);
         RecyclerView recyclerView = (RecyclerView) view.findViewById(R.id.task_list);
         recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
 
         /*
-            no data yet, initializing with null which will cause it to return a view with instructions
+            the adapter loads its own rows, a page at a time, through the content resolver. Until the
+            first page arrives it shows the one saved last time, or the instructions if there isnt one
 
             Second parameter is going to be the listener that we've added to the constructor for the
-            CursorRecyclerViewAdapter. We can just pass in the reference to our fragments activity using
+            TaskListAdapter. We can just pass in the reference to our fragments activity using
             the getActivity method, but we also have to cast it to the correct type as well.
          */
-        mAdapter = new CursorRecyclerViewAdapter(null, (CursorRecyclerViewAdapter.OnTaskClickListener) getActivity());
+        mAdapter = new TaskListAdapter(getActivity().getContentResolver(),
+                TaskListSnapshot.getInstance(getActivity()),
+                (TaskListAdapter.OnTaskClickListener) getActivity());
         recyclerView.setAdapter(mAdapter);
 
-        Log.d(TAG, "onCreateView: returning");
+        mSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
 
-        return view;
-    }
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
 
+            @Override
+            public void afterTextChanged(Editable s) {
+                mSearchHandler.removeCallbacks(mSearchRunnable);
+                mSearchHandler.postDelayed(mSearchRunnable, SEARCH_DELAY_MILLIS);
+            }
+        });
 
+        Log.d(TAG, "onCreateView: returning");
 
+        return view;
+    }
 
 
 
@@ -125,96 +127,62 @@ public class MainActivityFragment extends Fragment implements LoaderManager.Load
 
 
     /*
-        loader manager will call these methods when it wants to notify our fragment of important events
-        about the loader. The first one is onCreateLoader, which will instantiate and return a new loader
-        for the given ID. The cursor loader will basically just be running a query for us but it does
-        it on the background thread, but essentially its just fetching data from the database
-
-
-        The loader manager will be ready for a fragment to define the loader that it wants to use. So
-        it calls our fragments onCreateLoader method and we set up the parameters for a new cursor loader
-        object and then return it. Now the loader manager then sets the cursor loader away, fetching the
-        data on a background thread. When the cursor loader has retrieved all the data, it lets the loader
-        manager know and the loader manager calls out the onLoadFinished method, passing the cursor to
-        it so that we've got the data.
+        the adapter watches the tasks table, and loads pages, only while the fragment is started. When
+        it starts again (coming back from AddEditActivity, for example) it reloads whatever is on screen
      */
-
-    @NonNull
     @Override
-    public Loader<Cursor> onCreateLoader(int id, @Nullable Bundle args) {
-        Log.d(TAG, "onCreateLoader: starts with id " + id);
-        /*
-            create a string array to hold the columns to hold the columns that we want to fetch from the
-            database. we also specify sortOrder and we're sorting on the sort order column and then
-            alphabetically by name for tasks of the same sort order
-         */
-        String[] projection = {TasksContract.Columns._ID, TasksContract.Columns.TASKS_NAME,
-                                TasksContract.Columns.TASKS_DESCRIPTION, TasksContract.Columns.TASKS_SORTORDER};
-
-        // <order by> Tasks.SortOrder, Tasks.Name COLLATE NOCASE
-        String sortOrder = TasksContract.Columns.TASKS_SORTORDER + "," + TasksContract.Columns.TASKS_NAME + " COLLATE NOCASE";
-
-        switch(id) {
-            case LOADER_ID:
-                /*
-                    the first we pass to the cursor loader constructor is a context and we could pass
-                    in the activity that this fragment is attached to. Next we give it the uri of our
-                    tasks table and a list of the columns that we want. Now we want to display all the
-                    records so the next two parameters, selection and selectionArgs are null. Then we
-                    provide the sortOrder columns.
-
-                    if we had additional loaders, we would just add additional cases to the switch
-                    statement
-                 */
-                return new CursorLoader(getActivity(),
-                        TasksContract.CONTENT_URI,
-                        projection,
-                        null,
-                        null,
-                        sortOrder);
-            default:
-                throw new InvalidParameterException(TAG + ".onCreateLoader called with invalid loader id " + id);
-        }
+    public void onStart() {
+        Log.d(TAG, "onStart: starts");
+        super.onStart();
+        //the search box has its text back by now, after a rotation
+        mAdapter.setSearch(mSearch.getText().toString());
+        mAdapter.open();
+
+        mTimerEngine = TimerEngine.getInstance(getActivity());
+        mTimerEngine.addListener(this);
+        onTimingChanged(mTimerEngine.getTaskId(), mTimerEngine.getTaskName());
     }
 
 
 
-
-
-
-
-
-
-
-
+    /*
+        going into the background is a good time for an extra checkpoint of a running timing; it
+        might be the last chance before the process is killed
+     */
     @Override
-    public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor data) {
-        Log.d(TAG, "Entering onLoadFinished");
-
-        /*
-            calling the swapCursor method and were retrieving the number of records from the adapter
-         */
-        mAdapter.swapCursor(data);
-        int count = mAdapter.getItemCount();
-
-        Log.d(TAG, "onLoadFinished: count is " + count);
-
+    public void onStop() {
+        Log.d(TAG, "onStop: starts");
+        super.onStop();
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        mAdapter.close();
+
+        mTimerEngine.removeListener(this);
+        mTimerEngine.checkpoint();
     }
 
 
 
+    /*
+        the list drops a task's row as soon as its delete is queued, rather than when the delete has
+        been committed. If the delete fails, reloadTasks brings the row back
+     */
+    void removeTask(long taskId) {
+        mAdapter.removeTask(taskId);
+    }
 
+    void reloadTasks() {
+        mAdapter.refresh();
+    }
 
 
 
-
-
+    //interface method (TimerEngine)
     @Override
-    public void onLoaderReset(@NonNull Loader<Cursor> loader) {
-        Log.d(TAG, "onLoaderReset: starts");
-
-        //adapter no longer holds a reference to the cursor. loader is free to close cursor now as well
-        mAdapter.swapCursor(null);
-
+    public void onTimingChanged(long taskId, String taskName) {
+        if(taskId == 0) {
+            mCurrentTask.setText(R.string.no_task_message);
+        } else {
+            mCurrentTask.setText(getString(R.string.current_timing, taskName));
+        }
     }
 }
@@ -0,0 +1,176 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by peterponterio on 3/27/18.
+ *
+ * Collects the uris that {@link AppProvider} has changed and sends one change notification per uri,
+ * instead of one per write
+ *
+ * the only class that should use this is {@link AppProvider}
+ */
+
+class NotificationCoalescer {
+    private static final String TAG = "NotificationCoalescer";
+
+    //how long a change can wait for more changes to the same uri before it's notified, in milliseconds
+    static final long WINDOW_MILLIS = 50;
+
+    private final ContentResolver mContentResolver;
+    private final Handler mHandler;
+
+    /*
+        uris waiting to be notified. A set, so a uri that changes again before the window ends is only
+        stored (and notified) once. Guarded by mLock
+     */
+    private final Object mLock = new Object();
+    private Set<Uri> mPendingUris = new LinkedHashSet<>();
+    private boolean mFlushScheduled = false;
+
+    //hit counters, so the saving in re-queries can be checked
+    private final AtomicLong mRequested = new AtomicLong();
+    private final AtomicLong mDispatched = new AtomicLong();
+    private final AtomicLong mFlushes = new AtomicLong();
+
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+
+
+    /*
+        notifications are sent from a thread of their own, so a delayed flush never has to wait for
+        the main thread, and the main thread never has to make the notifyChange calls
+     */
+    NotificationCoalescer(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+
+
+    /*
+        marks uri as changed. It will be notified when the current window ends, along with anything
+        else that changes before then
+     */
+    void markDirty(Uri uri) {
+        mRequested.incrementAndGet();
+        synchronized (mLock) {
+            mPendingUris.add(uri);
+            if(!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlushRunnable, WINDOW_MILLIS);
+            }
+        }
+    }
+
+
+
+    /*
+        marks all the uris changed by a transaction and notifies them straight away. A committed
+        transaction is a natural end to a burst of writes, so there's no reason to wait for the window.
+        The flush is still posted to the coalescer's thread, so the committing thread (often the group
+        committer's writer) can start its next transaction without waiting for the observers
+     */
+    void markDirtyAndFlush(Collection<Uri> uris) {
+        mRequested.addAndGet(uris.size());
+        synchronized (mLock) {
+            mPendingUris.addAll(uris);
+            if(mFlushScheduled) {
+                mHandler.removeCallbacks(mFlushRunnable);
+            }
+            mFlushScheduled = true;
+            mHandler.post(mFlushRunnable);
+        }
+    }
+
+
+
+    /*
+        sends one notification for every pending uri. The pending set is swapped out while holding the
+        lock, but the notifyChange calls are made after releasing it, so writers arent held up by them
+     */
+    void flush() {
+        Set<Uri> uris;
+        synchronized (mLock) {
+            if(mFlushScheduled) {
+                mHandler.removeCallbacks(mFlushRunnable);
+                mFlushScheduled = false;
+            }
+            if(mPendingUris.isEmpty()) {
+                return;
+            }
+            uris = mPendingUris;
+            mPendingUris = new LinkedHashSet<>();
+        }
+
+        mFlushes.incrementAndGet();
+        for(Uri uri : uris) {
+            if(ProviderTrace.ENABLED) {
+                Log.d(TAG, "flush: Setting notifyChange with " + uri);
+            }
+            mContentResolver.notifyChange(uri, null);
+            mDispatched.incrementAndGet();
+        }
+    }
+
+
+
+    /*
+        sends anything that's still pending and stops the coalescer's thread. Nothing should be marked
+        after this. Called when the provider is shut down, so each provider doesnt leave a thread behind
+     */
+    void quit() {
+        flush();
+        mHandler.getLooper().quit();
+    }
+
+
+
+    //number of changes reported to the coalescer
+    long getRequestedCount() {
+        return mRequested.get();
+    }
+
+    //number of notifications actually sent
+    long getDispatchedCount() {
+        return mDispatched.get();
+    }
+
+    //number of times pending notifications were sent
+    long getFlushCount() {
+        return mFlushes.get();
+    }
+
+    //number of notifications that were saved by coalescing
+    long getCoalescedCount() {
+        return mRequested.get() - mDispatched.get();
+    }
+
+
+    @Override
+    public String toString() {
+        return "NotificationCoalescer{" +
+                "requested=" + mRequested.get() +
+                ", dispatched=" + mDispatched.get() +
+                ", flushes=" + mFlushes.get() +
+                '}';
+    }
+}
@@ -0,0 +1,270 @@
+package com.peterponterio.tasktimer;
+
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by peterponterio on 4/8/18.
+ *
+ * A query that's run again whenever one of the tables it reads changes, with each new result handed
+ * to its subscribers on the main thread. Subclasses say which tables they read and how to load the
+ * result; load runs on a background pool
+ *
+ * this takes the place of a CursorLoader. A CursorLoader is run again for every notification on its
+ * uri, each one a query of its own, and it hands over every result in turn, even ones that were out
+ * of date before they arrived
+ */
+
+/*
+    all of the query's state belongs to the main thread, apart from mInvalidated.
+
+    changes come from InvalidationTracker, so a change to a table the query doesnt read never reaches
+    it. However many changes arrive while a load is running, they only cause one more load once it's
+    finished, and the result that was being loaded usually isnt delivered, since it's already out of
+    date. That would starve the subscribers while the tables keep changing, though, with every load
+    overtaken by the next change, so an overtaken result is still delivered if there's no result yet,
+    or if the subscribers have been out of date for MAX_STALE_MILLIS. A result that equals the last one
+    isnt delivered again, so a write that didnt change anything the query shows doesnt redraw anything.
+
+    while a query has no subscribers it isnt tracked and nothing is loaded. Its last result is kept, and
+    a new subscriber gets it straight away, then again if a reload finds it has changed
+ */
+abstract class ObservableQuery<T> {
+    private static final String TAG = "ObservableQuery";
+
+    //shared by every query. Two threads, so one slow query doesnt hold up the rest
+    private static final ExecutorService sPool = Executors.newFixedThreadPool(2);
+
+    //how long the subscribers can be left out of date before a result that's been overtaken is delivered anyway
+    static final long MAX_STALE_MILLIS = 500;
+
+
+    //called on the main thread with each new result
+    interface Subscriber<T> {
+        void onResult(T result);
+    }
+
+
+    private final Uri[] mTables;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Subscriber<T>> mSubscribers = new ArrayList<>();
+
+    private boolean mHasResult = false;
+    private T mResult;
+
+    private int mGeneration = 0;
+    private boolean mLoading = false;
+    private boolean mReloadPending = false;
+    private CancellationSignal mCancellationSignal;
+
+    //uptime when the subscribers were first out of date, or -1 if they're up to date
+    private long mStaleSince = -1;
+
+    //set by the tracker's thread, so only one reload is posted for a burst of changes
+    private final AtomicBoolean mInvalidated = new AtomicBoolean();
+
+    private final AtomicLong mLoads = new AtomicLong();
+    private final AtomicLong mDiscarded = new AtomicLong();
+
+
+    private final InvalidationTracker.Observer mObserver = new InvalidationTracker.Observer() {
+        @Override
+        public void onInvalidated(Set<Uri> tables) {
+            if(mInvalidated.compareAndSet(false, true)) {
+                mMainHandler.post(mReloadRunnable);
+            }
+        }
+    };
+
+    private final Runnable mReloadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mInvalidated.set(false);
+            reload();
+        }
+    };
+
+
+
+    //tables are the content uris of the tables the query reads
+    ObservableQuery(Uri... tables) {
+        mTables = tables;
+    }
+
+
+
+    /*
+        loads the result. Runs on a background thread, and should pass cancellationSignal on to the
+        queries it makes; it's cancelled when the last subscriber leaves
+     */
+    abstract T load(CancellationSignal cancellationSignal);
+
+
+
+    /*
+        adds subscriber, which is given the last result straight away if there is one. The first
+        subscriber starts the query watching its tables and loads it
+     */
+    void subscribe(Subscriber<T> subscriber) {
+        mSubscribers.add(subscriber);
+        if(mSubscribers.size() == 1) {
+            InvalidationTracker.getInstance().addObserver(mObserver, mTables);
+            reload();
+        }
+        if(mHasResult) {
+            subscriber.onResult(mResult);
+        }
+    }
+
+
+
+    //removes subscriber. When the last one has gone the query stops watching, and any load is cancelled
+    void unsubscribe(Subscriber<T> subscriber) {
+        if(!mSubscribers.remove(subscriber) || !mSubscribers.isEmpty()) {
+            return;
+        }
+        InvalidationTracker.getInstance().removeObserver(mObserver);
+        mMainHandler.removeCallbacks(mReloadRunnable);
+        mInvalidated.set(false);
+
+        mGeneration++;
+        mLoading = false;
+        mReloadPending = false;
+        mStaleSince = -1;
+        if(mCancellationSignal != null) {
+            mCancellationSignal.cancel();
+            mCancellationSignal = null;
+        }
+    }
+
+
+
+    private void reload() {
+        if(mSubscribers.isEmpty()) {
+            return;
+        }
+        if(mStaleSince < 0) {
+            mStaleSince = SystemClock.uptimeMillis();
+        }
+        if(mLoading) {
+            //whatever is loading now is already out of date; load again when it's finished
+            mReloadPending = true;
+            return;
+        }
+        mLoading = true;
+        mLoads.incrementAndGet();
+
+        final int generation = ++mGeneration;
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        mCancellationSignal = cancellationSignal;
+        sPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                final T result;
+                try {
+                    result = load(cancellationSignal);
+                } catch (OperationCanceledException e) {
+                    //the last subscriber has gone
+                    return;
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "load failed", e);
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onLoaded(generation, false, null);
+                        }
+                    });
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLoaded(generation, true, result);
+                    }
+                });
+            }
+        });
+    }
+
+
+
+    private void onLoaded(int generation, boolean loaded, T result) {
+        if(generation != mGeneration) {
+            return;
+        }
+        mLoading = false;
+        mCancellationSignal = null;
+
+        if(mReloadPending) {
+            mReloadPending = false;
+            long now = SystemClock.uptimeMillis();
+            if(loaded && (!mHasResult || now - mStaleSince >= MAX_STALE_MILLIS) && deliver(result)) {
+                //out of date already, but newer than what the subscribers have. They wait again from now
+                mStaleSince = now;
+            } else {
+                mDiscarded.incrementAndGet();
+            }
+            reload();
+            return;
+        }
+        if(!loaded) {
+            //the tables will change again, or a new subscriber will try again
+            return;
+        }
+
+        mStaleSince = -1;
+        deliver(result);
+    }
+
+
+
+    //hands result to the subscribers, unless it equals the last one. Returns whether it was handed over
+    private boolean deliver(T result) {
+        if(mHasResult && ((mResult == null) ? (result == null) : mResult.equals(result))) {
+            return false;
+        }
+        mHasResult = true;
+        mResult = result;
+
+        //a subscriber could unsubscribe while being told
+        for(Subscriber<T> subscriber : new ArrayList<>(mSubscribers)) {
+            subscriber.onResult(result);
+        }
+        return true;
+    }
+
+
+
+    //number of times the query was loaded
+    long getLoadCount() {
+        return mLoads.get();
+    }
+
+    //number of loads whose result was out of date by the time it arrived, and wasnt delivered
+    long getDiscardedCount() {
+        return mDiscarded.get();
+    }
+
+
+    @Override
+    public String toString() {
+        return TAG + "{" +
+                "subscribers=" + mSubscribers.size() +
+                ", loads=" + mLoads.get() +
+                ", discarded=" + mDiscarded.get() +
+                '}';
+    }
+}
@@ -0,0 +1,230 @@
+package com.peterponterio.tasktimer;
+
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by peterponterio on 3/31/18.
+ *
+ * Timing and row counts for {@link AppProvider}'s calls, per method and uri, so slow queries and
+ * writes can be found in debug builds
+ *
+ * ENABLED is BuildConfig.DEBUG, which is a constant false in release builds. Every method here starts
+ * by checking it, so in a release build they do nothing and are removed along with the code that
+ * uses their results, and the provider doesnt build log messages or measure anything
+ */
+
+class ProviderTrace {
+    private static final String TAG = "ProviderTrace";
+
+    static final boolean ENABLED = BuildConfig.DEBUG;
+
+    //stats for each method and uri, with ids replaced by #. Guarded by itself
+    private static final Map<String, Stats> sStats = new LinkedHashMap<>();
+
+
+
+    private ProviderTrace() {
+        //private constructor to prevent instantiation
+    }
+
+
+
+    //the time a call started, to pass to end. 0 when tracing is off
+    static long start() {
+        if(!ENABLED) {
+            return 0;
+        }
+        return System.nanoTime();
+    }
+
+
+
+    /*
+        records a call to method for uri that started at start and touched rows rows. For queries the
+        rows aren't known yet; they're counted by the cursor when whoever reads it first asks for them.
+        A start of 0 means the call isnt being traced on its own (it's one row of a batch), and nothing
+        is recorded
+     */
+    static void end(String method, Uri uri, long start, int rows) {
+        if(!ENABLED || (start == 0)) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        Stats stats = statsFor(method, uri);
+        stats.addCall(elapsed, rows);
+        Log.d(TAG, method + " " + uri + ": " + ((rows >= 0) ? rows + " rows, " : "") + (elapsed / 1000) + "us");
+    }
+
+
+
+    /*
+        a factory for the cursors that query returns, which records how often and how long it takes
+        to fill their windows, and how many rows they had. Null when tracing is off, which gives the
+        normal SQLiteCursor
+
+        the count is only taken when the cursor's own user asks for it, so tracing doesnt make the
+        query run any earlier than it would have done
+     */
+    static SQLiteDatabase.CursorFactory cursorFactory(final Uri uri) {
+        if(!ENABLED) {
+            return null;
+        }
+        final Stats stats = statsFor("query", uri);
+        return new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                                    String editTable, SQLiteQuery query) {
+                return new TracingCursor(masterQuery, editTable, query, stats);
+            }
+        };
+    }
+
+
+
+    //one line per method and uri, for logging or a debug screen
+    static String dump() {
+        if(!ENABLED) {
+            return "";
+        }
+        StringBuilder result = new StringBuilder();
+        synchronized (sStats) {
+            for(Map.Entry<String, Stats> entry : sStats.entrySet()) {
+                result.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+
+
+    static void reset() {
+        synchronized (sStats) {
+            sStats.clear();
+        }
+    }
+
+
+
+    private static Stats statsFor(String method, Uri uri) {
+        String key = method + " " + pathPattern(uri);
+        synchronized (sStats) {
+            Stats stats = sStats.get(key);
+            if(stats == null) {
+                stats = new Stats();
+                sStats.put(key, stats);
+            }
+            return stats;
+        }
+    }
+
+
+
+    //the uri's path with ids replaced by #, the same way the provider's UriMatcher patterns are written
+    private static String pathPattern(Uri uri) {
+        StringBuilder pattern = new StringBuilder();
+        for(String segment : uri.getPathSegments()) {
+            pattern.append('/').append(TextUtils.isDigitsOnly(segment) ? "#" : segment);
+        }
+        return pattern.toString();
+    }
+
+
+
+
+
+    private static class Stats {
+        private long mCalls;
+        private long mNanos;
+        private long mMaxNanos;
+        private long mRows;
+        private long mFills;
+        private long mFillNanos;
+
+        synchronized void addCall(long nanos, int rows) {
+            mCalls++;
+            mNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+            if(rows > 0) {
+                mRows += rows;
+            }
+        }
+
+        synchronized void addFill(long nanos, int rows) {
+            mFills++;
+            mFillNanos += nanos;
+            if(rows > 0) {
+                mRows += rows;
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "calls=" + mCalls +
+                    ", avg=" + ((mCalls > 0) ? mNanos / mCalls / 1000 : 0) + "us" +
+                    ", max=" + (mMaxNanos / 1000) + "us" +
+                    ", rows=" + mRows +
+                    ", windowFills=" + mFills +
+                    ", fillTime=" + (mFillNanos / 1000) + "us";
+        }
+    }
+
+
+
+
+
+    /*
+        SQLiteCursor doesnt run its query until the window is first filled, which happens when the
+        count is first asked for or the cursor first moves. Both of those are timed here, as is every
+        later fill when the cursor moves outside its current window
+     */
+    private static class TracingCursor extends SQLiteCursor {
+        private final Stats mStats;
+        private boolean mCounted = false;
+
+        TracingCursor(SQLiteCursorDriver driver, String editTable, SQLiteQuery query, Stats stats) {
+            super(driver, editTable, query);
+            mStats = stats;
+        }
+
+
+        @Override
+        public int getCount() {
+            if(mCounted) {
+                return super.getCount();
+            }
+
+            mCounted = true;
+            long start = System.nanoTime();
+            int count = super.getCount();
+            mStats.addFill(System.nanoTime() - start, count);
+            return count;
+        }
+
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            CursorWindow window = getWindow();
+            boolean fill = (window == null) || (newPosition < window.getStartPosition())
+                    || (newPosition >= window.getStartPosition() + window.getNumRows());
+            if(!fill) {
+                return super.onMove(oldPosition, newPosition);
+            }
+
+            long start = System.nanoTime();
+            boolean result = super.onMove(oldPosition, newPosition);
+            mStats.addFill(System.nanoTime() - start, 0);
+            return result;
+        }
+    }
+}
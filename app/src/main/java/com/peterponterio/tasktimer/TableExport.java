@@ -0,0 +1,217 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Created by peterponterio on 4/5/18.
+ *
+ * Writes a whole table as CSV or JSON into the write end of a pipe, for {@link AppProvider}'s
+ * openFile. The reader gets the first rows while the rest are still being read from the database
+ *
+ * the only class that should use this is {@link AppProvider}
+ */
+
+/*
+    building the whole export in memory (or in a temporary file) first would need memory, or storage,
+    in proportion to the table, and the reader would wait for all of it before getting a byte. Here the
+    rows are read CHUNK_ROWS at a time in _id order, each chunk starting after the last _id of the one
+    before, so every chunk is a seek in the primary key rather than an OFFSET, and only one chunk's
+    cursor is open at a time. The text goes out through a buffer of BUFFER_CHARS, and the pipe blocks
+    this thread whenever the reader falls behind. Memory use is the same for ten rows or ten million.
+
+    chunks are separate reads, so a row written while an export is running may or may not be in it.
+    Holding one read transaction open for the whole export would stop that, but it would also hold up
+    the app's own writes for as long as the reader took
+ */
+class TableExport implements ContentProvider.PipeDataWriter<String> {
+    private static final String TAG = "TableExport";
+
+    static final int CHUNK_ROWS = 1000;
+    static final int BUFFER_CHARS = 8 * 1024;
+
+    private final SQLiteDatabase mDb;
+    private final String mTable;
+    private final String[] mColumns;
+
+
+
+    //columns must start with _id, which is what the chunks are read in order of
+    TableExport(SQLiteDatabase db, String table, String[] columns) {
+        mDb = db;
+        mTable = table;
+        mColumns = columns;
+    }
+
+
+
+    //the columns exported for tableName, or null if it isnt a table that can be exported
+    static String[] columnsFor(String tableName) {
+        if(TasksContract.TABLE_NAME.equals(tableName)) {
+            return new String[]{TasksContract.Columns._ID, TasksContract.Columns.TASKS_NAME,
+                    TasksContract.Columns.TASKS_DESCRIPTION, TasksContract.Columns.TASKS_SORTORDER};
+        }
+        if(TimingsContract.TABLE_NAME.equals(tableName)) {
+            return new String[]{TimingsContract.Columns._ID, TimingsContract.Columns.TIMINGS_TASK_ID,
+                    TimingsContract.Columns.TIMINGS_START_TIME, TimingsContract.Columns.TIMINGS_DURATION};
+        }
+        return null;
+    }
+
+
+
+    /*
+        called by openPipeHelper on a background thread. format is ExportContract.FORMAT_CSV or
+        FORMAT_JSON. openPipeHelper closes output once this returns
+     */
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType, Bundle opts, String format) {
+        final long start = ProviderTrace.start();
+        boolean json = ExportContract.FORMAT_JSON.equals(format);
+        int rows = 0;
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output.getFileDescriptor()), Charset.forName("UTF-8")), BUFFER_CHARS);
+        try {
+            if(json) {
+                writer.write('[');
+            } else {
+                writeCsvRow(writer, mColumns);
+            }
+
+            long lastId = Long.MIN_VALUE;
+            while(true) {
+                Cursor cursor = mDb.query(mTable, mColumns, BaseColumns._ID + " > ?",
+                        new String[]{Long.toString(lastId)}, null, null, BaseColumns._ID,
+                        Integer.toString(CHUNK_ROWS));
+                int chunkRows = 0;
+                try {
+                    while(cursor.moveToNext()) {
+                        if(json) {
+                            writeJsonRow(writer, cursor, rows > 0);
+                        } else {
+                            writeCsvRow(writer, cursor);
+                        }
+                        lastId = cursor.getLong(0);
+                        chunkRows++;
+                        rows++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+                if(chunkRows < CHUNK_ROWS) {
+                    break;
+                }
+            }
+
+            if(json) {
+                writer.write("]\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            //most likely the reader closed its end of the pipe without reading everything
+            Log.w(TAG, "writeDataToPipe: export of " + mTable + " stopped after " + rows + " rows", e);
+        }
+
+        ProviderTrace.end("export", uri, start, rows);
+    }
+
+
+
+    /*
+        a row of CSV as RFC 4180 has it: values with a comma, a quote or a line break in them are quoted,
+        with any quotes doubled. A null is left empty
+     */
+    private static void writeCsvRow(Writer writer, String[] values) throws IOException {
+        for(int i = 0; i < values.length; i++) {
+            if(i > 0) {
+                writer.write(',');
+            }
+            writeCsvValue(writer, values[i]);
+        }
+        writer.write("\r\n");
+    }
+
+    private static void writeCsvRow(Writer writer, Cursor cursor) throws IOException {
+        int columns = cursor.getColumnCount();
+        for(int i = 0; i < columns; i++) {
+            if(i > 0) {
+                writer.write(',');
+            }
+            writeCsvValue(writer, cursor.getString(i));
+        }
+        writer.write("\r\n");
+    }
+
+    private static void writeCsvValue(Writer writer, String value) throws IOException {
+        if(value == null) {
+            return;
+        }
+        boolean quote = false;
+        for(int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = (c == ',') || (c == '"') || (c == '\r') || (c == '\n');
+        }
+        if(!quote) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write('"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+
+
+    //a row as a JSON object, with numbers left as numbers and nulls as null
+    private void writeJsonRow(Writer writer, Cursor cursor, boolean comma) throws IOException {
+        if(comma) {
+            writer.write(',');
+        }
+        writer.write("\n{");
+        for(int i = 0; i < mColumns.length; i++) {
+            if(i > 0) {
+                writer.write(',');
+            }
+            writer.write(JSONObject.quote(mColumns[i]));
+            writer.write(':');
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    writer.write("null");
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    writer.write(Long.toString(cursor.getLong(i)));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    writer.write(Double.toString(cursor.getDouble(i)));
+                    break;
+                default:
+                    writer.write(JSONObject.quote(cursor.getString(i)));
+                    break;
+            }
+        }
+        writer.write('}');
+    }
+}
@@ -0,0 +1,284 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+import android.util.SparseArray;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by peterponterio on 3/30/18.
+ *
+ * Compiled insert, update-by-id and delete-by-id statements for one table, kept so they can be used
+ * again instead of being rebuilt for every write
+ *
+ * SQLiteDatabase.insert and update build their SQL from the ContentValues and compile a new
+ * SQLiteStatement on every call, and a selection like "_id = 8" is different SQL for every id, so
+ * SQLite's own cache of prepared statements never gets a hit. Here the SQL for each combination of
+ * columns is built once, ids are bound as arguments, and the compiled statements are handed out
+ * from a pool
+ *
+ * the only class that should use this is {@link AppProvider}
+ */
+
+class TableStatements {
+    private static final String TAG = "TableStatements";
+
+    //the WHERE clause used for a single row, with the id as its only argument
+    static final String ID_SELECTION = BaseColumns._ID + " = ?";
+
+    //compiled statements kept for each shape. More than this are only needed by concurrent writers
+    private static final int MAX_POOLED_PER_SHAPE = 4;
+
+    private static final int OP_INSERT = 0;
+    private static final int OP_UPDATE = 1;
+    private static final int OP_DELETE = 2;
+
+    private final String mTable;
+    private final String[] mColumns;
+
+
+    /*
+        free statements, keyed by shape: the operation in the high bits and, for inserts and updates,
+        a bit for each of mColumns that the values contain. Guarded by itself.
+
+        a statement is taken out of the pool while it's being bound and run, and put back afterwards,
+        rather than being shared under a lock. A writer that locked a statement and then had to wait
+        for another thread's transaction to finish could otherwise deadlock with that thread
+     */
+    private final SparseArray<ArrayDeque<SQLiteStatement>> mPool = new SparseArray<>();
+    private final SparseArray<String> mSql = new SparseArray<>();
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mCompiles = new AtomicLong();
+    private final AtomicLong mFallbacks = new AtomicLong();
+
+
+
+    /*
+        columns are the columns of table that writes can set. Values containing any other column are
+        passed on to SQLiteDatabase, which will report the unknown column
+     */
+    TableStatements(String table, String... columns) {
+        if(columns.length > 16) {
+            throw new IllegalArgumentException("Too many columns for " + table);
+        }
+        mTable = table;
+        mColumns = columns;
+    }
+
+
+
+    /*
+        inserts values and returns the new row's id. Unlike SQLiteDatabase.insert, which logs the error
+        and returns -1, a row that breaks a constraint throws a SQLException
+     */
+    long insert(SQLiteDatabase db, ContentValues values) {
+        int mask = columnMask(values);
+        if(mask <= 0) {
+            mFallbacks.incrementAndGet();
+            return db.insert(mTable, null, values);
+        }
+
+        int shape = (OP_INSERT << 16) | mask;
+        SQLiteStatement statement = acquire(db, shape);
+        try {
+            bindValues(statement, values, mask);
+            return statement.executeInsert();
+        } finally {
+            release(shape, statement);
+        }
+    }
+
+
+
+    //updates the row with id id and returns the number of rows updated
+    int update(SQLiteDatabase db, ContentValues values, long id) {
+        int mask = columnMask(values);
+        if(mask <= 0) {
+            mFallbacks.incrementAndGet();
+            return db.update(mTable, values, ID_SELECTION, new String[]{Long.toString(id)});
+        }
+
+        int shape = (OP_UPDATE << 16) | mask;
+        SQLiteStatement statement = acquire(db, shape);
+        try {
+            int index = bindValues(statement, values, mask);
+            statement.bindLong(index, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(shape, statement);
+        }
+    }
+
+
+
+    //deletes the row with id id and returns the number of rows deleted
+    int delete(SQLiteDatabase db, long id) {
+        int shape = OP_DELETE << 16;
+        SQLiteStatement statement = acquire(db, shape);
+        try {
+            statement.bindLong(1, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(shape, statement);
+        }
+    }
+
+
+
+    /*
+        a bit for each of mColumns in values. Returns -1 if values contains anything else, and 0 if
+        it's empty; neither of those have a statement of their own
+     */
+    private int columnMask(ContentValues values) {
+        if(values == null) {
+            return 0;
+        }
+
+        int mask = 0;
+        int found = 0;
+        for(int i = 0; i < mColumns.length; i++) {
+            if(values.containsKey(mColumns[i])) {
+                mask |= 1 << i;
+                found++;
+            }
+        }
+        return (found == values.size()) ? mask : -1;
+    }
+
+
+
+    //binds the values in column order, starting at argument 1. Returns the next free argument
+    private int bindValues(SQLiteStatement statement, ContentValues values, int mask) {
+        int index = 1;
+        for(int i = 0; i < mColumns.length; i++) {
+            if((mask & (1 << i)) != 0) {
+                DatabaseUtils.bindObjectToProgram(statement, index++, values.get(mColumns[i]));
+            }
+        }
+        return index;
+    }
+
+
+
+    private SQLiteStatement acquire(SQLiteDatabase db, int shape) {
+        String sql;
+        synchronized (mPool) {
+            ArrayDeque<SQLiteStatement> free = mPool.get(shape);
+            if((free != null) && !free.isEmpty()) {
+                mHits.incrementAndGet();
+                return free.pop();
+            }
+
+            sql = mSql.get(shape);
+            if(sql == null) {
+                sql = buildSql(shape);
+                mSql.put(shape, sql);
+            }
+        }
+
+        //compiled outside the lock; it needs a database connection, which may have to be waited for
+        mCompiles.incrementAndGet();
+        return db.compileStatement(sql);
+    }
+
+
+
+    private void release(int shape, SQLiteStatement statement) {
+        statement.clearBindings();
+        synchronized (mPool) {
+            ArrayDeque<SQLiteStatement> free = mPool.get(shape);
+            if(free == null) {
+                free = new ArrayDeque<>();
+                mPool.put(shape, free);
+            }
+            if(free.size() < MAX_POOLED_PER_SHAPE) {
+                free.push(statement);
+                return;
+            }
+        }
+        statement.close();
+    }
+
+
+
+    private String buildSql(int shape) {
+        int op = shape >>> 16;
+        int mask = shape & 0xFFFF;
+        StringBuilder sql = new StringBuilder();
+
+        switch (op) {
+            case OP_INSERT:
+                StringBuilder arguments = new StringBuilder();
+                sql.append("INSERT INTO ").append(mTable).append(" (");
+                for(int i = 0; i < mColumns.length; i++) {
+                    if((mask & (1 << i)) != 0) {
+                        if(arguments.length() > 0) {
+                            sql.append(", ");
+                            arguments.append(", ");
+                        }
+                        sql.append(mColumns[i]);
+                        arguments.append('?');
+                    }
+                }
+                sql.append(") VALUES (").append(arguments).append(')');
+                break;
+
+            case OP_UPDATE:
+                sql.append("UPDATE ").append(mTable).append(" SET ");
+                boolean first = true;
+                for(int i = 0; i < mColumns.length; i++) {
+                    if((mask & (1 << i)) != 0) {
+                        if(!first) {
+                            sql.append(", ");
+                        }
+                        sql.append(mColumns[i]).append(" = ?");
+                        first = false;
+                    }
+                }
+                sql.append(" WHERE ").append(ID_SELECTION);
+                break;
+
+            case OP_DELETE:
+                sql.append("DELETE FROM ").append(mTable).append(" WHERE ").append(ID_SELECTION);
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown statement shape " + shape);
+        }
+        return sql.toString();
+    }
+
+
+
+    //number of writes that reused an already compiled statement
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    //number of statements compiled
+    long getCompileCount() {
+        return mCompiles.get();
+    }
+
+    //number of writes whose values didnt fit a statement and went through SQLiteDatabase instead
+    long getFallbackCount() {
+        return mFallbacks.get();
+    }
+
+
+    @Override
+    public String toString() {
+        return TAG + "{" +
+                "table=" + mTable +
+                ", hits=" + mHits.get() +
+                ", compiles=" + mCompiles.get() +
+                ", fallbacks=" + mFallbacks.get() +
+                '}';
+    }
+}
@@ -1,13 +1,17 @@
 package com.peterponterio.tasktimer;
 
-import java.io.Serializable;
+import android.os.Parcel;
+import android.os.Parcelable;
 
 /**
  * Created by peterponterio on 3/16/18.
+ *
+ * Parcelable rather than Serializable, so a task passed to the edit screen in a Bundle is written
+ * field by field instead of through java serialization, which works out the class and its fields by
+ * reflection and writes out their names and types as well as their values
  */
 
-class Task implements Serializable {
-    public static final long serialVersionUID = 20180316L;
+class Task implements Parcelable {
 
     private long m_Id;
     private final String mName;
@@ -21,6 +25,14 @@ class Task implements Serializable {
         mSortOrder = sortOrder;
     }
 
+    //the fields are read back in the order writeToParcel wrote them
+    private Task(Parcel in) {
+        m_Id = in.readLong();
+        mName = in.readString();
+        mDescription = in.readString();
+        mSortOrder = in.readInt();
+    }
+
     public long getId() {
         return m_Id;
     }
@@ -42,6 +54,64 @@ class Task implements Serializable {
         this.m_Id = id;
     }
 
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(m_Id);
+        dest.writeString(mName);
+        dest.writeString(mDescription);
+        dest.writeInt(mSortOrder);
+    }
+
+    public static final Creator<Task> CREATOR = new Creator<Task>() {
+        @Override
+        public Task createFromParcel(Parcel in) {
+            return new Task(in);
+        }
+
+        @Override
+        public Task[] newArray(int size) {
+            return new Task[size];
+        }
+    };
+
+    /*
+        two tasks are equal if they have the same id and show the same thing, so an ObservableQuery that
+        reads a task again after an unrelated change to the table doesnt deliver it again.
+        java.util.Objects needs API 19, so the null checks are done by hand
+     */
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof Task)) {
+            return false;
+        }
+        Task task = (Task) o;
+        return (m_Id == task.m_Id)
+                && (mSortOrder == task.mSortOrder)
+                && equal(mName, task.mName)
+                && equal(mDescription, task.mDescription);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (m_Id ^ (m_Id >>> 32));
+        result = 31 * result + ((mName == null) ? 0 : mName.hashCode());
+        result = 31 * result + ((mDescription == null) ? 0 : mDescription.hashCode());
+        result = 31 * result + mSortOrder;
+        return result;
+    }
+
+    private static boolean equal(String a, String b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+
     @Override
     public String toString() {
         return "Task{" +
@@ -0,0 +1,348 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentResolver;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageButton;
+import android.widget.TextView;
+
+/**
+ * Created by peterponterio on 3/16/18.
+ */
+
+/*
+    this adapter displays the task list. The rows come from a TaskPager, which loads them from the
+    content provider a page at a time, so only the pages around the rows on screen are ever in memory
+ */
+class TaskListAdapter extends RecyclerView.Adapter<TaskListAdapter.TaskViewHolder> {
+    private static final String TAG = "TaskListAdapter";
+
+    private final TaskPager mPager;
+    private OnTaskClickListener mListener;
+
+
+
+
+
+
+    /*
+        used to respond to tasks being clicked in the recyclerView list
+     */
+    interface OnTaskClickListener {
+        void onEditClick(Task task);
+        void onDeleteClick(Task task);
+        void onTaskClick(Task task);
+    }
+
+
+
+
+
+
+
+
+    //snapshot is where the first page is saved, so it can be shown at once the next time the list is created
+    public TaskListAdapter(ContentResolver contentResolver, TaskListSnapshot snapshot, OnTaskClickListener listener) {
+        Log.d(TAG, "TaskListAdapter: Constructor called");
+        mListener = listener;
+        mPager = new TaskPager(contentResolver, snapshot, new PagerListener());
+
+        /*
+            each row's id is its task's _ID, so RecyclerView can tell which holder belongs to which task
+            even when rows move around
+         */
+        setHasStableIds(true);
+    }
+
+
+
+    /*
+        the pager only watches the tasks table and loads rows between open and close, so the fragment
+        calls these as it starts and stops
+     */
+    void open() {
+        mPager.open();
+    }
+
+    void close() {
+        mPager.close();
+    }
+
+
+
+    //shows only the tasks matching search, or every task if it's empty
+    void setSearch(String search) {
+        mPager.setSearch(search);
+    }
+
+
+
+    /*
+        takes a task's row out of the list before its delete is committed. refresh puts it back if the
+        delete fails
+     */
+    boolean removeTask(long taskId) {
+        return mPager.remove(taskId);
+    }
+
+    void refresh() {
+        mPager.refresh();
+    }
+
+
+
+
+
+
+
+
+    /*
+        called by the recycler view when it needs a new view to display
+
+        will inflate a view from the task_list_items layout and then return the view
+     */
+    @NonNull
+    @Override
+    public TaskViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+//        Log.d(TAG, "onCreateViewHolder: new view requested");
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.task_list_items, parent, false);
+        return new TaskViewHolder(view, this);
+    }
+
+
+
+
+
+
+
+
+
+    
+
+
+
+    /*
+        called when the recyclerView wants new data to be displayed and is providing an existing view
+        to be reused. this is where we put our data into the individual widgets. RecyclerView first
+        requests a new view and then sends that new view back so we can put the data into it
+     */
+    @Override
+    public void onBindViewHolder(@NonNull TaskViewHolder holder, int position) {
+//        Log.d(TAG, "onBindViewHolder: starts");
+
+
+
+        //if there wasnt any records, or they havent been counted yet
+        if(mPager.getCount() == 0) {
+            if(mPager.isSearching()) {
+                holder.name.setText(R.string.search_no_results);
+                holder.description.setText(null);
+                holder.editButton.setVisibility(View.GONE);
+                holder.deleteButton.setVisibility(View.GONE);
+                return;
+            }
+            Log.d(TAG, "onBindViewHolder: providing instructions");
+            holder.name.setText(R.string.instructions_heading);
+            holder.description.setText(R.string.instructions);
+            holder.editButton.setVisibility(View.GONE);
+            holder.deleteButton.setVisibility(View.GONE);
+            return;
+        }
+
+
+        /*
+            asking the pager for the row also tells it where the list has scrolled to, so it can load the
+            pages on either side and drop the ones that are now far away. If the row's page hasnt arrived
+            yet, the row is left blank and the pager will tell us to bind it again once it has
+         */
+        Task task = mPager.getRow(position);
+        if(task == null) {
+            holder.name.setText(null);
+            holder.description.setText(null);
+            holder.editButton.setVisibility(View.INVISIBLE);
+            holder.deleteButton.setVisibility(View.INVISIBLE);
+        } else {
+            /*
+                the rows strings were created when the page was loaded, so binding a row doesnt create
+                any objects. The click listener was set up once when the holder was created
+             */
+            holder.name.setText(task.getName());
+            holder.description.setText(task.getDescription());
+            holder.editButton.setVisibility(View.VISIBLE);
+            holder.deleteButton.setVisibility(View.VISIBLE);
+        }
+    }
+
+
+
+
+
+
+
+    /*
+        recyclerView uses this so it knows how many items there are to display. If there are no items,
+        we will be sending back a view that displays the instructions. So in this case we dont want to
+         tell the recyclerView that there are no records. we'll always return atleast 1
+
+     */
+    @Override
+    public int getItemCount() {
+//        Log.d(TAG, "getItemCount: starts");
+
+        if(mPager.getCount() == 0) {
+            return 1; //we return 1 because we populate a single ViewHolder with instructions
+        } else {
+            return mPager.getCount();
+        }
+    }
+
+
+
+
+
+
+
+    /*
+        the task's _ID is the row's stable id. The instructions row isnt a task, so it has no id. The
+        pager keeps the ids of rows whose pages have been dropped. When a row's id does change, as it
+        does when a placeholder's page is loaded, the pager reports it as a remove and an insert
+     */
+    @Override
+    public long getItemId(int position) {
+        if(mPager.getCount() == 0) {
+            return RecyclerView.NO_ID;
+        }
+        return mPager.getRowId(position);
+    }
+
+
+
+
+
+
+
+
+    /*
+        called by a TaskViewHolder when its edit or delete button, or the row itself, is clicked
+
+        the holder calls back to this adapter, which looks up the row's task in the pager and passes it
+        on to mListener, so the activity can take care of editing or deleting it. Editing and Deleting
+        will be initiated by MainActivity and not a fragment. A row whose page hasnt loaded yet has no
+        task, so clicking it does nothing
+     */
+    void onTaskButtonClicked(View view, int position) {
+        Task task = mPager.peekRow(position);
+        if((mListener == null) || (task == null)) {
+            return;
+        }
+
+        switch (view.getId()) {
+            case R.id.tli_edit:
+                mListener.onEditClick(task);
+                break;
+            case R.id.tli_delete:
+                mListener.onDeleteClick(task);
+                break;
+            case R.id.linearLayout:
+                //tapping the row starts (or stops) timing the task
+                mListener.onTaskClick(task);
+                break;
+            default:
+                Log.d(TAG, "onTaskButtonClicked: found unexpected button id");
+        }
+    }
+
+
+
+
+
+
+
+
+    /*
+        passes the pager's changes on to the recyclerView. Going between no tasks and some tasks adds or
+        removes the instructions row as well, so those changes always refresh everything
+     */
+    private class PagerListener implements TaskPager.Listener {
+        @Override
+        public void onDataSetChanged() {
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(position, count, payload);
+        }
+    }
+
+
+
+
+
+
+
+
+    /*
+        the holder is its own click listener. It's set on the buttons once, when the holder is created,
+        rather than every time the holder is bound to a different row
+     */
+    static class TaskViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        private static final String TAG = "TaskViewHolder";
+
+        TextView name = null;
+        TextView description = null;
+        ImageButton editButton = null;
+        ImageButton deleteButton = null;
+
+        private final TaskListAdapter mAdapter;
+
+
+        public TaskViewHolder(View itemView, TaskListAdapter adapter) {
+            super(itemView);
+//            Log.d(TAG, "TaskViewHolder: starts");
+            this.name = (TextView) itemView.findViewById(R.id.tli_name);
+            this.description = (TextView) itemView.findViewById(R.id.tli_description);
+            this.editButton = (ImageButton) itemView.findViewById(R.id.tli_edit);
+            this.deleteButton = (ImageButton) itemView.findViewById(R.id.tli_delete);
+            mAdapter = adapter;
+
+            //setting onclick listener to buttons, and to the row itself
+            this.editButton.setOnClickListener(this);
+            this.deleteButton.setOnClickListener(this);
+            itemView.setOnClickListener(this);
+        }
+
+
+        /*
+            getAdapterPosition gives the row this holder is showing right now. It's NO_POSITION if
+            the data has changed and the holder hasnt been laid out again yet, in which case we cant
+            tell which task was clicked
+         */
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if(position != RecyclerView.NO_POSITION) {
+                mAdapter.onTaskButtonClicked(view, position);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.peterponterio.tasktimer;
+
+import android.support.v7.util.DiffUtil;
+
+/**
+ * Created by peterponterio on 3/30/18.
+ *
+ * Works out which rows of the task list were inserted, removed, moved or changed between two loads,
+ * so the list can be told about just those rows instead of being refreshed as a whole
+ *
+ * the only class that should use this is {@link TaskPager}
+ */
+
+/*
+    comparing two lists of tasks means reading every row of both, so it's done off the main thread, on
+    the thread that loaded the new rows, and the result is handed to the main thread with them. Rows
+    are the same task if they have the same id, and a task has changed if what its row displays (name,
+    description and sort order) hashes differently. Moves are looked for too, since a task whose sort
+    order or name changes moves in the list.
+
+    theres nothing to compare when either list is empty, because the list is showing the instructions
+    row instead of tasks. calculate returns null then, and the list is refreshed as a whole
+ */
+class TaskListDiff {
+    private static final String TAG = "TaskListDiff";
+
+
+    private TaskListDiff() {
+        //only static methods
+    }
+
+
+
+    /*
+        compares the first oldCount rows of oldRows with the first newCount rows of newRows. Returns null
+        if either is empty
+     */
+    static DiffUtil.DiffResult calculate(Task[] oldRows, int oldCount, Task[] newRows, int newCount) {
+        if((oldCount == 0) || (newCount == 0)) {
+            return null;
+        }
+        return DiffUtil.calculateDiff(new RowKeysDiffCallback(RowKeys.fromTasks(oldRows, oldCount),
+                RowKeys.fromTasks(newRows, newCount)), true);
+    }
+
+
+
+
+
+    /*
+        the ids of a list of tasks, in order, with a hash of what each row displays. Never changed once
+        it's built, so it can be handed between threads safely
+     */
+    static class RowKeys {
+        final long[] ids;
+        final int[] contentHashes;
+
+        private RowKeys(long[] ids, int[] contentHashes) {
+            this.ids = ids;
+            this.contentHashes = contentHashes;
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        //keys of the first count tasks in tasks
+        static RowKeys fromTasks(Task[] tasks, int count) {
+            long[] ids = new long[count];
+            int[] contentHashes = new int[count];
+            for(int i = 0; i < count; i++) {
+                Task task = tasks[i];
+                ids[i] = task.getId();
+                int hash = hashOf(task.getName());
+                hash = 31 * hash + hashOf(task.getDescription());
+                hash = 31 * hash + task.getSortOrder();
+                contentHashes[i] = hash;
+            }
+            return new RowKeys(ids, contentHashes);
+        }
+
+        private static int hashOf(String value) {
+            return (value == null) ? 0 : value.hashCode();
+        }
+    }
+
+
+
+    //compares two lists of rows for DiffUtil
+    static class RowKeysDiffCallback extends DiffUtil.Callback {
+        private final RowKeys mOldKeys;
+        private final RowKeys mNewKeys;
+
+        RowKeysDiffCallback(RowKeys oldKeys, RowKeys newKeys) {
+            mOldKeys = oldKeys;
+            mNewKeys = newKeys;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldKeys.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewKeys.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldKeys.ids[oldItemPosition] == mNewKeys.ids[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldKeys.contentHashes[oldItemPosition] == mNewKeys.contentHashes[newItemPosition];
+        }
+    }
+}
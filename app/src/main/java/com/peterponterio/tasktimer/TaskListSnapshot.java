@@ -0,0 +1,259 @@
+package com.peterponterio.tasktimer;
+
+import android.content.Context;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by peterponterio on 4/9/18.
+ *
+ * A copy of the first page of the task list, and the number of tasks, kept in a small file so the
+ * list can be drawn as soon as the app starts, before the database has been opened
+ *
+ * the only class that should use this is {@link TaskPager}
+ */
+
+/*
+    at a cold start the first rows of the list have to wait for the database to be opened (and on the
+    first start after an upgrade, migrated) and then queried, so the list shows the instructions first
+    and then jumps to the tasks. The pager saves its first page here whenever it loads it, and a new
+    pager shows the saved page straight away, then treats the first real load like any other refresh:
+    the rows are compared, and only the ones that differ are updated.
+
+    the file is read on the main thread, as the list is being created. That's one read of a small file,
+    whatever the size of the table: at most a page of rows, and a row with more than MAX_ROW_CHARS of
+    text in it stops the page being saved at all, rather than being cut short, since a saved row is a
+    real Task that can be edited before the real rows arrive. Saving happens on a thread of its own, and
+    a page that's the same as the last one saved isnt written again.
+
+    the file is a header (MAGIC, VERSION, the number of tasks and of saved rows) followed by each row's
+    id, sort order, name and description. It's replaced with an AtomicFile, so a save that's cut short
+    leaves the last complete one behind. Anything that can't be read is ignored, and the list loads as
+    it would without it
+ */
+class TaskListSnapshot {
+    private static final String TAG = "TaskListSnapshot";
+
+    static final String FILE_NAME = "task_list.snapshot";
+
+    private static final int MAGIC = 0x544c5331;        // "TLS1"
+    private static final int VERSION = 1;
+
+    //rows with more characters than this, in the name and description together, arent saved
+    static final int MAX_ROW_CHARS = 512;
+
+
+    //what was saved: the number of tasks in the whole list, and the first rows of it
+    static class Contents {
+        final int count;
+        final Task[] rows;
+
+        Contents(int count, Task[] rows) {
+            this.count = count;
+            this.rows = rows;
+        }
+    }
+
+
+
+    private static TaskListSnapshot sInstance = null;
+
+    private final AtomicFile mFile;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+
+    //the bytes last read or written, so an unchanged page isnt written again
+    private volatile byte[] mLastBytes = null;
+
+    private final AtomicLong mSaves = new AtomicLong();
+    private final AtomicLong mUnchanged = new AtomicLong();
+    private final AtomicLong mNotSaved = new AtomicLong();
+
+
+
+    static synchronized TaskListSnapshot getInstance(Context context) {
+        if(sInstance == null) {
+            sInstance = new TaskListSnapshot(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+
+
+    TaskListSnapshot(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+
+
+    //reads what was last saved, or returns null if nothing has been, or it can't be read
+    Contents read() {
+        byte[] bytes;
+        try {
+            bytes = mFile.readFully();
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "read: failed", e);
+            return null;
+        }
+
+        try {
+            Contents contents = decode(bytes);
+            mLastBytes = bytes;
+            return contents;
+        } catch (IOException e) {
+            Log.w(TAG, "read: ignoring a snapshot that can't be read", e);
+            return null;
+        }
+    }
+
+
+
+    /*
+        saves count and the first rows of the list, on the snapshot's own thread. If any of the rows is
+        too big to save, the snapshot is deleted instead, so an older page isnt shown in its place
+     */
+    void save(final int count, final Task[] rows) {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(count, rows);
+            }
+        });
+    }
+
+
+
+    //what save does on the snapshot's thread. Tests call it directly
+    void write(int count, Task[] rows) {
+        for(Task row : rows) {
+            if(charsIn(row) > MAX_ROW_CHARS) {
+                mNotSaved.incrementAndGet();
+                mFile.delete();
+                mLastBytes = null;
+                return;
+            }
+        }
+
+        byte[] bytes = encode(count, rows);
+        if(Arrays.equals(bytes, mLastBytes)) {
+            mUnchanged.incrementAndGet();
+            return;
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(bytes);
+            mFile.finishWrite(out);
+            mLastBytes = bytes;
+            mSaves.incrementAndGet();
+        } catch (IOException e) {
+            Log.w(TAG, "write: failed", e);
+            if(out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+
+
+    private static int charsIn(Task task) {
+        int chars = (task.getName() == null) ? 0 : task.getName().length();
+        if(task.getDescription() != null) {
+            chars += task.getDescription().length();
+        }
+        return chars;
+    }
+
+
+
+    static byte[] encode(int count, Task[] rows) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + rows.length * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeInt(rows.length);
+            for(Task row : rows) {
+                out.writeLong(row.getId());
+                out.writeInt(row.getSortOrder());
+                out.writeUTF(row.getName());
+                out.writeBoolean(row.getDescription() != null);
+                if(row.getDescription() != null) {
+                    out.writeUTF(row.getDescription());
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            //a ByteArrayOutputStream doesnt throw
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+
+
+    static Contents decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+            throw new IOException("not a task list snapshot");
+        }
+        int count = in.readInt();
+        int rowCount = in.readInt();
+        if((count < 0) || (rowCount < 0) || (rowCount > count) || (rowCount > TaskPager.PAGE_SIZE)) {
+            throw new IOException("bad row counts " + rowCount + " of " + count);
+        }
+
+        Task[] rows = new Task[rowCount];
+        for(int i = 0; i < rowCount; i++) {
+            long id = in.readLong();
+            int sortOrder = in.readInt();
+            String name = in.readUTF();
+            String description = in.readBoolean() ? in.readUTF() : null;
+            rows[i] = new Task(id, name, description, sortOrder);
+        }
+        return new Contents(count, rows);
+    }
+
+
+
+    //snapshots written
+    long getSaveCount() {
+        return mSaves.get();
+    }
+
+    //saves skipped because the page hadnt changed
+    long getUnchangedCount() {
+        return mUnchanged.get();
+    }
+
+    //saves skipped because a row was too big
+    long getNotSavedCount() {
+        return mNotSaved.get();
+    }
+
+
+    @Override
+    public String toString() {
+        return TAG + "{" +
+                "saves=" + mSaves.get() +
+                ", unchanged=" + mUnchanged.get() +
+                ", notSaved=" + mNotSaved.get() +
+                '}';
+    }
+}
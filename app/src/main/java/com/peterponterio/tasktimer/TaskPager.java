@@ -0,0 +1,893 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.CancellationSignal;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Created by peterponterio on 4/2/18.
+ *
+ * Loads the task list a page at a time, around the rows that are on screen
+ */
+
+/*
+    querying every task and keeping them all in a cursor means the first frame has to wait for the
+    whole table, and the memory used grows with the number of tasks. Instead the list is split into
+    pages of PAGE_SIZE rows. A page is only loaded when one of its rows is about to be shown, the page
+    after (or before) it is loaded before the user gets there, and pages that are a long way from the
+    screen are dropped again.
+
+    pages are found with keyset pagination. Each page remembers the sort key (SortOrder, Name, _id) of
+    its first row, so it can be loaded again with a WHERE clause that starts right at that key, rather
+    than an OFFSET that would make SQLite step over every row before it. Each page is loaded with one
+    extra row, and that row's key is where the next page starts. OFFSET is only used for a page whose
+    start isnt known yet, which only happens when the list jumps rather than scrolls.
+
+    all of the pager's state belongs to the main thread. Queries run on a single background thread and
+    their results are posted back to the main thread. Every refresh starts a new generation, and results
+    from an older generation are thrown away
+
+    a new pager starts with the first page that was saved to the TaskListSnapshot, if there is one, so
+    the list has rows on screen before the database has even been opened. The first refresh then
+    replaces them like any other, by comparing the saved rows with the real ones. The first page is
+    saved again whenever it's loaded
+
+    the pager can also show the results of a search instead of the whole list (see setSearch). Search
+    results are in ranked order rather than sort key order, so their pages are always found by offset.
+    Changing the search cancels any queries still running for the old one, through a CancellationSignal,
+    so a search that's been typed over doesnt hold up the next one
+ */
+class TaskPager {
+    private static final String TAG = "TaskPager";
+
+    static final int PAGE_SIZE = 50;
+
+    //pages further than this from the page being shown are dropped
+    private static final int KEEP_PAGES = 3;
+
+    static final String[] PROJECTION = {TasksContract.Columns._ID, TasksContract.Columns.TASKS_NAME,
+            TasksContract.Columns.TASKS_DESCRIPTION, TasksContract.Columns.TASKS_SORTORDER};
+
+    // <order by> Tasks.SortOrder, Tasks.Name COLLATE NOCASE, and _id to break any ties so every row has its own key
+    static final String SORT_ORDER = TasksContract.Columns.TASKS_SORTORDER + ","
+            + TasksContract.Columns.TASKS_NAME + " COLLATE NOCASE,"
+            + TasksContract.Columns._ID;
+
+    /*
+        rows after a page's start key. Split into rows with the same sort order and rows with a higher
+        one, because each of those can be answered by seeking in the (SortOrder, Name) index, where a
+        single WHERE clause with an OR in it would make SQLite scan from the start of the index
+     */
+    private static final String SAME_SORT_ORDER_SELECTION = TasksContract.Columns.TASKS_SORTORDER + " = ? AND "
+            + TasksContract.Columns.TASKS_NAME + " COLLATE NOCASE >= ? AND ("
+            + TasksContract.Columns.TASKS_NAME + " COLLATE NOCASE > ? OR "
+            + TasksContract.Columns._ID + " >= ?)";
+    private static final String HIGHER_SORT_ORDER_SELECTION = TasksContract.Columns.TASKS_SORTORDER + " > ?";
+
+
+    /*
+        told about changes to the rows the pager holds. Positions are positions in the whole list
+     */
+    interface Listener extends ListUpdateCallback {
+        //the rows have changed in a way that cant be described by individual changes
+        void onDataSetChanged();
+    }
+
+
+    private final ContentResolver mContentResolver;
+    private final TaskListSnapshot mSnapshot;
+    private final Listener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //shared by every pager, so a new list (after a rotation, say) doesn't leave a thread behind
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private int mCount = 0;
+    private final SparseArray<Task[]> mPages = new SparseArray<>();
+
+    /*
+        the ids of the rows of pages that were dropped for being too far from the screen. The adapter's
+        ids are stable, so a row has to keep its id when its page is dropped; nothing tells the
+        recyclerView about a drop. Cleared whenever the whole list is reloaded
+     */
+    private final SparseArray<long[]> mDroppedIds = new SparseArray<>();
+    private final SparseArray<PageKey> mStartKeys = new SparseArray<>();
+    private final SparseBooleanArray mLoading = new SparseBooleanArray();
+
+    private int mGeneration = 0;
+    private boolean mRefreshing = false;
+    //a row was taken out by remove, and the database wont match the pages until the next refresh
+    private boolean mRemovePending = false;
+    private boolean mRefreshPending = false;
+    private final SparseBooleanArray mRequestedWhileRefreshing = new SparseBooleanArray();
+    private int mCurrentPage = 0;
+    private boolean mOpen = false;
+
+    //what the rows are read from: the whole list, or a search
+    private Source mSource = new Source(null);
+
+
+    /*
+        changes to the tasks table come from the invalidation tracker, on whichever thread committed
+        them. A burst of them only posts one refresh, and a refresh that's already running picks up
+        anything after it with one more
+     */
+    private final AtomicBoolean mInvalidated = new AtomicBoolean();
+
+    private final InvalidationTracker.Observer mObserver = new InvalidationTracker.Observer() {
+        @Override
+        public void onInvalidated(Set<Uri> tables) {
+            if(mInvalidated.compareAndSet(false, true)) {
+                mMainHandler.post(mRefreshRunnable);
+            }
+        }
+    };
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mInvalidated.set(false);
+            if(BuildConfig.DEBUG) {
+                Log.d(TAG, "onInvalidated: tasks changed");
+            }
+            refresh();
+        }
+    };
+
+
+
+    //snapshot can be null, in which case the list waits for the database when it's first opened
+    TaskPager(ContentResolver contentResolver, TaskListSnapshot snapshot, Listener listener) {
+        mContentResolver = contentResolver;
+        mSnapshot = snapshot;
+        mListener = listener;
+    }
+
+
+
+    /*
+        starts watching the tasks table and loads the first rows. The first time, the saved first page
+        is shown while they load
+     */
+    void open() {
+        if(mOpen) {
+            return;
+        }
+        mOpen = true;
+        InvalidationTracker.getInstance().addObserver(mObserver, TasksContract.CONTENT_URI);
+        showSnapshot();
+        refresh();
+    }
+
+
+
+    //shows the saved first page, if this pager hasnt got any rows of its own yet
+    private void showSnapshot() {
+        if((mSnapshot == null) || isSearching() || (mCount > 0) || (mPages.size() > 0)) {
+            return;
+        }
+        TaskListSnapshot.Contents contents = mSnapshot.read();
+        if((contents == null) || (contents.count == 0)) {
+            return;
+        }
+        if(BuildConfig.DEBUG) {
+            Log.d(TAG, "showSnapshot: " + contents.rows.length + " of " + contents.count + " rows");
+        }
+
+        mCount = contents.count;
+        mPages.put(0, contents.rows);
+        mListener.onDataSetChanged();
+    }
+
+
+
+    //saves the first page for the next pager to start with, when it's loaded and the list isnt a search
+    private void saveSnapshot() {
+        if((mSnapshot == null) || mSource.isSearch()) {
+            return;
+        }
+        Task[] firstPage = mPages.get(0);
+        if(firstPage != null) {
+            mSnapshot.save(mCount, firstPage);
+        } else if(mCount == 0) {
+            mSnapshot.save(0, new Task[0]);
+        }
+    }
+
+
+
+    //stops watching the tasks table. Any queries still running are cancelled, or ignored when they finish
+    void close() {
+        if(!mOpen) {
+            return;
+        }
+        mOpen = false;
+        InvalidationTracker.getInstance().removeObserver(mObserver);
+        mMainHandler.removeCallbacks(mRefreshRunnable);
+        mInvalidated.set(false);
+        cancelQueries();
+    }
+
+
+
+    /*
+        shows the tasks that match search, or the whole list again if search is null or empty. The rows
+        that were loaded are dropped, any queries still running are cancelled, and the list starts again
+        from the top
+     */
+    void setSearch(String search) {
+        if((search != null) && (search.trim().length() == 0)) {
+            search = null;
+        }
+        if((search == null) ? (mSource.search == null) : search.equals(mSource.search)) {
+            return;
+        }
+        if(BuildConfig.DEBUG) {
+            Log.d(TAG, "setSearch: " + search);
+        }
+
+        cancelQueries();
+        mSource = new Source(search);
+        mPages.clear();
+        mDroppedIds.clear();
+        mStartKeys.clear();
+        mCurrentPage = 0;
+        refresh();
+    }
+
+
+
+    //true if the rows are the results of a search
+    boolean isSearching() {
+        return mSource.search != null;
+    }
+
+
+
+    //cancels the queries that are running and ignores any results still to come
+    private void cancelQueries() {
+        mGeneration++;
+        mLoading.clear();
+        mRefreshing = false;
+        mRefreshPending = false;
+        mRequestedWhileRefreshing.clear();
+
+        mSource.cancellationSignal.cancel();
+        mSource = new Source(mSource.search);
+    }
+
+
+
+    //number of rows in the whole list
+    int getCount() {
+        return mCount;
+    }
+
+
+
+    /*
+        returns the task at position, or null if its page hasnt been loaded yet, in which case the page
+        is loaded and the listener is told when the row is ready. Every call also moves the window of
+        loaded pages along with the position being shown
+     */
+    Task getRow(int position) {
+        if((position < 0) || (position >= mCount)) {
+            return null;
+        }
+
+        int page = position / PAGE_SIZE;
+        mCurrentPage = page;
+
+        //load the neighbouring page in whichever direction the list is heading
+        int offsetInPage = position - page * PAGE_SIZE;
+        loadPage(page);
+        if(offsetInPage >= PAGE_SIZE / 2) {
+            loadPage(page + 1);
+        } else if(page > 0) {
+            loadPage(page - 1);
+        }
+        dropFarPages(page);
+
+        return peekRow(position);
+    }
+
+
+
+    //returns the task at position if it's loaded, without loading anything or moving the window
+    Task peekRow(int position) {
+        if((position < 0) || (position >= mCount)) {
+            return null;
+        }
+        int page = position / PAGE_SIZE;
+        Task[] rows = mPages.get(page);
+        int offsetInPage = position - page * PAGE_SIZE;
+        if((rows == null) || (offsetInPage >= rows.length)) {
+            return null;
+        }
+        return rows[offsetInPage];
+    }
+
+
+
+    /*
+        the stable id of the row at position: the task's id if its page is loaded, or was loaded and
+        then dropped, otherwise a negative id from the position, which can never clash with a task's.
+        RecyclerView doesnt expect a row's stable id to change in place, so whenever one does the
+        listener is told the row was removed and a new one inserted (see replaceRows)
+     */
+    long getRowId(int position) {
+        Task task = peekRow(position);
+        if(task != null) {
+            return task.getId();
+        }
+        int page = position / PAGE_SIZE;
+        long[] ids = mDroppedIds.get(page);
+        int offsetInPage = position - page * PAGE_SIZE;
+        if((ids != null) && (offsetInPage < ids.length)) {
+            return ids[offsetInPage];
+        }
+        return -(position + 2L);
+    }
+
+
+
+    private int getPageCount() {
+        return (mCount + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+
+
+    private void loadPage(final int page) {
+        if((page < 0) || (page >= getPageCount()) || (mPages.get(page) != null) || mLoading.get(page)) {
+            return;
+        }
+        if(mRefreshing || mRemovePending) {
+            //the refresh is about to replace everything, so load the page once it's finished
+            mRequestedWhileRefreshing.put(page, true);
+            return;
+        }
+
+        mLoading.put(page, true);
+        final int generation = mGeneration;
+        final PageKey startKey = mStartKeys.get(page);
+        final Source source = mSource;
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Rows rows;
+                try {
+                    rows = queryPage(source, page, startKey);
+                } catch (OperationCanceledException e) {
+                    //the search changed; nobody is waiting for this page anymore
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(generation, page, rows);
+                    }
+                });
+            }
+        });
+    }
+
+
+
+    private void onPageLoaded(int generation, int page, Rows rows) {
+        if(generation != mGeneration) {
+            return;
+        }
+        mLoading.delete(page);
+
+        int firstPosition = page * PAGE_SIZE;
+        int loaded = Math.min(rows.size(), PAGE_SIZE);
+        if(firstPosition >= mCount) {
+            return;
+        }
+
+        int shown = Math.min(loaded, mCount - firstPosition);
+        long[] oldIds = new long[shown];
+        for(int i = 0; i < shown; i++) {
+            oldIds[i] = getRowId(firstPosition + i);
+        }
+
+        mPages.put(page, rows.toArray(0, loaded));
+        mDroppedIds.remove(page);
+        if(!mSource.isSearch()) {
+            rows.saveStartKeys(mStartKeys, page);
+        }
+        if(page == 0) {
+            saveSnapshot();
+        }
+
+        /*
+            the rows were showing as placeholders until now, so they have their tasks' ids instead of
+            ones from their positions. Rows of a page that was dropped and loaded again usually keep
+            theirs, and are just bound again
+         */
+        int run = 0;
+        while(run < shown) {
+            boolean replaced = oldIds[run] != getRowId(firstPosition + run);
+            int end = run + 1;
+            while((end < shown) && ((oldIds[end] != getRowId(firstPosition + end)) == replaced)) {
+                end++;
+            }
+            if(replaced) {
+                replaceRows(firstPosition + run, end - run);
+            } else {
+                mListener.onChanged(firstPosition + run, end - run, null);
+            }
+            run = end;
+        }
+    }
+
+
+
+    /*
+        tells the listener that count rows from position have new ids. RecyclerView matches holders
+        to rows by stable id, and doesnt expect one to change while it's the same item, so the old
+        rows are removed and new ones inserted in their place
+     */
+    private void replaceRows(int position, int count) {
+        if(count > 0) {
+            mListener.onRemoved(position, count);
+            mListener.onInserted(position, count);
+        }
+    }
+
+
+
+    private void dropFarPages(int page) {
+        for(int i = mPages.size() - 1; i >= 0; i--) {
+            if(Math.abs(mPages.keyAt(i) - page) > KEEP_PAGES) {
+                Task[] rows = mPages.valueAt(i);
+                long[] ids = new long[rows.length];
+                for(int j = 0; j < rows.length; j++) {
+                    ids[j] = rows[j].getId();
+                }
+                mDroppedIds.put(mPages.keyAt(i), ids);
+                mPages.removeAt(i);
+            }
+        }
+    }
+
+
+
+    /*
+        takes a task out of the list straight away, before its delete has reached the database, so the
+        row goes as soon as the user confirms. Returns false, and leaves the list alone, if the task
+        isnt loaded or a refresh is running.
+
+        every row after it moves up one, so pages arent loaded again until the next refresh; their
+        positions in the table would be one out until the delete is committed. The commit refreshes
+        the list anyway, and that refresh finds nothing more to change. If the delete fails, refresh
+        puts the row back
+     */
+    boolean remove(long taskId) {
+        if(!mOpen || mRefreshing || (mPages.size() == 0)) {
+            return false;
+        }
+        int firstPage = mPages.keyAt(0);
+        int lastPage = mPages.keyAt(mPages.size() - 1);
+        Task[] window = loadedWindow(firstPage, lastPage);
+        if(window == null) {
+            return false;
+        }
+        int index = -1;
+        for(int i = 0; i < window.length; i++) {
+            if(window[i].getId() == taskId) {
+                index = i;
+                break;
+            }
+        }
+        if(index < 0) {
+            return false;
+        }
+
+        //pages still loading were read with the row in them
+        mGeneration++;
+        mLoading.clear();
+        mRemovePending = true;
+
+        int windowStart = firstPage * PAGE_SIZE;
+        int windowSize = window.length - 1;
+        System.arraycopy(window, index + 1, window, index, windowSize - index);
+        mPages.clear();
+        for(int start = 0; start < windowSize; start += PAGE_SIZE) {
+            Task[] rows = new Task[Math.min(PAGE_SIZE, windowSize - start)];
+            System.arraycopy(window, start, rows, 0, rows.length);
+            mPages.put(firstPage + start / PAGE_SIZE, rows);
+        }
+        mCount--;
+
+        if(mCount == 0) {
+            //the instructions row takes its place
+            mListener.onDataSetChanged();
+            return true;
+        }
+        mListener.onRemoved(windowStart + index, 1);
+
+        //rows after the window moved up into other pages, so they're placeholders with new ids now
+        int windowEnd = windowStart + windowSize;
+        for(int i = mDroppedIds.size() - 1; i >= 0; i--) {
+            if(mDroppedIds.keyAt(i) > lastPage) {
+                mDroppedIds.removeAt(i);
+            }
+        }
+        replaceRows(windowEnd, mCount - windowEnd);
+        return true;
+    }
+
+
+
+    /*
+        reloads the count and the loaded pages after the tasks table has changed, then works out how the
+        loaded rows changed so that only those rows are updated on screen. Rows that arent loaded are
+        placeholders anyway, so only the number of them matters
+     */
+    void refresh() {
+        if(!mOpen) {
+            return;
+        }
+        if(mRefreshing) {
+            //another change arrived while refreshing; refresh again afterwards to pick it up
+            mRefreshPending = true;
+            return;
+        }
+        mRefreshing = true;
+        mGeneration++;
+        mLoading.clear();
+
+        //the loaded window, as long as the loaded pages are next to each other
+        int firstPage = mCurrentPage;
+        int lastPage = mCurrentPage;
+        Task[] window = null;
+        if(mPages.size() > 0) {
+            firstPage = mPages.keyAt(0);
+            lastPage = mPages.keyAt(mPages.size() - 1);
+            window = loadedWindow(firstPage, lastPage);
+        }
+
+        final int generation = mGeneration;
+        final int windowStart = firstPage * PAGE_SIZE;
+        final int windowPages = lastPage - firstPage + 1;
+        final Task[] oldWindow = window;
+        final int oldCount = mCount;
+        final Source source = mSource;
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int count;
+                final Rows rows;
+                try {
+                    count = queryCount(source);
+                    rows = (windowStart < count)
+                            ? queryRows(source, AppProvider.withLimit(source.uri, windowStart, windowPages * PAGE_SIZE + 1), null, null)
+                            : new Rows();
+                } catch (OperationCanceledException e) {
+                    //the search changed, and a refresh for the new one has been started
+                    return;
+                }
+
+                //compare the rows that are in the window both before and after
+                final int newWindowSize = Math.min(rows.size(), windowPages * PAGE_SIZE);
+                DiffUtil.DiffResult diff = null;
+                if((oldWindow != null) && (oldCount > 0) && (count > 0)) {
+                    diff = TaskListDiff.calculate(oldWindow, oldWindow.length, rows.tasks, newWindowSize);
+                }
+
+                final DiffUtil.DiffResult windowDiff = diff;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRefreshed(generation, count, windowStart, oldWindow, rows, newWindowSize, windowDiff);
+                    }
+                });
+            }
+        });
+    }
+
+
+
+    private void onRefreshed(int generation, int count, int windowStart, Task[] oldWindow, Rows rows,
+                             int newWindowSize, DiffUtil.DiffResult diff) {
+        if(generation != mGeneration) {
+            return;
+        }
+        mRefreshing = false;
+        mRemovePending = false;
+
+        int oldCount = mCount;
+        mCount = count;
+        mPages.clear();
+        SparseArray<long[]> droppedIds = mDroppedIds.clone();
+        mDroppedIds.clear();
+        mStartKeys.clear();
+
+        int firstPage = windowStart / PAGE_SIZE;
+        for(int start = 0; start < newWindowSize; start += PAGE_SIZE) {
+            int page = firstPage + start / PAGE_SIZE;
+            mPages.put(page, rows.toArray(start, Math.min(start + PAGE_SIZE, newWindowSize)));
+        }
+        if(!mSource.isSearch()) {
+            rows.saveStartKeys(mStartKeys, firstPage);
+        }
+        saveSnapshot();
+
+        if(diff == null) {
+            mListener.onDataSetChanged();
+        } else {
+            //the window's changes first, then any rows that came or went outside it, at the end of the window
+            diff.dispatchUpdatesTo(new OffsetListUpdateCallback(mListener, windowStart));
+            int countAfterWindow = oldCount + (newWindowSize - oldWindow.length);
+            int windowEnd = windowStart + newWindowSize;
+            if(count > countAfterWindow) {
+                mListener.onInserted(windowEnd, count - countAfterWindow);
+            } else if(count < countAfterWindow) {
+                mListener.onRemoved(windowEnd, countAfterWindow - count);
+            }
+
+            /*
+                the rows outside the window are placeholders now. Before it, only the rows of dropped
+                pages had ids of their own; the rest kept their positions, so kept their ids. After it,
+                positions have moved with the window's changes, so every row is replaced
+             */
+            for(int i = 0; i < droppedIds.size(); i++) {
+                int pageStart = droppedIds.keyAt(i) * PAGE_SIZE;
+                if(pageStart < windowStart) {
+                    replaceRows(pageStart, Math.min(droppedIds.valueAt(i).length, windowStart - pageStart));
+                }
+            }
+            replaceRows(windowEnd, count - windowEnd);
+        }
+
+        if(mRefreshPending) {
+            mRefreshPending = false;
+            refresh();
+            return;
+        }
+
+        //load anything that was asked for while the refresh was running
+        for(int i = 0; i < mRequestedWhileRefreshing.size(); i++) {
+            loadPage(mRequestedWhileRefreshing.keyAt(i));
+        }
+        mRequestedWhileRefreshing.clear();
+    }
+
+
+
+    //the loaded rows from firstPage to lastPage as one array, or null if any page in between isnt loaded
+    private Task[] loadedWindow(int firstPage, int lastPage) {
+        List<Task> window = new ArrayList<>();
+        for(int page = firstPage; page <= lastPage; page++) {
+            Task[] rows = mPages.get(page);
+            if(rows == null) {
+                return null;
+            }
+            for(Task task : rows) {
+                window.add(task);
+            }
+        }
+        return window.toArray(new Task[window.size()]);
+    }
+
+
+
+
+
+    /*
+        the following methods run on the background thread. They throw OperationCanceledException if
+        source's search is replaced while they're running
+     */
+
+
+    private int queryCount(Source source) {
+        Cursor cursor = mContentResolver.query(source.uri, new String[]{"COUNT(*)"}, null, null, null,
+                source.cancellationSignal);
+        if(cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+
+    /*
+        loads a page, plus one row to find where the next page starts. With a start key that's two
+        indexed queries, the second only if the rows with the same sort order run out. Without one, the
+        page is found by its offset
+     */
+    private Rows queryPage(Source source, int page, PageKey startKey) {
+        int wanted = PAGE_SIZE + 1;
+        if(startKey == null) {
+            return queryRows(source, AppProvider.withLimit(source.uri, page * PAGE_SIZE, wanted), null, null);
+        }
+
+        String sortOrder = Integer.toString(startKey.sortOrder);
+        Rows rows = queryRows(source, AppProvider.withLimit(TasksContract.CONTENT_URI, 0, wanted),
+                SAME_SORT_ORDER_SELECTION,
+                new String[]{sortOrder, startKey.name, startKey.name, Long.toString(startKey.id)});
+        if(rows.size() < wanted) {
+            rows.addAll(queryRows(source, AppProvider.withLimit(TasksContract.CONTENT_URI, 0, wanted - rows.size()),
+                    HIGHER_SORT_ORDER_SELECTION,
+                    new String[]{sortOrder}));
+        }
+        return rows;
+    }
+
+
+
+    private Rows queryRows(Source source, Uri uri, String selection, String[] selectionArgs) {
+        Rows rows = new Rows();
+        Cursor cursor = mContentResolver.query(uri, PROJECTION, selection, selectionArgs, source.sortOrder,
+                source.cancellationSignal);
+        if(cursor == null) {
+            return rows;
+        }
+        try {
+            int idColumn = cursor.getColumnIndex(TasksContract.Columns._ID);
+            int nameColumn = cursor.getColumnIndex(TasksContract.Columns.TASKS_NAME);
+            int descriptionColumn = cursor.getColumnIndex(TasksContract.Columns.TASKS_DESCRIPTION);
+            int sortOrderColumn = cursor.getColumnIndex(TasksContract.Columns.TASKS_SORTORDER);
+            while(cursor.moveToNext()) {
+                rows.add(new Task(cursor.getLong(idColumn),
+                                cursor.getString(nameColumn),
+                                cursor.getString(descriptionColumn),
+                                cursor.getInt(sortOrderColumn)),
+                        cursor.isNull(sortOrderColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+
+
+
+
+    /*
+        where rows are read from, and the signal that cancels the queries reading them. The signal is
+        replaced whenever queries are cancelled, since a cancelled signal cant be used again
+     */
+    private static class Source {
+        final String search;
+        final Uri uri;
+        final String sortOrder;
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+
+        Source(String search) {
+            this.search = search;
+            if(search == null) {
+                uri = TasksContract.CONTENT_URI;
+                sortOrder = SORT_ORDER;
+            } else {
+                //the provider puts search results in ranked order
+                uri = TasksContract.buildSearchUri(search);
+                sortOrder = null;
+            }
+        }
+
+        boolean isSearch() {
+            return search != null;
+        }
+    }
+
+
+
+    //the sort key of a row, where a page starts
+    private static class PageKey {
+        final int sortOrder;
+        final String name;
+        final long id;
+
+        PageKey(Task task) {
+            sortOrder = task.getSortOrder();
+            name = task.getName();
+            id = task.getId();
+        }
+    }
+
+
+
+    /*
+        rows read by a query. A row with no sort order sorts before every other row, but = and > never
+        match NULL, so keyset queries would skip it. If any row has no sort order, none of the start keys
+        from these rows are used, and the pages around them are found by offset instead
+     */
+    private static class Rows {
+        Task[] tasks = new Task[PAGE_SIZE + 1];
+        private int mSize = 0;
+        private boolean mHasNullSortOrder = false;
+
+        void add(Task task, boolean nullSortOrder) {
+            if(mSize == tasks.length) {
+                Task[] grown = new Task[tasks.length * 2];
+                System.arraycopy(tasks, 0, grown, 0, mSize);
+                tasks = grown;
+            }
+            tasks[mSize++] = task;
+            mHasNullSortOrder |= nullSortOrder;
+        }
+
+        void addAll(Rows rows) {
+            for(int i = 0; i < rows.mSize; i++) {
+                add(rows.tasks[i], false);
+            }
+            mHasNullSortOrder |= rows.mHasNullSortOrder;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        Task[] toArray(int from, int to) {
+            Task[] result = new Task[to - from];
+            System.arraycopy(tasks, from, result, 0, to - from);
+            return result;
+        }
+
+        //records the start key of every page that begins within these rows, the first being firstPage
+        void saveStartKeys(SparseArray<PageKey> startKeys, int firstPage) {
+            if(mHasNullSortOrder) {
+                return;
+            }
+            for(int i = 0; i < mSize; i += PAGE_SIZE) {
+                startKeys.put(firstPage + i / PAGE_SIZE, new PageKey(tasks[i]));
+            }
+        }
+    }
+
+
+
+    //moves the positions of a diff over the loaded window to positions in the whole list
+    private static class OffsetListUpdateCallback implements ListUpdateCallback {
+        private final ListUpdateCallback mCallback;
+        private final int mOffset;
+
+        OffsetListUpdateCallback(ListUpdateCallback callback, int offset) {
+            mCallback = callback;
+            mOffset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            mCallback.onInserted(position + mOffset, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mCallback.onRemoved(position + mOffset, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mCallback.onMoved(fromPosition + mOffset, toPosition + mOffset);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            mCallback.onChanged(position + mOffset, count, payload);
+        }
+    }
+}
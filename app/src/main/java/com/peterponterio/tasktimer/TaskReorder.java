@@ -0,0 +1,321 @@
+package com.peterponterio.tasktimer;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Created by peterponterio on 4/10/18.
+ *
+ * Moves a task to a new place in the task list by giving it a sort order between those of its new
+ * neighbours, and spreads the sort orders back out when there's no room left between them
+ *
+ * the only class that should use this is {@link AppProvider}
+ */
+
+/*
+    the list is in (SortOrder, Name, _id) order, and sort orders are whatever was typed in, so they're
+    usually 1, 2, 3... or all the same. Moving a task between two of those means renumbering every row
+    after it. Here a moved task gets the sort order half way between the task it's moved after and the
+    one that follows that, so a move is an update of one row, as long as there's a gap between the two.
+
+    sort orders can also be typed in on the edit screen, so a rebalance only renumbers the crowded
+    part of the list, not the whole of it. It starts at one task and widens the range of rows around it
+    until the sort orders of the two rows either side of the range leave at least MIN_GAP between every
+    row in it, then spreads the rows in the range evenly between those two. Every other row keeps the
+    sort order it had, typed in or not. At the top of the list the range can go down to 0, and at the
+    bottom up to GAP past the last row, so sort orders never go negative. Rows without a sort order sort
+    first, and are always in the range.
+
+    a move that finds no gap (two tasks with the same sort order, or next to each other) rebalances
+    around the place it's moving to first, in the same transaction, then moves. A move that uses up the
+    last of a gap says so in Move.crowded, and the provider rebalances around the task in the background,
+    so the next move into that spot doesnt have to.
+
+    sort orders are still just the SortOrder column, so the (SortOrder, Name) index, the list's paging
+    and its saved first page all work as they did. A sort order typed in on the edit screen still puts
+    the task where it would have gone before
+ */
+class TaskReorder {
+    private static final String TAG = "TaskReorder";
+
+    //the distance between sort orders when a rebalance reaches the end of the list
+    static final int GAP = 1024;
+
+    //a rebalance leaves at least this much between the rows it renumbers, so six more moves fit anywhere in them
+    static final int MIN_GAP = 64;
+
+    private static final String[] KEY_COLUMNS = {TasksContract.Columns._ID, TasksContract.Columns.TASKS_NAME,
+            TasksContract.Columns.TASKS_SORTORDER};
+
+    //the same split as TaskPager's, so the rows after a task are found by seeking in the index
+    private static final String SAME_SORT_ORDER_SELECTION = TasksContract.Columns.TASKS_SORTORDER + " = ? AND "
+            + TasksContract.Columns.TASKS_NAME + " COLLATE NOCASE >= ? AND ("
+            + TasksContract.Columns.TASKS_NAME + " COLLATE NOCASE > ? OR "
+            + TasksContract.Columns._ID + " > ?) AND "
+            + TasksContract.Columns._ID + " != ?";
+    private static final String HIGHER_SORT_ORDER_SELECTION = TasksContract.Columns.TASKS_SORTORDER + " > ? AND "
+            + TasksContract.Columns._ID + " != ?";
+    private static final String OTHER_TASK_SELECTION = TasksContract.Columns._ID + " != ?";
+
+    private static final String UPDATE_SORT_ORDER = "UPDATE " + TasksContract.TABLE_NAME
+            + " SET " + TasksContract.Columns.TASKS_SORTORDER + " = ? WHERE " + TableStatements.ID_SELECTION;
+
+
+    //what a move did
+    static class Move {
+        //the task's new sort order
+        final int sortOrder;
+        //true if part of the list had to be rebalanced first
+        final boolean rebalanced;
+        //true if there's no room left next to the task for another move
+        final boolean crowded;
+
+        Move(int sortOrder, boolean rebalanced, boolean crowded) {
+            this.sortOrder = sortOrder;
+            this.rebalanced = rebalanced;
+            this.crowded = crowded;
+        }
+    }
+
+
+    //a row's place in the list. sortOrder is null for a task that doesnt have one
+    private static class Key {
+        final long id;
+        final String name;
+        final Long sortOrder;
+
+        Key(long id, String name, Long sortOrder) {
+            this.id = id;
+            this.name = name;
+            this.sortOrder = sortOrder;
+        }
+    }
+
+
+
+    private TaskReorder() {
+        //only static methods
+    }
+
+
+
+    /*
+        moves the task taskId to just after afterTaskId in the list, or to the top if afterTaskId is 0.
+        Returns null if there's no task taskId. Should be called inside a transaction, since the
+        neighbours it reads mustnt change before the move is written
+     */
+    static Move move(SQLiteDatabase db, long taskId, long afterTaskId) {
+        if(taskId == afterTaskId) {
+            throw new IllegalArgumentException("task " + taskId + " cant be moved after itself");
+        }
+        if(readKey(db, taskId) == null) {
+            return null;
+        }
+
+        boolean rebalanced = false;
+        while(true) {
+            Key before = null;
+            if(afterTaskId != 0) {
+                before = readKey(db, afterTaskId);
+                if(before == null) {
+                    throw new IllegalArgumentException("no task " + afterTaskId + " to move task " + taskId + " after");
+                }
+            }
+
+            //a task without a sort order has no room next to it, so the list is rebalanced
+            if((before == null) || (before.sortOrder != null)) {
+                Key after = (before == null) ? firstKey(db, taskId) : keyAfter(db, before, taskId);
+                if((after == null) || (after.sortOrder != null)) {
+                    long low;
+                    long high;
+                    if((before == null) && (after == null)) {
+                        //the only task
+                        low = 0;
+                        high = 2L * GAP;
+                    } else if(before != null) {
+                        low = before.sortOrder;
+                        high = (after != null) ? after.sortOrder : before.sortOrder + 2L * GAP;
+                    } else {
+                        //the top of the list. Sort orders arent negative unless one was already
+                        low = (after.sortOrder >= 0) ? Math.max(0, after.sortOrder - 2L * GAP) : after.sortOrder - 2L * GAP;
+                        high = after.sortOrder;
+                    }
+
+                    long sortOrder = low + (high - low) / 2;
+                    if((sortOrder > low) && (sortOrder < high)
+                            && (sortOrder >= Integer.MIN_VALUE) && (sortOrder <= Integer.MAX_VALUE)) {
+                        writeSortOrder(db, taskId, (int) sortOrder);
+                        boolean crowded = (sortOrder - low < 2) || (high - sortOrder < 2);
+                        return new Move((int) sortOrder, rebalanced, crowded);
+                    }
+                }
+            }
+
+            if(rebalanced) {
+                //cant happen, a rebalanced list always has a gap
+                throw new IllegalStateException("no room to move task " + taskId);
+            }
+            rebalance(db, afterTaskId);
+            rebalanced = true;
+        }
+    }
+
+
+
+    /*
+        renumbers the crowded rows around the task taskId, or around the top of the list if taskId is 0,
+        keeping the order they're in now. Only the rows whose sort order changes are written, and the
+        number of those is returned; 0 if there's no task taskId. Should be called inside a transaction,
+        so the list is never seen half rebalanced
+     */
+    static int rebalance(SQLiteDatabase db, long taskId) {
+        /*
+            the whole list is read, since the range can reach anywhere in it. Reading is cheap next to
+            writing, and everything has to be read first anyway; rows are being moved around the index
+            the cursor would be reading
+         */
+        long[] ids;
+        long[] sortOrders;
+        int nullCount = 0;
+        Cursor cursor = db.query(TasksContract.TABLE_NAME,
+                new String[]{TasksContract.Columns._ID, TasksContract.Columns.TASKS_SORTORDER},
+                null, null, null, null, TaskPager.SORT_ORDER);
+        try {
+            int count = cursor.getCount();
+            ids = new long[count];
+            sortOrders = new long[count];
+            for(int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+                sortOrders[i] = cursor.getLong(1);
+                if(cursor.isNull(1)) {
+                    nullCount = i + 1;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int center = -1;
+        if(taskId == 0) {
+            center = 0;
+        } else {
+            for(int i = 0; i < ids.length; i++) {
+                if(ids[i] == taskId) {
+                    center = i;
+                    break;
+                }
+            }
+        }
+        if((center < 0) || (ids.length == 0)) {
+            return 0;
+        }
+
+        //the range is from first to last, and rows without a sort order sort first so they're always in it
+        int first = (nullCount > 0) ? 0 : center;
+        int last = Math.max(center, nullCount - 1);
+        long low;
+        long spacing;
+        while(true) {
+            int count = last - first + 1;
+            boolean atTop = (first == 0);
+            boolean atBottom = (last == ids.length - 1);
+            if(atTop && atBottom) {
+                //the whole list. Sort orders are read back as ints, so they all have to fit in one
+                low = 0;
+                spacing = Math.min(GAP, Integer.MAX_VALUE / (count + 1L));
+                if(spacing < 2) {
+                    throw new IllegalStateException("too many tasks to rebalance: " + count);
+                }
+                break;
+            }
+
+            low = atTop ? 0 : sortOrders[first - 1];
+            long high = atBottom ? Math.min(Integer.MAX_VALUE, low + (count + 1L) * GAP) : sortOrders[last + 1];
+            spacing = (high - low) / (count + 1);
+            if(spacing >= MIN_GAP) {
+                break;
+            }
+
+            //not enough room, so take in a row on each side
+            if(!atTop) {
+                first--;
+            }
+            if(!atBottom) {
+                last++;
+            }
+        }
+
+        int written = 0;
+        SQLiteStatement statement = db.compileStatement(UPDATE_SORT_ORDER);
+        try {
+            for(int i = first; i <= last; i++) {
+                long sortOrder = low + (i - first + 1) * spacing;
+                if((i < nullCount) || (sortOrders[i] != sortOrder)) {
+                    statement.bindLong(1, sortOrder);
+                    statement.bindLong(2, ids[i]);
+                    statement.executeUpdateDelete();
+                    written++;
+                }
+            }
+        } finally {
+            statement.close();
+        }
+        return written;
+    }
+
+
+
+    private static void writeSortOrder(SQLiteDatabase db, long taskId, int sortOrder) {
+        SQLiteStatement statement = db.compileStatement(UPDATE_SORT_ORDER);
+        try {
+            statement.bindLong(1, sortOrder);
+            statement.bindLong(2, taskId);
+            statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+
+
+    private static Key readKey(SQLiteDatabase db, long taskId) {
+        return queryKey(db, TableStatements.ID_SELECTION, new String[]{Long.toString(taskId)});
+    }
+
+
+
+    //the first task in the list, other than the one being moved
+    private static Key firstKey(SQLiteDatabase db, long movingId) {
+        return queryKey(db, OTHER_TASK_SELECTION, new String[]{Long.toString(movingId)});
+    }
+
+
+
+    //the task that comes after before in the list, other than the one being moved
+    private static Key keyAfter(SQLiteDatabase db, Key before, long movingId) {
+        String sortOrder = Long.toString(before.sortOrder);
+        String moving = Long.toString(movingId);
+        Key key = queryKey(db, SAME_SORT_ORDER_SELECTION,
+                new String[]{sortOrder, before.name, before.name, Long.toString(before.id), moving});
+        if(key == null) {
+            key = queryKey(db, HIGHER_SORT_ORDER_SELECTION, new String[]{sortOrder, moving});
+        }
+        return key;
+    }
+
+
+
+    private static Key queryKey(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(TasksContract.TABLE_NAME, KEY_COLUMNS, selection, selectionArgs,
+                null, null, TaskPager.SORT_ORDER, "1");
+        try {
+            if(!cursor.moveToFirst()) {
+                return null;
+            }
+            return new Key(cursor.getLong(0), cursor.getString(1), cursor.isNull(2) ? null : cursor.getLong(2));
+        } finally {
+            cursor.close();
+        }
+    }
+}
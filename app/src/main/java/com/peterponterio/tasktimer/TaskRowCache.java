@@ -0,0 +1,214 @@
+package com.peterponterio.tasktimer;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.LruCache;
+
+/**
+ * Created by peterponterio on 4/1/18.
+ *
+ * The most recently read task rows, so {@link AppProvider} can answer a query for a single task
+ * without going to the database. Tasks change far less often than they're read; the edit screen and
+ * the timer read the same few again and again.
+ *
+ * Rows are removed whenever the provider writes to the tasks table. A read that started before a
+ * write finished could still have the old row, so every write also moves the generation on, and a
+ * row read under an older generation isn't kept
+ *
+ * the only class that should use this is {@link AppProvider}
+ */
+
+class TaskRowCache {
+    private static final String TAG = "TaskRowCache";
+
+    //number of rows kept. A row is a few short strings, so this is only a few kilobytes
+    static final int MAX_ROWS = 64;
+
+    //every row is read with all of these, so it can answer a query for any of them
+    private static final String[] COLUMNS = {TasksContract.Columns._ID, TasksContract.Columns.TASKS_NAME,
+            TasksContract.Columns.TASKS_DESCRIPTION, TasksContract.Columns.TASKS_SORTORDER};
+
+    //LruCache keeps its own hit, miss and eviction counts
+    private final LruCache<Long, Object[]> mRows = new LruCache<>(MAX_ROWS);
+
+    //guarded by mRows' lock
+    private long mGeneration = 0;
+
+    /*
+        number of rows forgotten by invalidateAll, guarded by mRows' lock. LruCache counts the rows
+        evictAll drops as evictions, so these are taken off its count to leave only the rows dropped
+        to make room
+     */
+    private int mClearedCount = 0;
+
+
+
+    /*
+        returns a cursor holding the projection's columns for the task with id taskId, from the cache
+        or read from db and added to the cache. The cursor is empty if there's no such task.
+
+        returns null if the projection asks for something that isnt a column of the tasks table, in
+        which case the caller has to run the query itself
+     */
+    Cursor query(SQLiteDatabase db, long taskId, String[] projection) {
+        int[] columns = columnIndexes(projection);
+        if(columns == null) {
+            return null;
+        }
+
+        Object[] row = mRows.get(taskId);
+        if(row == null) {
+            long generation;
+            synchronized (mRows) {
+                generation = mGeneration;
+            }
+
+            row = load(db, taskId);
+            if(row != null) {
+                synchronized (mRows) {
+                    if(generation == mGeneration) {
+                        mRows.put(taskId, row);
+                    }
+                }
+            }
+        }
+
+        String[] names = new String[columns.length];
+        for(int i = 0; i < columns.length; i++) {
+            names[i] = COLUMNS[columns[i]];
+        }
+        MatrixCursor cursor = new MatrixCursor(names, 1);
+        if(row != null) {
+            Object[] values = new Object[columns.length];
+            for(int i = 0; i < columns.length; i++) {
+                values[i] = row[columns[i]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+
+
+    //forgets the task with id taskId, after it has been written to
+    void invalidate(long taskId) {
+        synchronized (mRows) {
+            mGeneration++;
+            mRows.remove(taskId);
+        }
+    }
+
+
+
+    //forgets every task, after a write that could have changed any of them
+    void invalidateAll() {
+        synchronized (mRows) {
+            mGeneration++;
+            mClearedCount += mRows.size();
+            mRows.evictAll();
+        }
+    }
+
+
+
+    /*
+        the index in COLUMNS of each column in projection, or null if any of them isnt in COLUMNS.
+        A null projection means every column
+     */
+    private static int[] columnIndexes(String[] projection) {
+        if(projection == null) {
+            return new int[]{0, 1, 2, 3};
+        }
+
+        int[] indexes = new int[projection.length];
+        for(int i = 0; i < projection.length; i++) {
+            indexes[i] = -1;
+            for(int c = 0; c < COLUMNS.length; c++) {
+                if(COLUMNS[c].equals(projection[i])) {
+                    indexes[i] = c;
+                    break;
+                }
+            }
+            if(indexes[i] < 0) {
+                return null;
+            }
+        }
+        return indexes;
+    }
+
+
+
+    //reads the task's row, with each value the type SQLite stored it as, or returns null if there's no such task
+    private static Object[] load(SQLiteDatabase db, long taskId) {
+        Cursor cursor = db.query(TasksContract.TABLE_NAME, COLUMNS, TableStatements.ID_SELECTION,
+                new String[]{Long.toString(taskId)}, null, null, null);
+        try {
+            if(!cursor.moveToFirst()) {
+                return null;
+            }
+
+            Object[] row = new Object[COLUMNS.length];
+            for(int i = 0; i < COLUMNS.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        row[i] = cursor.getString(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[i] = cursor.getBlob(i);
+                        break;
+                    default:
+                        row[i] = null;
+                        break;
+                }
+            }
+            return row;
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+
+    //number of queries answered from the cache
+    int getHitCount() {
+        return mRows.hitCount();
+    }
+
+    //number of queries that had to read the row from the database
+    int getMissCount() {
+        return mRows.missCount();
+    }
+
+    //number of rows dropped to make room for others
+    int getEvictionCount() {
+        synchronized (mRows) {
+            return mRows.evictionCount() - mClearedCount;
+        }
+    }
+
+    //number of rows forgotten by invalidateAll
+    int getClearCount() {
+        synchronized (mRows) {
+            return mClearedCount;
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return TAG + "{" +
+                "size=" + mRows.size() +
+                ", hits=" + mRows.hitCount() +
+                ", misses=" + mRows.missCount() +
+                ", evictions=" + getEvictionCount() +
+                ", cleared=" + getClearCount() +
+                '}';
+    }
+}
@@ -0,0 +1,119 @@
+package com.peterponterio.tasktimer;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.CancellationSignal;
+
+/**
+ * Created by peterponterio on 4/4/18.
+ *
+ * Searches the tasks' names and descriptions through the full-text index that {@link AppDatabase}
+ * keeps in the TasksSearch table
+ *
+ * the only class that should use this is {@link AppProvider}
+ */
+
+class TaskSearch {
+    private static final String TAG = "TaskSearch";
+
+    //1 for a task whose name matches the search, 0 for one where only the description does
+    private static final String NAME_HIT = "NameHit";
+
+    /*
+        the tasks joined to the ids of the matching rows of the index. Both placeholders are the match
+        expression: the outer one finds every match, the inner one the tasks whose name matches. The
+        inner query doesnt depend on the row, so SQLite runs it once and keeps its ids in a temporary
+        table, rather than running it for each match
+     */
+    private static final String TABLES = TasksContract.TABLE_NAME + " INNER JOIN (SELECT docid, "
+            + "(docid IN (SELECT docid FROM " + AppDatabase.TASKS_SEARCH_TABLE
+            + " WHERE " + TasksContract.Columns.TASKS_NAME + " MATCH ?)) AS " + NAME_HIT
+            + " FROM " + AppDatabase.TASKS_SEARCH_TABLE + " WHERE " + AppDatabase.TASKS_SEARCH_TABLE + " MATCH ?)"
+            + " AS Hits ON " + TasksContract.TABLE_NAME + "." + TasksContract.Columns._ID + " = Hits.docid";
+
+    //name matches first, then in the same order as the task list
+    static final String SORT_ORDER = NAME_HIT + " DESC, " + TaskPager.SORT_ORDER;
+
+
+    private TaskSearch() {
+        //only static methods
+    }
+
+
+
+    /*
+        runs a search for text. projection, selection and sortOrder work as they do for a query on the
+        tasks table, and a null sortOrder gives the ranked order. cancellationSignal can be null. If text
+        has no words in it, the result is an empty cursor
+     */
+    static Cursor query(SQLiteDatabase db, String text, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder, String limit,
+                        CancellationSignal cancellationSignal, SQLiteDatabase.CursorFactory factory) {
+        if(projection == null) {
+            projection = TaskPager.PROJECTION;
+        }
+
+        String match = matchExpression(text);
+        if(match == null) {
+            return new MatrixCursor(projection, 0);
+        }
+
+        int extra = (selectionArgs != null) ? selectionArgs.length : 0;
+        String[] args = new String[extra + 2];
+        args[0] = match;
+        args[1] = match;
+        if(extra > 0) {
+            System.arraycopy(selectionArgs, 0, args, 2, extra);
+        }
+
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables(TABLES);
+        if(factory != null) {
+            queryBuilder.setCursorFactory(factory);
+        }
+        return queryBuilder.query(db, projection, selection, args, null, null,
+                (sortOrder != null) ? sortOrder : SORT_ORDER, limit, cancellationSignal);
+    }
+
+
+
+    /*
+        turns what the user typed into an FTS match expression, or null if there are no words in it.
+        Each word becomes a prefix search (so the results narrow as they type), and a task has to match
+        every word. Anything that isnt part of a word is dropped, which also drops FTS's own syntax
+        (quotes, brackets, minus signs) so typing them cant make the query fail.
+
+        the index's tokenizer counts letters and digits, and any non-ASCII character, as part of a word,
+        and only folds ASCII letters to lower case, so this does the same. Folding also stops a typed
+        AND, OR or NOT being read as an operator
+     */
+    static String matchExpression(String text) {
+        if(text == null) {
+            return null;
+        }
+
+        StringBuilder match = new StringBuilder();
+        boolean inWord = false;
+        for(int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if((c >= 0x80) || Character.isLetterOrDigit(c)) {
+                if(!inWord && (match.length() > 0)) {
+                    match.append(' ');
+                }
+                match.append(((c >= 'A') && (c <= 'Z')) ? (char) (c + ('a' - 'A')) : c);
+                inWord = true;
+            } else {
+                if(inWord) {
+                    match.append('*');
+                }
+                inWord = false;
+            }
+        }
+        if(inWord) {
+            match.append('*');
+        }
+        return (match.length() > 0) ? match.toString() : null;
+    }
+}
@@ -2,6 +2,7 @@ package com.peterponterio.tasktimer;
 
 import android.content.ContentUris;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 
 import static com.peterponterio.tasktimer.AppProvider.CONTENT_AUTHORITY;
@@ -65,6 +66,51 @@ public class TasksContract {
 
 
 
+    /*
+        the uri to search the tasks' names and descriptions for text. The query returns the matching
+        tasks, those whose name matches first. Each word of text matches any word that starts with it
+     */
+    static final String SEARCH_PATH = "search";
+    static final String QUERY_PARAMETER_SEARCH = "q";
+
+    static Uri buildSearchUri(String text) {
+        return CONTENT_URI.buildUpon().appendPath(SEARCH_PATH)
+                .appendQueryParameter(QUERY_PARAMETER_SEARCH, text).build();
+    }
+
+
+
+    //returns the text a search uri is searching for
+    static String getSearchText(Uri uri) {
+        return uri.getQueryParameter(QUERY_PARAMETER_SEARCH);
+    }
+
+
+
+    /*
+        moves a task to just after another one in the list, with ContentResolver.call(CONTENT_URI,
+        METHOD_MOVE_TASK, null, buildMoveExtras(...)). The returned bundle has the task's new sort order
+        in EXTRA_SORT_ORDER, and is null if there's no such task. Usually only the moved task's row is
+        written
+
+        nothing in the app calls this yet. It's there for dragging rows around the list, which would
+        have to move the row in the TaskPager straight away too
+     */
+    static final String METHOD_MOVE_TASK = "moveTask";
+    static final String EXTRA_TASK_ID = "taskId";
+    static final String EXTRA_AFTER_TASK_ID = "afterTaskId";
+    static final String EXTRA_SORT_ORDER = "sortOrder";
+
+    //afterTaskId is 0 to move the task to the top of the list
+    static Bundle buildMoveExtras(long taskId, long afterTaskId) {
+        Bundle extras = new Bundle();
+        extras.putLong(EXTRA_TASK_ID, taskId);
+        extras.putLong(EXTRA_AFTER_TASK_ID, afterTaskId);
+        return extras;
+    }
+
+
+
 
 
 
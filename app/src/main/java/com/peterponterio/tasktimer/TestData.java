@@ -0,0 +1,235 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Created by peterponterio on 3/28/18.
+ *
+ * Generates tasks and timings so the list, the loaders and the durations report can be tried out with
+ * realistic amounts of data. Only reachable from the generate menu item, which is only shown in debug
+ * builds
+ */
+
+class TestData {
+    private static final String TAG = "TestData";
+
+    //the scale the generate menu item offers until it's been given another one
+    static final int DEFAULT_TASK_COUNT = 10000;
+    static final int DEFAULT_TIMING_COUNT = 5000000;
+
+    //the counts last asked for are kept here, so they're offered again next time
+    private static final String PREFERENCES = "TestData";
+    private static final String PREF_TASK_COUNT = "taskCount";
+    private static final String PREF_TIMING_COUNT = "timingCount";
+
+    /*
+        number of rows written per bulkInsert call. Each call is one transaction, so this is a trade off
+        between the number of syncs to disk and the amount of memory the ContentValues take up
+     */
+    private static final int TASK_BATCH_SIZE = 1000;
+    private static final int TIMING_BATCH_SIZE = 10000;
+
+    //timings are spread over this many days before now
+    private static final int HISTORY_DAYS = 365;
+
+    private static final String[] VERBS = {"Write", "Review", "Plan", "Test", "Fix", "Read", "Call", "Design",
+            "Clean", "Practice", "Study", "Build"};
+    private static final String[] NOUNS = {"report", "code", "garden", "budget", "guitar", "emails", "kitchen",
+            "presentation", "homework", "website", "invoices", "notes"};
+
+    //only one generator runs at a time. Set on the main thread, cleared when the generator finishes
+    private static final AtomicBoolean sRunning = new AtomicBoolean();
+
+
+
+    private TestData() {
+        //private constructor to prevent instantiation
+    }
+
+
+
+    /*
+        starts generating taskCount tasks and timingCount timings on a background thread. Shows a toast
+        with the number of rows written per second when it's done
+     */
+    static void generate(Context context, int taskCount, int timingCount) {
+        if(!sRunning.compareAndSet(false, true)) {
+            Log.d(TAG, "generate: already running");
+            return;
+        }
+        preferences(context).edit()
+                .putInt(PREF_TASK_COUNT, taskCount)
+                .putInt(PREF_TIMING_COUNT, timingCount)
+                .apply();
+        new GenerateTask(context.getApplicationContext(), taskCount, timingCount).execute();
+    }
+
+
+
+
+
+    //the number of tasks last generated, or DEFAULT_TASK_COUNT
+    static int getTaskCount(Context context) {
+        return preferences(context).getInt(PREF_TASK_COUNT, DEFAULT_TASK_COUNT);
+    }
+
+
+
+    //the number of timings last generated, or DEFAULT_TIMING_COUNT
+    static int getTimingCount(Context context) {
+        return preferences(context).getInt(PREF_TIMING_COUNT, DEFAULT_TIMING_COUNT);
+    }
+
+
+
+    private static SharedPreferences preferences(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+
+
+
+
+    /*
+        holds the application context rather than an activity, so an activity that is destroyed while
+        the data is still being generated isnt leaked
+     */
+    private static class GenerateTask extends AsyncTask<Void, Void, String> {
+        private final Context mContext;
+        private final int mTaskCount;
+        private final int mTimingCount;
+
+        GenerateTask(Context context, int taskCount, int timingCount) {
+            mContext = context;
+            mTaskCount = taskCount;
+            mTimingCount = timingCount;
+        }
+
+
+        @Override
+        protected String doInBackground(Void... voids) {
+            ContentResolver contentResolver = mContext.getContentResolver();
+            Random random = new Random();
+
+            long startTime = SystemClock.elapsedRealtime();
+            insertTasks(contentResolver, random, mTaskCount);
+            long[] taskIds = queryTaskIds(contentResolver);
+            int timings = insertTimings(contentResolver, random, taskIds, mTimingCount);
+            long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+
+            int rows = mTaskCount + timings;
+            long rowsPerSecond = rows * 1000L / elapsed;
+            String result = mContext.getString(R.string.generate_done, rows, elapsed / 1000.0, rowsPerSecond);
+            Log.d(TAG, "doInBackground: " + result);
+            return result;
+        }
+
+
+        @Override
+        protected void onPostExecute(String result) {
+            sRunning.set(false);
+            Toast.makeText(mContext, result, Toast.LENGTH_LONG).show();
+        }
+    }
+
+
+
+
+
+    /*
+        tasks get a made up name and description. Sort orders are mostly low, because most users only
+        ever give a few tasks a sort order at all
+     */
+    private static void insertTasks(ContentResolver contentResolver, Random random, int count) {
+        int inserted = 0;
+        while(inserted < count) {
+            int batchSize = Math.min(TASK_BATCH_SIZE, count - inserted);
+            ContentValues[] batch = new ContentValues[batchSize];
+            for(int i = 0; i < batchSize; i++) {
+                String name = VERBS[random.nextInt(VERBS.length)] + " " + NOUNS[random.nextInt(NOUNS.length)]
+                        + " " + (inserted + i + 1);
+
+                ContentValues values = new ContentValues();
+                values.put(TasksContract.Columns.TASKS_NAME, name);
+                values.put(TasksContract.Columns.TASKS_DESCRIPTION, "Generated task " + (inserted + i + 1));
+                values.put(TasksContract.Columns.TASKS_SORTORDER, (int) (10 * random.nextDouble() * random.nextDouble()));
+                batch[i] = values;
+            }
+            contentResolver.bulkInsert(TasksContract.CONTENT_URI, batch);
+            inserted += batchSize;
+        }
+        Log.d(TAG, "insertTasks: inserted " + inserted);
+    }
+
+
+
+    private static long[] queryTaskIds(ContentResolver contentResolver) {
+        String[] projection = {TasksContract.Columns._ID};
+        Cursor cursor = contentResolver.query(TasksContract.CONTENT_URI, projection, null, null, null);
+        if(cursor == null) {
+            return new long[0];
+        }
+        try {
+            long[] ids = new long[cursor.getCount()];
+            int i = 0;
+            while(cursor.moveToNext()) {
+                ids[i++] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+
+    /*
+        a few tasks are timed far more often than the rest, so tasks are picked with a skew towards the
+        start of the list. Timings start during the day, at some point in the last HISTORY_DAYS days,
+        and their durations follow a log-normal distribution around half an hour, between a minute and
+        eight hours
+     */
+    private static int insertTimings(ContentResolver contentResolver, Random random, long[] taskIds, int count) {
+        if(taskIds.length == 0) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis() / 1000;
+        int inserted = 0;
+        while(inserted < count) {
+            int batchSize = Math.min(TIMING_BATCH_SIZE, count - inserted);
+            ContentValues[] batch = new ContentValues[batchSize];
+            for(int i = 0; i < batchSize; i++) {
+                double skew = random.nextDouble();
+                long taskId = taskIds[(int) (taskIds.length * skew * skew * skew)];
+
+                long day = now - (random.nextInt(HISTORY_DAYS) + 1) * DurationsContract.SECONDS_PER_DAY;
+                long startTime = day - (day % DurationsContract.SECONDS_PER_DAY) + 7 * 3600 + random.nextInt(14 * 3600);
+
+                long duration = Math.round(Math.exp(Math.log(1800) + random.nextGaussian()));
+                duration = Math.max(60, Math.min(8 * 3600, duration));
+
+                ContentValues values = new ContentValues();
+                values.put(TimingsContract.Columns.TIMINGS_TASK_ID, taskId);
+                values.put(TimingsContract.Columns.TIMINGS_START_TIME, startTime);
+                values.put(TimingsContract.Columns.TIMINGS_DURATION, duration);
+                batch[i] = values;
+            }
+            contentResolver.bulkInsert(TimingsContract.CONTENT_URI, batch);
+            inserted += batchSize;
+            Log.d(TAG, "insertTimings: inserted " + inserted + " of " + count);
+        }
+        return inserted;
+    }
+}
@@ -0,0 +1,484 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Created by peterponterio on 4/2/18.
+ *
+ * Times the task that's currently running. The running timing is only held in memory, and measured
+ * with SystemClock.elapsedRealtime, which keeps counting while the device sleeps and doesnt move when
+ * the user or the network changes the time. A row is only written to the timings table when the
+ * timing stops.
+ *
+ * While a timing runs, a checkpoint of it is saved every CHECKPOINT_INTERVAL_MILLIS. The checkpoint is
+ * a handful of values in SharedPreferences, not a database write, and it's saved from a Handler, so it
+ * never wakes the device up. If the process is killed the timing carries on from the checkpoint when
+ * the app starts again. If the device was restarted the timing is ended at the last checkpoint, so at
+ * most one interval is lost.
+ */
+
+class TimerEngine {
+    private static final String TAG = "TimerEngine";
+
+    static final long CHECKPOINT_INTERVAL_MILLIS = 60 * 1000;
+
+    /*
+        the time the device booted is worked out from the wall clock and elapsedRealtime. If that's
+        moved by more than this since the checkpoint, the device has been restarted in between (or the
+        clock changed a lot while the app wasnt running, which is treated the same way)
+     */
+    static final long BOOT_TOLERANCE_MILLIS = 60 * 1000;
+
+
+    //where the time comes from, so tests can move it
+    interface Clock {
+        long elapsedRealtime();
+        long currentTimeMillis();
+    }
+
+    //where checkpoints and finished timings go
+    interface Store {
+        void saveCheckpoint(Checkpoint checkpoint);
+        Checkpoint loadCheckpoint();
+        void clearCheckpoint();
+        void writeTiming(long taskId, long startTime, long duration);
+    }
+
+    //told when a timing starts or stops. taskId is 0 when nothing is being timed
+    interface Listener {
+        void onTimingChanged(long taskId, String taskName);
+    }
+
+
+
+    //everything needed to carry on, or finish, a timing after the process has been killed
+    static class Checkpoint {
+        final long taskId;
+        final String taskName;
+        final long startTime;           //wall clock, in seconds, as stored in the timings table
+        final long startElapsed;        //elapsedRealtime when the timing started
+        final long checkpointElapsed;   //elapsedRealtime when the checkpoint was saved
+        final long checkpointWall;      //wall clock, in milliseconds, when the checkpoint was saved
+
+        Checkpoint(long taskId, String taskName, long startTime, long startElapsed,
+                   long checkpointElapsed, long checkpointWall) {
+            this.taskId = taskId;
+            this.taskName = taskName;
+            this.startTime = startTime;
+            this.startElapsed = startElapsed;
+            this.checkpointElapsed = checkpointElapsed;
+            this.checkpointWall = checkpointWall;
+        }
+    }
+
+
+
+    private static TimerEngine sInstance = null;
+
+    private final Clock mClock;
+    private final Store mStore;
+    private final Handler mHandler;
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    //the running timing. mTaskId is 0 when nothing is being timed
+    private long mTaskId = 0;
+    private String mTaskName = null;
+    private long mStartTime;
+    private long mStartElapsed;
+
+    //whether recover has run yet. Until it has, any timing left by the last run is still in the store
+    private boolean mRecovered = false;
+
+
+    private final Runnable mCheckpointRunnable = new Runnable() {
+        @Override
+        public void run() {
+            checkpoint();
+        }
+    };
+
+    private final Runnable mNotifyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (TimerEngine.this) {
+                notifyListeners();
+            }
+        }
+    };
+
+
+
+    /*
+        the app's engine, which saves to SharedPreferences and the content provider. It picks up any
+        timing that was running when the process last died.
+
+        opening the journal replays it, and reading the checkpoint reads the preferences file, so both
+        are done on the store's thread rather than the caller's, which is usually the main thread. The
+        listeners are told about a recovered timing on the main thread once it's done. If a timing is
+        started or stopped before then, the engine recovers on the calling thread first
+     */
+    static synchronized TimerEngine getInstance(Context context) {
+        if(sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            final ProviderStore store = new ProviderStore(appContext);
+            final TimerEngine engine = new TimerEngine(new SystemClockSource(), store,
+                    new Handler(Looper.getMainLooper()));
+            ProviderStore.sExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    store.journal();
+                    engine.recover();
+                }
+            });
+            sInstance = engine;
+        }
+        return sInstance;
+    }
+
+
+
+    /*
+        handler runs the checkpoints. Tests pass null and call checkpoint themselves
+     */
+    TimerEngine(Clock clock, Store store, Handler handler) {
+        mClock = clock;
+        mStore = store;
+        mHandler = handler;
+    }
+
+
+
+    /*
+        starts timing a task. If a different task is being timed, that timing is stopped and written
+        first. Starting the task thats already being timed does nothing
+     */
+    synchronized void start(long taskId, String taskName) {
+        recover();
+        if(taskId == mTaskId) {
+            return;
+        }
+        finish();
+
+        mTaskId = taskId;
+        mTaskName = taskName;
+        mStartTime = mClock.currentTimeMillis() / 1000;
+        mStartElapsed = mClock.elapsedRealtime();
+        Log.d(TAG, "start: timing task " + taskId);
+
+        checkpoint();
+        notifyListeners();
+    }
+
+
+
+    //stops the running timing, if there is one, and writes it to the timings table
+    synchronized void stop() {
+        recover();
+        if(mTaskId == 0) {
+            return;
+        }
+        finish();
+        notifyListeners();
+    }
+
+
+
+    //starts timing task, or stops it if it's the task already being timed
+    synchronized void toggle(long taskId, String taskName) {
+        recover();
+        if(taskId == mTaskId) {
+            stop();
+        } else {
+            start(taskId, taskName);
+        }
+    }
+
+
+
+    /*
+        stops the running timing without writing it, if it's for taskId. Used when the task is deleted,
+        since its timings are deleted with it
+     */
+    synchronized void discard(long taskId) {
+        recover();
+        if((taskId == 0) || (taskId != mTaskId)) {
+            return;
+        }
+        Log.d(TAG, "discard: task " + taskId + " deleted while being timed");
+        clear();
+        notifyListeners();
+    }
+
+
+
+    /*
+        saves a checkpoint of the running timing, and schedules the next one. Called every
+        CHECKPOINT_INTERVAL_MILLIS while a timing is running, and whenever the app goes into the
+        background
+     */
+    synchronized void checkpoint() {
+        if(mHandler != null) {
+            mHandler.removeCallbacks(mCheckpointRunnable);
+        }
+        if(mTaskId == 0) {
+            return;
+        }
+
+        mStore.saveCheckpoint(new Checkpoint(mTaskId, mTaskName, mStartTime, mStartElapsed,
+                mClock.elapsedRealtime(), mClock.currentTimeMillis()));
+        if(mHandler != null) {
+            mHandler.postDelayed(mCheckpointRunnable, CHECKPOINT_INTERVAL_MILLIS);
+        }
+    }
+
+
+
+    /*
+        picks up the timing from the last checkpoint, if the process died while one was running.
+        elapsedRealtime keeps counting until the device is restarted, so if it hasnt been the timing
+        just carries on. If it has, the timing is written with the duration it had at the checkpoint.
+        Only the first call does anything
+     */
+    synchronized void recover() {
+        if(mRecovered) {
+            return;
+        }
+        mRecovered = true;
+
+        Checkpoint checkpoint = mStore.loadCheckpoint();
+        if((checkpoint == null) || (mTaskId != 0)) {
+            return;
+        }
+
+        long nowElapsed = mClock.elapsedRealtime();
+        long bootNow = mClock.currentTimeMillis() - nowElapsed;
+        long bootThen = checkpoint.checkpointWall - checkpoint.checkpointElapsed;
+        boolean sameBoot = (nowElapsed >= checkpoint.checkpointElapsed)
+                && (Math.abs(bootNow - bootThen) <= BOOT_TOLERANCE_MILLIS);
+
+        if(sameBoot) {
+            Log.d(TAG, "recover: carrying on timing task " + checkpoint.taskId);
+            mTaskId = checkpoint.taskId;
+            mTaskName = checkpoint.taskName;
+            mStartTime = checkpoint.startTime;
+            mStartElapsed = checkpoint.startElapsed;
+            checkpoint();
+        } else {
+            long duration = (checkpoint.checkpointElapsed - checkpoint.startElapsed) / 1000;
+            Log.d(TAG, "recover: device restarted, ending timing of task " + checkpoint.taskId + " at " + duration + "s");
+            mStore.clearCheckpoint();
+            if(duration > 0) {
+                mStore.writeTiming(checkpoint.taskId, checkpoint.startTime, duration);
+            }
+        }
+
+        //getInstance recovers in the background, but listeners are still told on the handler's thread
+        if((mHandler != null) && (Looper.myLooper() != mHandler.getLooper())) {
+            mHandler.post(mNotifyRunnable);
+        } else {
+            notifyListeners();
+        }
+    }
+
+
+
+    //the task being timed, or 0
+    synchronized long getTaskId() {
+        return mTaskId;
+    }
+
+    synchronized String getTaskName() {
+        return mTaskName;
+    }
+
+    //how long the running timing has been going, in milliseconds, or 0 if nothing is being timed
+    synchronized long getElapsedMillis() {
+        return (mTaskId == 0) ? 0 : mClock.elapsedRealtime() - mStartElapsed;
+    }
+
+
+
+    /*
+        listeners are called on the thread that started or stopped the timing, and on the handler's
+        thread when a timing is recovered
+     */
+    synchronized void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    synchronized void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+
+
+    //writes the running timing, if there is one, and forgets it
+    private void finish() {
+        if(mTaskId == 0) {
+            return;
+        }
+
+        long duration = (mClock.elapsedRealtime() - mStartElapsed) / 1000;
+        Log.d(TAG, "finish: task " + mTaskId + " timed for " + duration + "s");
+        if(duration > 0) {
+            mStore.writeTiming(mTaskId, mStartTime, duration);
+        }
+        clear();
+    }
+
+
+    private void clear() {
+        mTaskId = 0;
+        mTaskName = null;
+        mStore.clearCheckpoint();
+        if(mHandler != null) {
+            mHandler.removeCallbacks(mCheckpointRunnable);
+        }
+    }
+
+
+    private void notifyListeners() {
+        for(Listener listener : new ArrayList<>(mListeners)) {
+            listener.onTimingChanged(mTaskId, mTaskName);
+        }
+    }
+
+
+
+
+
+    private static class SystemClockSource implements Clock {
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    }
+
+
+
+
+
+    /*
+        checkpoints go in SharedPreferences, with apply(), which returns straight away and writes the
+        file in the background. Finished timings are appended to a {@link TimingJournal}, which drains
+        them into the timings table through the content provider, so a stopped timing is safe as soon
+        as writeTiming returns, even if the process dies before it reaches the database.
+
+        the journal is opened the first time it's needed, normally on sExecutor straight after the store
+        is made. If it cant be opened, timings are inserted on sExecutor instead
+     */
+    private static class ProviderStore implements Store {
+        private static final String PREFERENCES = "TimerEngine";
+        private static final String KEY_TASK_ID = "TaskId";
+        private static final String KEY_TASK_NAME = "TaskName";
+        private static final String KEY_START_TIME = "StartTime";
+        private static final String KEY_START_ELAPSED = "StartElapsed";
+        private static final String KEY_CHECKPOINT_ELAPSED = "CheckpointElapsed";
+        private static final String KEY_CHECKPOINT_WALL = "CheckpointWall";
+
+        static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+        private final SharedPreferences mPreferences;
+        private final ContentResolver mContentResolver;
+        private final Context mContext;
+
+        //guarded by this
+        private TimingJournal mJournal = null;
+        private boolean mJournalOpened = false;
+
+        ProviderStore(Context context) {
+            mPreferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+            mContentResolver = context.getContentResolver();
+            mContext = context;
+        }
+
+        /*
+            the journal, opened the first time this is called. Opening it replays any timings the last
+            run didnt get to drain. Returns null if it cant be opened
+         */
+        synchronized TimingJournal journal() {
+            if(!mJournalOpened) {
+                mJournalOpened = true;
+                try {
+                    mJournal = TimingJournal.open(mContext.getFilesDir(), mContentResolver, TimingJournal.SyncPolicy.NEVER);
+                } catch (IOException e) {
+                    Log.e(TAG, "ProviderStore: cant open the timing journal", e);
+                }
+            }
+            return mJournal;
+        }
+
+        @Override
+        public void saveCheckpoint(Checkpoint checkpoint) {
+            mPreferences.edit()
+                    .putLong(KEY_TASK_ID, checkpoint.taskId)
+                    .putString(KEY_TASK_NAME, checkpoint.taskName)
+                    .putLong(KEY_START_TIME, checkpoint.startTime)
+                    .putLong(KEY_START_ELAPSED, checkpoint.startElapsed)
+                    .putLong(KEY_CHECKPOINT_ELAPSED, checkpoint.checkpointElapsed)
+                    .putLong(KEY_CHECKPOINT_WALL, checkpoint.checkpointWall)
+                    .apply();
+        }
+
+        @Override
+        public Checkpoint loadCheckpoint() {
+            long taskId = mPreferences.getLong(KEY_TASK_ID, 0);
+            if(taskId == 0) {
+                return null;
+            }
+            return new Checkpoint(taskId,
+                    mPreferences.getString(KEY_TASK_NAME, null),
+                    mPreferences.getLong(KEY_START_TIME, 0),
+                    mPreferences.getLong(KEY_START_ELAPSED, 0),
+                    mPreferences.getLong(KEY_CHECKPOINT_ELAPSED, 0),
+                    mPreferences.getLong(KEY_CHECKPOINT_WALL, 0));
+        }
+
+        @Override
+        public void clearCheckpoint() {
+            mPreferences.edit().clear().apply();
+        }
+
+        @Override
+        public void writeTiming(long taskId, long startTime, long duration) {
+            TimingJournal journal = journal();
+            if(journal != null) {
+                try {
+                    journal.append(taskId, startTime, duration);
+                    return;
+                } catch (IOException e) {
+                    Log.e(TAG, "writeTiming: cant append to the timing journal", e);
+                }
+            }
+
+            final ContentValues values = new ContentValues();
+            values.put(TimingsContract.Columns.TIMINGS_TASK_ID, taskId);
+            values.put(TimingsContract.Columns.TIMINGS_START_TIME, startTime);
+            values.put(TimingsContract.Columns.TIMINGS_DURATION, duration);
+            sExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mContentResolver.insert(TimingsContract.CONTENT_URI, values);
+                }
+            });
+        }
+    }
+}
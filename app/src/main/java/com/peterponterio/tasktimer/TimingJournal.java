@@ -0,0 +1,403 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Created by peterponterio on 4/3/18.
+ *
+ * An append-only file of finished timings, waiting to be written to the timings table. Adding a
+ * timing is one small write to the end of the file, which takes microseconds and doesnt depend on
+ * how busy the database is. A background thread drains the file into the timings table a batch at a
+ * time, with one bulkInsert (one transaction) per batch, and empties the file once it's all in.
+ *
+ * If the process dies before a timing has been drained, it's still in the file, and it's replayed
+ * the next time the journal is opened. Replayed timings that had actually made it into the table
+ * already are skipped, so nothing is inserted twice. Timings for a task that has been deleted since
+ * they were added are dropped, since the task's timings were deleted with it.
+ *
+ * Each record is a fixed 32 bytes: a marker, the task id, the start time, the duration, and a CRC32
+ * of the rest. A record that was only partly written when the process died fails its check, and it
+ * and anything after it are cut off.
+ */
+
+class TimingJournal {
+    private static final String TAG = "TimingJournal";
+
+    static final String FILE_NAME = "timings.journal";
+
+    private static final int MARKER = 0x544d4a31;    //"TMJ1"
+    static final int RECORD_SIZE = 32;
+    private static final int CHECKED_SIZE = RECORD_SIZE - 4;
+
+    //timings are drained this long after they're added, so a burst of them goes in together
+    static final long DRAIN_DELAY_MILLIS = 2000;
+    //and straight away once this many are waiting
+    static final int DRAIN_BATCH_SIZE = 500;
+
+
+    /*
+        when the file is flushed to the storage device. Once a write returns the record is in the
+        kernel's cache, so it survives the app being killed whatever the policy; syncing only matters
+        if the whole device loses power or crashes before the record is drained
+     */
+    enum SyncPolicy {
+        NEVER,      //leave it to the kernel. Adding a timing costs microseconds
+        ALWAYS      //sync after every record. Survives power loss, but each add waits for the storage
+    }
+
+
+    //where drained timings go
+    interface Target {
+        void insert(ContentValues[] timings);
+        //true if the timing is already in the table. Only asked about timings being replayed
+        boolean contains(long taskId, long startTime);
+        //true if the task is still in the tasks table. Asked once per task per batch
+        boolean taskExists(long taskId);
+    }
+
+
+    private final File mFile;
+    private final SyncPolicy mSyncPolicy;
+    private final Target mTarget;
+    private final long mDrainDelayMillis;
+
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+    //held for the whole of a drain, so two never overlap
+    private final Object mDrainLock = new Object();
+
+    /*
+        guards the file's contents: appends, and emptying the file after a drain. Drains read the
+        file and write to the database without holding it, so adding a timing never waits for SQLite
+     */
+    private final Object mLock = new Object();
+    private FileChannel mChannel;
+    private final ByteBuffer mRecord = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 mCrc = new CRC32();
+    private long mDrained = 0;                  //bytes at the start of the file already drained
+    private long mReplayEnd = 0;                //bytes at the start of the file being replayed
+    private ScheduledFuture<?> mScheduledDrain = null;
+
+    private final AtomicLong mAppended = new AtomicLong();
+    private final AtomicLong mDrainedCount = new AtomicLong();
+    private final AtomicLong mReplayed = new AtomicLong();
+    private final AtomicLong mSkipped = new AtomicLong();
+    private final AtomicLong mOrphaned = new AtomicLong();
+
+
+    /*
+        a drain that fails leaves whatever it didnt get to in the file, so it's tried again after the
+        usual delay. Anything thrown has to be caught here, or the executor would quietly drop it and
+        nothing would drain until another timing was added
+     */
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                drain();
+                return;
+            } catch (IOException e) {
+                Log.e(TAG, "drain: failed, will retry", e);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "drain: failed, will retry", e);
+            }
+
+            synchronized (mLock) {
+                if(!mExecutor.isShutdown() && (mScheduledDrain == null)) {
+                    scheduleDrain(mDrainDelayMillis);
+                }
+            }
+        }
+    };
+
+
+
+    //a journal that drains into the timings table through the content provider
+    static TimingJournal open(File directory, final ContentResolver contentResolver, SyncPolicy syncPolicy) throws IOException {
+        Target target = new Target() {
+            @Override
+            public void insert(ContentValues[] timings) {
+                contentResolver.bulkInsert(TimingsContract.CONTENT_URI, timings);
+            }
+
+            @Override
+            public boolean contains(long taskId, long startTime) {
+                Cursor cursor = contentResolver.query(TimingsContract.CONTENT_URI,
+                        new String[]{TimingsContract.Columns._ID},
+                        TimingsContract.Columns.TIMINGS_TASK_ID + " = ? AND " + TimingsContract.Columns.TIMINGS_START_TIME + " = ?",
+                        new String[]{Long.toString(taskId), Long.toString(startTime)}, null);
+                if(cursor == null) {
+                    return false;
+                }
+                try {
+                    return cursor.moveToFirst();
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            @Override
+            public boolean taskExists(long taskId) {
+                //a single task query, so it's usually answered from the provider's row cache
+                Cursor cursor = contentResolver.query(TasksContract.buildTaskUri(taskId),
+                        new String[]{TasksContract.Columns._ID}, null, null, null);
+                if(cursor == null) {
+                    return true;
+                }
+                try {
+                    return cursor.moveToFirst();
+                } finally {
+                    cursor.close();
+                }
+            }
+        };
+        return new TimingJournal(new File(directory, FILE_NAME), syncPolicy, target, DRAIN_DELAY_MILLIS);
+    }
+
+
+
+    /*
+        opens file, cuts off any partly written record at its end, and schedules whatever is in it to
+        be replayed into target
+     */
+    TimingJournal(File file, SyncPolicy syncPolicy, Target target, long drainDelayMillis) throws IOException {
+        mFile = file;
+        mSyncPolicy = syncPolicy;
+        mTarget = target;
+        mDrainDelayMillis = drainDelayMillis;
+
+        mChannel = new RandomAccessFile(file, "rw").getChannel();
+        long valid = validLength();
+        if(valid < mChannel.size()) {
+            Log.w(TAG, "TimingJournal: discarding " + (mChannel.size() - valid) + " bytes of a partly written record");
+            mChannel.truncate(valid);
+        }
+        mChannel.position(valid);
+
+        if(valid > 0) {
+            Log.d(TAG, "TimingJournal: replaying " + (valid / RECORD_SIZE) + " timings");
+            mReplayEnd = valid;
+            mExecutor.execute(mDrainRunnable);
+        }
+    }
+
+
+
+    //adds a finished timing to the end of the journal. It'll be in the timings table shortly after
+    void append(long taskId, long startTime, long duration) throws IOException {
+        long pending;
+        synchronized (mLock) {
+            mRecord.clear();
+            mRecord.putInt(MARKER).putLong(taskId).putLong(startTime).putLong(duration);
+            mCrc.reset();
+            mCrc.update(mRecord.array(), 0, CHECKED_SIZE);
+            mRecord.putInt((int) mCrc.getValue());
+            mRecord.flip();
+
+            while(mRecord.hasRemaining()) {
+                mChannel.write(mRecord);
+            }
+            if(mSyncPolicy == SyncPolicy.ALWAYS) {
+                mChannel.force(false);
+            }
+            mAppended.incrementAndGet();
+
+            pending = (mChannel.position() - mDrained) / RECORD_SIZE;
+            if(pending >= DRAIN_BATCH_SIZE) {
+                scheduleDrain(0);
+            } else if(mScheduledDrain == null) {
+                scheduleDrain(mDrainDelayMillis);
+            }
+        }
+    }
+
+
+
+    /*
+        writes everything that hasnt been drained yet to the target, DRAIN_BATCH_SIZE timings at a
+        time, then empties the file if nothing was added meanwhile. Runs on the journal's own thread,
+        but can be called from anywhere; concurrent drains take turns
+     */
+    void drain() throws IOException {
+        synchronized (mDrainLock) {
+            long start;
+            long end;
+            long replayEnd;
+            synchronized (mLock) {
+                mScheduledDrain = null;
+                start = mDrained;
+                end = mChannel.position();
+                replayEnd = mReplayEnd;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * DRAIN_BATCH_SIZE);
+            long position = start;
+            while(position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                while(buffer.hasRemaining()) {
+                    if(mChannel.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("Journal is shorter than expected");
+                    }
+                }
+                buffer.flip();
+
+                List<ContentValues> timings = new ArrayList<>();
+                Map<Long, Boolean> taskExists = new HashMap<>();
+                long recordPosition = position;
+                while(buffer.remaining() >= RECORD_SIZE) {
+                    buffer.getInt();
+                    long taskId = buffer.getLong();
+                    long startTime = buffer.getLong();
+                    long duration = buffer.getLong();
+                    buffer.getInt();
+
+                    Boolean exists = taskExists.get(taskId);
+                    if(exists == null) {
+                        exists = mTarget.taskExists(taskId);
+                        taskExists.put(taskId, exists);
+                    }
+
+                    if(!exists) {
+                        //the task was deleted, and its timings with it
+                        mOrphaned.incrementAndGet();
+                    } else if((recordPosition < replayEnd) && mTarget.contains(taskId, startTime)) {
+                        //records from before the journal was opened may already be in the table
+                        mSkipped.incrementAndGet();
+                    } else {
+                        ContentValues values = new ContentValues();
+                        values.put(TimingsContract.Columns.TIMINGS_TASK_ID, taskId);
+                        values.put(TimingsContract.Columns.TIMINGS_START_TIME, startTime);
+                        values.put(TimingsContract.Columns.TIMINGS_DURATION, duration);
+                        timings.add(values);
+                        if(recordPosition < replayEnd) {
+                            mReplayed.incrementAndGet();
+                        }
+                    }
+                    recordPosition += RECORD_SIZE;
+                }
+
+                if(!timings.isEmpty()) {
+                    mTarget.insert(timings.toArray(new ContentValues[timings.size()]));
+                    mDrainedCount.addAndGet(timings.size());
+                }
+                position = recordPosition;
+
+                synchronized (mLock) {
+                    mDrained = position;
+                }
+            }
+
+            synchronized (mLock) {
+                if(mDrained == mChannel.position()) {
+                    //everything's in the table, so start the file again
+                    mChannel.truncate(0);
+                    mChannel.position(0);
+                    mDrained = 0;
+                    mReplayEnd = 0;
+                } else if(mScheduledDrain == null) {
+                    scheduleDrain(mDrainDelayMillis);
+                }
+            }
+        }
+    }
+
+
+
+    //drains whatever is left and stops the journal's thread
+    void close() throws IOException {
+        drain();
+        mExecutor.shutdown();
+        synchronized (mLock) {
+            mChannel.close();
+        }
+    }
+
+
+
+    //must be called holding mLock
+    private void scheduleDrain(long delayMillis) {
+        if(mScheduledDrain != null) {
+            if(delayMillis > 0) {
+                return;
+            }
+            mScheduledDrain.cancel(false);
+        }
+        mScheduledDrain = mExecutor.schedule(mDrainRunnable, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+
+    //the length of the file up to the end of its last complete, correct record
+    private long validLength() throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        CRC32 crc = new CRC32();
+        long position = 0;
+        long size = mChannel.size();
+        while(position + RECORD_SIZE <= size) {
+            record.clear();
+            while(record.hasRemaining()) {
+                if(mChannel.read(record, position + record.position()) < 0) {
+                    return position;
+                }
+            }
+
+            crc.reset();
+            crc.update(record.array(), 0, CHECKED_SIZE);
+            if((record.getInt(0) != MARKER) || (record.getInt(CHECKED_SIZE) != (int) crc.getValue())) {
+                return position;
+            }
+            position += RECORD_SIZE;
+        }
+        return position;
+    }
+
+
+
+    //number of timings added since the journal was opened
+    long getAppendedCount() {
+        return mAppended.get();
+    }
+
+    //number of timings written to the target, including replayed ones
+    long getDrainedCount() {
+        return mDrainedCount.get();
+    }
+
+    //number of timings from a previous run that were written to the target
+    long getReplayedCount() {
+        return mReplayed.get();
+    }
+
+    //number of timings from a previous run that were already in the target
+    long getSkippedCount() {
+        return mSkipped.get();
+    }
+
+    //number of timings dropped because their task had been deleted
+    long getOrphanedCount() {
+        return mOrphaned.get();
+    }
+
+    File getFile() {
+        return mFile;
+    }
+}
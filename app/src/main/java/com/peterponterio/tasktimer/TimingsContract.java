@@ -0,0 +1,62 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+import static com.peterponterio.tasktimer.AppProvider.CONTENT_AUTHORITY;
+import static com.peterponterio.tasktimer.AppProvider.CONTENT_AUTHORITY_URI;
+
+/**
+ * Created by peterponterio on 3/24/18.
+ */
+
+public class TimingsContract {
+
+    static final String TABLE_NAME = "Timings";
+
+    //Timings fields
+    /*
+        each row is one timing of a task. StartTime is stored in seconds since the epoch and
+        Duration is the number of seconds the task was timed for
+     */
+    public static class Columns {
+        public static final String _ID = BaseColumns._ID;
+        public static final String TIMINGS_TASK_ID = "TaskId";
+        public static final String TIMINGS_START_TIME = "StartTime";
+        public static final String TIMINGS_DURATION = "Duration";
+
+
+        private Columns() {
+            //private constructor to prevent instantiation
+        }
+
+    }
+
+
+
+    /*
+        The URI to access the Timings table
+     */
+    public static final Uri CONTENT_URI = Uri.withAppendedPath(CONTENT_AUTHORITY_URI, TABLE_NAME);
+
+
+
+
+    static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd." + CONTENT_AUTHORITY + "." + TABLE_NAME;
+    static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd." + CONTENT_AUTHORITY + "." + TABLE_NAME;
+
+
+
+    //add an id to the uri(CONTENT_URI)
+    static Uri buildTimingUri(long timingId) {
+        return ContentUris.withAppendedId(CONTENT_URI, timingId);
+    }
+
+
+
+    //used to exact(return) the id from a uri
+    static long getTimingId(Uri uri) {
+        return ContentUris.parseId(uri);
+    }
+}
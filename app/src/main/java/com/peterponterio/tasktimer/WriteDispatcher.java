@@ -0,0 +1,263 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by peterponterio on 4/6/18.
+ *
+ * Runs the app's inserts, updates and deletes on a single background thread, one after another in the
+ * order they were asked for, and tells the caller on the main thread when each one is done
+ *
+ * A write waits for SQLite's lock, and for the disk, so on a busy database it can take long enough to
+ * drop frames, or to set off an ANR, if it's made on the main thread. Screens hand their writes to
+ * this instead and carry on as if the write had already happened: the edit screen closes straight
+ * away, and the list picks the change up from the provider's notification once it's committed.
+ *
+ * With a single writer, writes never run concurrently, so they can't be reordered: an edit saved just
+ * before the same task is deleted is always applied first. A write that's still queued when the
+ * process dies is lost, the same as one that was being made on the main thread
+ */
+
+class WriteDispatcher {
+    private static final String TAG = "WriteDispatcher";
+
+    //writes that take longer than this, from being asked for to finishing, are logged
+    static final long SLOW_WRITE_MILLIS = 100;
+
+
+    //what a write did. A write that threw has error set, and no uri or rows
+    static class Result {
+        final Uri uri;                  //the new row's uri, for an insert
+        final int rows;                 //rows changed, for an update or delete
+        final RuntimeException error;
+        final long latencyMillis;       //from being queued to finishing
+
+        Result(Uri uri, int rows, RuntimeException error, long latencyMillis) {
+            this.uri = uri;
+            this.rows = rows;
+            this.error = error;
+            this.latencyMillis = latencyMillis;
+        }
+
+        boolean succeeded() {
+            return error == null;
+        }
+    }
+
+
+    //called on the main thread once a write has finished
+    interface Callback {
+        void onWriteComplete(Result result);
+    }
+
+
+
+    private static WriteDispatcher sInstance = null;
+
+    private final ContentResolver mContentResolver;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final AtomicInteger mQueueDepth = new AtomicInteger();
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+    private final AtomicLong mWrites = new AtomicLong();
+    private final AtomicLong mFailures = new AtomicLong();
+    private final AtomicLong mTotalLatencyMillis = new AtomicLong();
+    private final AtomicLong mMaxLatencyMillis = new AtomicLong();
+
+
+
+    static synchronized WriteDispatcher getInstance(Context context) {
+        if(sInstance == null) {
+            sInstance = new WriteDispatcher(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+
+
+    WriteDispatcher(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+
+
+    //queues ContentResolver.insert(uri, values). callback can be null
+    void insert(final Uri uri, final ContentValues values, Callback callback) {
+        submit(new Write(uri, callback) {
+            @Override
+            Result run(long queued) {
+                return done(queued, mContentResolver.insert(uri, values), 0);
+            }
+        });
+    }
+
+
+
+    //queues ContentResolver.update(uri, values, null, null). callback can be null
+    void update(final Uri uri, final ContentValues values, Callback callback) {
+        submit(new Write(uri, callback) {
+            @Override
+            Result run(long queued) {
+                return done(queued, null, mContentResolver.update(uri, values, null, null));
+            }
+        });
+    }
+
+
+
+    //queues ContentResolver.delete(uri, null, null). callback can be null
+    void delete(final Uri uri, Callback callback) {
+        submit(new Write(uri, callback) {
+            @Override
+            Result run(long queued) {
+                return done(queued, null, mContentResolver.delete(uri, null, null));
+            }
+        });
+    }
+
+
+
+    private void submit(final Write write) {
+        final long queued = System.nanoTime();
+        int depth = mQueueDepth.incrementAndGet();
+        int max;
+        while(depth > (max = mMaxQueueDepth.get())) {
+            if(mMaxQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                Result result;
+                try {
+                    result = write.run(queued);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "write to " + write.uri + " failed", e);
+                    mFailures.incrementAndGet();
+                    result = new Result(null, 0, e, millisSince(queued));
+                }
+
+                if(write.callback != null) {
+                    final Result delivered = result;
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            write.callback.onWriteComplete(delivered);
+                        }
+                    });
+                }
+
+                //the write is only off the queue once its callback is on its way
+                int depth = mQueueDepth.decrementAndGet();
+                record(write.uri, result.latencyMillis, depth);
+            }
+        });
+    }
+
+
+
+    //queued is a System.nanoTime
+    private static long millisSince(long queued) {
+        return (System.nanoTime() - queued) / 1000000;
+    }
+
+
+
+    private Result done(long queued, Uri uri, int rows) {
+        return new Result(uri, rows, null, millisSince(queued));
+    }
+
+
+
+    private void record(Uri uri, long latencyMillis, int depth) {
+        mWrites.incrementAndGet();
+        mTotalLatencyMillis.addAndGet(latencyMillis);
+        long max;
+        while(latencyMillis > (max = mMaxLatencyMillis.get())) {
+            if(mMaxLatencyMillis.compareAndSet(max, latencyMillis)) {
+                break;
+            }
+        }
+
+        if(latencyMillis >= SLOW_WRITE_MILLIS) {
+            Log.w(TAG, "slow write to " + uri + ": " + latencyMillis + "ms, " + depth + " still queued");
+        } else if(ProviderTrace.ENABLED) {
+            Log.d(TAG, "write to " + uri + ": " + latencyMillis + "ms, " + depth + " still queued");
+        }
+    }
+
+
+
+    //writes queued or running right now
+    int getQueueDepth() {
+        return mQueueDepth.get();
+    }
+
+    //the most writes that have been queued or running at once
+    int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    //writes finished, including ones that failed
+    long getWriteCount() {
+        return mWrites.get();
+    }
+
+    long getFailureCount() {
+        return mFailures.get();
+    }
+
+    //average time from being queued to finishing, in milliseconds
+    long getAverageLatencyMillis() {
+        long writes = mWrites.get();
+        return (writes == 0) ? 0 : mTotalLatencyMillis.get() / writes;
+    }
+
+    long getMaxLatencyMillis() {
+        return mMaxLatencyMillis.get();
+    }
+
+
+    @Override
+    public String toString() {
+        return TAG + "{" +
+                "queued=" + mQueueDepth.get() +
+                ", maxQueued=" + mMaxQueueDepth.get() +
+                ", writes=" + mWrites.get() +
+                ", failures=" + mFailures.get() +
+                ", averageMillis=" + getAverageLatencyMillis() +
+                ", maxMillis=" + mMaxLatencyMillis.get() +
+                '}';
+    }
+
+
+
+
+
+    //one queued write. run is called on the writer thread
+    private abstract static class Write {
+        final Uri uri;
+        final Callback callback;
+
+        Write(Uri uri, Callback callback) {
+            this.uri = uri;
+            this.callback = callback;
+        }
+
+        abstract Result run(long queued);
+    }
+}
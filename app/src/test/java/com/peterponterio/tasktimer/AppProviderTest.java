@@ -0,0 +1,129 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a rebalance {@link AppProvider} queues after a crowded move isnt lost when the group
+ * it's committed in is rolled back by another write, and is retried on its own.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class AppProviderTest {
+
+    private AppProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(AppProvider.class)
+                .create(AppProvider.CONTENT_AUTHORITY).get();
+        mProvider.delete(TasksContract.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.delete(TasksContract.CONTENT_URI, null, null);
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void rebalanceRolledBackWithItsGroup_isRetried() throws Exception {
+        final long a = insertTask("A", 100);
+        long b = insertTask("B", 103);
+        final long c = insertTask("C", 400);
+        GroupCommitter committer = mProvider.getGroupCommitter();
+
+        //holds the writer, so the move and the second blocker go in one group
+        Blocker first = new Blocker();
+        committer.submit(first);
+        assertTrue(first.started.await(5, TimeUnit.SECONDS));
+        Future<Bundle> move = committer.submit(new GroupCommitter.Write<Bundle>() {
+            @Override
+            public Bundle run(SQLiteDatabase db) {
+                return mProvider.call(TasksContract.METHOD_MOVE_TASK, null, TasksContract.buildMoveExtras(c, a));
+            }
+        });
+        Blocker second = new Blocker();
+        committer.submit(second);
+        first.release.countDown();
+
+        //the move has queued its rebalance by now, and the failing write goes in the rebalance's group
+        assertTrue(second.started.await(5, TimeUnit.SECONDS));
+        Future<Void> failing = committer.submit(new GroupCommitter.Write<Void>() {
+            @Override
+            public Void run(SQLiteDatabase db) {
+                throw new IllegalStateException("fails its group");
+            }
+        });
+        second.release.countDown();
+
+        assertEquals(101, move.get(5, TimeUnit.SECONDS).getInt(TasksContract.EXTRA_SORT_ORDER));
+        try {
+            failing.get(5, TimeUnit.SECONDS);
+            fail("the failing write was committed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(1, committer.getRetriedGroupCount());
+
+        //the whole list was too crowded, so it was spread out GAP apart
+        assertEquals(TaskReorder.GAP, sortOrderOf(a));
+        assertEquals(2 * TaskReorder.GAP, sortOrderOf(c));
+        assertEquals(3 * TaskReorder.GAP, sortOrderOf(b));
+    }
+
+
+    private long insertTask(String name, int sortOrder) {
+        ContentValues values = new ContentValues();
+        values.put(TasksContract.Columns.TASKS_NAME, name);
+        values.put(TasksContract.Columns.TASKS_SORTORDER, sortOrder);
+        return TasksContract.getTaskId(mProvider.insert(TasksContract.CONTENT_URI, values));
+    }
+
+    private int sortOrderOf(long taskId) {
+        Cursor cursor = mProvider.query(TasksContract.buildTaskUri(taskId),
+                new String[]{TasksContract.Columns.TASKS_SORTORDER}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+
+    //a write that holds the writer thread up until it's released
+    private static class Blocker implements GroupCommitter.Write<Void> {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public Void run(SQLiteDatabase db) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link GroupCommitter} commits writes from many threads together, that a failed write
+ * only fails itself, and that closing it commits whatever is still queued.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class GroupCommitterTest {
+
+    private SQLiteOpenHelper mOpenHelper;
+    private GroupCommitter mCommitter;
+    private final List<Boolean> mGroupsEnded = Collections.synchronizedList(new ArrayList<Boolean>());
+
+    @Before
+    public void setUp() {
+        mOpenHelper = TestDatabases.inMemoryHelper(RuntimeEnvironment.application);
+        mCommitter = new GroupCommitter(mOpenHelper, new GroupCommitter.Listener() {
+            @Override
+            public void onGroupStarted() {
+            }
+
+            @Override
+            public void onGroupEnded(boolean committed) {
+                mGroupsEnded.add(committed);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mCommitter.close();
+        mOpenHelper.close();
+    }
+
+    @Test
+    public void concurrentWrites_shareCommits() throws Exception {
+        final int threads = 8;
+        final int writesPerThread = 100;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        List<Thread> writers = new ArrayList<>();
+        for(int t = 0; t < threads; t++) {
+            final int thread = t;
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for(int i = 0; i < writesPerThread; i++) {
+                            assertTrue(mCommitter.execute(insertTask("Task " + thread + "-" + i)) > 0);
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        start.countDown();
+        for(Thread writer : writers) {
+            writer.join();
+        }
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(threads * writesPerThread, taskCount());
+        assertEquals(threads * writesPerThread, mCommitter.getWriteCount());
+        assertTrue(mCommitter.toString(), mCommitter.getGroupCount() < mCommitter.getWriteCount());
+        assertTrue(mCommitter.getLargestGroup() > 1);
+        assertFalse(mGroupsEnded.contains(false));
+    }
+
+    @Test
+    public void failedWrite_onlyFailsItself() throws Exception {
+        //holds the writer in the first write, so the next three are all waiting and go in one group
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<Long> first = mCommitter.submit(new GroupCommitter.Write<Long>() {
+            @Override
+            public Long run(SQLiteDatabase db) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return insertTask("First").run(db);
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<Long> before = mCommitter.submit(insertTask("Before"));
+        Future<Long> failing = mCommitter.submit(insertTask(null));
+        Future<Long> after = mCommitter.submit(insertTask("After"));
+        release.countDown();
+
+        assertTrue(first.get(5, TimeUnit.SECONDS) > 0);
+        assertTrue(before.get(5, TimeUnit.SECONDS) > 0);
+        assertTrue(after.get(5, TimeUnit.SECONDS) > 0);
+        try {
+            failing.get(5, TimeUnit.SECONDS);
+            fail("a task with no name was inserted");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof android.database.SQLException);
+        }
+
+        assertEquals(3, taskCount());
+        assertEquals(1, mCommitter.getRetriedGroupCount());
+        assertEquals(2, mCommitter.getGroupCount());
+        //the first write, the group of three rolled back, then each of the three on its own
+        assertEquals(5, mGroupsEnded.size());
+        assertFalse(mGroupsEnded.get(1));
+        assertFalse(mGroupsEnded.get(3));
+    }
+
+    @Test
+    public void close_commitsQueuedWrites() throws Exception {
+        List<Future<Long>> writes = new ArrayList<>();
+        for(int i = 0; i < 10; i++) {
+            writes.add(mCommitter.submit(insertTask("Task " + i)));
+        }
+        mCommitter.close();
+
+        for(Future<Long> write : writes) {
+            assertTrue(write.isDone());
+        }
+        assertEquals(10, taskCount());
+
+        try {
+            mCommitter.submit(insertTask("Too late"));
+            fail("a write was queued after close");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+
+    private static GroupCommitter.Write<Long> insertTask(final String name) {
+        return new GroupCommitter.Write<Long>() {
+            @Override
+            public Long run(SQLiteDatabase db) {
+                ContentValues values = new ContentValues();
+                values.put(TasksContract.Columns.TASKS_NAME, name);
+                return db.insertOrThrow(TasksContract.TABLE_NAME, null, values);
+            }
+        };
+    }
+
+    private long taskCount() {
+        return DatabaseUtils.queryNumEntries(mOpenHelper.getReadableDatabase(), TasksContract.TABLE_NAME);
+    }
+}
@@ -0,0 +1,245 @@
+package com.peterponterio.tasktimer;
+
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that an {@link ObservableQuery} is only loaded again for changes to the tables it reads, that
+ * a burst of changes during a load causes one more load, that only new, up to date results are
+ * delivered, and that changes during every load dont keep results from the subscriber for good. The
+ * queries here just return a value they were given, so no database is needed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ObservableQueryTest {
+
+    private final List<String> mResults = new ArrayList<>();
+    private final ObservableQuery.Subscriber<String> mSubscriber = new ObservableQuery.Subscriber<String>() {
+        @Override
+        public void onResult(String result) {
+            mResults.add(result);
+        }
+    };
+    private ValueQuery<String> mQuery;
+
+    @After
+    public void tearDown() {
+        if(mQuery != null) {
+            mQuery.unsubscribe(mSubscriber);
+        }
+    }
+
+    @Test
+    public void onlyChangesToItsTables_reloadIt() throws Exception {
+        mQuery = new ValueQuery<>("a", TasksContract.CONTENT_URI);
+        mQuery.subscribe(mSubscriber);
+        settle();
+        assertEquals(Collections.singletonList("a"), mResults);
+
+        invalidate(TimingsContract.CONTENT_URI);
+        settle();
+        assertEquals(1, mQuery.getLoadCount());
+
+        //reloaded, but nothing it shows has changed
+        invalidate(TasksContract.CONTENT_URI);
+        settle();
+        assertEquals(2, mQuery.getLoadCount());
+        assertEquals(1, mResults.size());
+
+        mQuery.value = "b";
+        invalidate(TimingsContract.CONTENT_URI, TasksContract.CONTENT_URI);
+        settle();
+        assertEquals(3, mQuery.getLoadCount());
+        assertEquals("b", mResults.get(1));
+    }
+
+    @Test
+    public void changesDuringALoad_causeOneMoreLoad() throws Exception {
+        mQuery = new ValueQuery<>("first", TasksContract.CONTENT_URI);
+        mQuery.subscribe(mSubscriber);
+        settle();
+
+        mQuery.value = "stale";
+        mQuery.gate = new CountDownLatch(1);
+        mQuery.started = new CountDownLatch(1);
+        invalidate(TasksContract.CONTENT_URI);
+        ShadowLooper.runUiThreadTasks();
+        mQuery.started.await();
+
+        mQuery.value = "latest";
+        for(int i = 0; i < 5; i++) {
+            invalidate(TasksContract.CONTENT_URI);
+        }
+        mQuery.gate.countDown();
+        settle();
+
+        assertEquals(3, mQuery.getLoadCount());
+        assertEquals(1, mQuery.getDiscardedCount());
+        assertEquals(Arrays.asList("first", "latest"), mResults);
+    }
+
+    @Test
+    public void changesDuringEveryLoad_stillDeliverResults() throws Exception {
+        mQuery = new ValueQuery<>("first", TasksContract.CONTENT_URI);
+        mQuery.invalidateWhileLoading = true;
+        mQuery.subscribe(mSubscriber);
+
+        //every load is overtaken, but there's no result yet
+        awaitResults(1);
+        assertEquals("first", mResults.get(0));
+
+        //once the subscriber has been out of date for long enough, an overtaken result is delivered
+        mQuery.value = "second";
+        SystemClock.sleep(ObservableQuery.MAX_STALE_MILLIS);
+        awaitResults(2);
+        assertEquals("second", mResults.get(1));
+        assertTrue(mQuery.getLoadCount() > 2);
+    }
+
+    @Test
+    public void unsubscribed_isntReloaded() throws Exception {
+        mQuery = new ValueQuery<>("a", TasksContract.CONTENT_URI);
+        mQuery.subscribe(mSubscriber);
+        settle();
+        mQuery.unsubscribe(mSubscriber);
+
+        mQuery.value = "b";
+        invalidate(TasksContract.CONTENT_URI);
+        settle();
+        assertEquals(1, mQuery.getLoadCount());
+
+        //a new subscriber gets the last result straight away, then the new one
+        mQuery.subscribe(mSubscriber);
+        assertEquals("a", mResults.get(1));
+        settle();
+        assertEquals("b", mResults.get(2));
+    }
+
+
+    @Test
+    public void sameTaskReadAgain_isntDelivered() throws Exception {
+        final List<Task> results = new ArrayList<>();
+        ObservableQuery.Subscriber<Task> subscriber = new ObservableQuery.Subscriber<Task>() {
+            @Override
+            public void onResult(Task result) {
+                results.add(result);
+            }
+        };
+        ValueQuery<Task> query = new ValueQuery<>(new Task(1, "Task", "Description", 1), TasksContract.CONTENT_URI);
+        query.subscribe(subscriber);
+        try {
+            settle(query);
+            assertEquals(1, results.size());
+
+            //a new object, read from a row that hasnt changed
+            query.value = new Task(1, "Task", "Description", 1);
+            invalidate(TasksContract.CONTENT_URI);
+            settle(query);
+            assertEquals(2, query.getLoadCount());
+            assertEquals(1, results.size());
+
+            query.value = new Task(1, "Task", "Edited", 1);
+            invalidate(TasksContract.CONTENT_URI);
+            settle(query);
+            assertEquals(2, results.size());
+            assertEquals("Edited", results.get(1).getDescription());
+        } finally {
+            query.unsubscribe(subscriber);
+        }
+    }
+
+
+    private static void invalidate(Uri... tables) {
+        InvalidationTracker.getInstance().invalidate(Arrays.asList(tables));
+    }
+
+    /*
+        waits until every load that's been started has finished and its result has been handled on the
+        main thread. Robolectric only runs the main thread's tasks when asked to
+     */
+    private void settle() throws InterruptedException {
+        settle(mQuery);
+    }
+
+    //runs the main thread's tasks until the subscriber has had count results
+    private void awaitResults(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasks();
+            if(mResults.size() >= count) {
+                return;
+            }
+        }
+        fail("results werent delivered: " + mResults + " " + mQuery);
+    }
+
+    private static void settle(ValueQuery<?> query) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        int settledChecks = 0;
+        while(System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasks();
+            if(query.finished.get() == query.getLoadCount()) {
+                if(++settledChecks == 2) {
+                    return;
+                }
+            } else {
+                settledChecks = 0;
+            }
+        }
+        fail("loads didnt finish: " + query);
+    }
+
+
+
+    /*
+        returns value, as it was when the load started. A gate holds loads up until it's opened, and
+        invalidateWhileLoading changes the query's tables during every load, as steady writes would
+     */
+    private static class ValueQuery<T> extends ObservableQuery<T> {
+        volatile T value;
+        volatile CountDownLatch gate = new CountDownLatch(0);
+        volatile CountDownLatch started = new CountDownLatch(1);
+        volatile boolean invalidateWhileLoading = false;
+        final AtomicInteger finished = new AtomicInteger();
+
+        ValueQuery(T value, Uri... tables) {
+            super(tables);
+            this.value = value;
+        }
+
+        @Override
+        T load(CancellationSignal cancellationSignal) {
+            T result = value;
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            if(invalidateWhileLoading) {
+                invalidate(TasksContract.CONTENT_URI);
+            }
+            finished.incrementAndGet();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.peterponterio.tasktimer;
+
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link TaskListDiff} reports only the rows that were inserted, removed, moved or
+ * changed, and leaves an empty list to be refreshed as a whole.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class TaskListDiffTest {
+
+    @Test
+    public void changedRow_isTheOnlyUpdate() throws Exception {
+        Task[] before = {task(1, "A", 1), task(2, "B", 2), task(3, "C", 3)};
+        Task[] after = {task(1, "A", 1), task(2, "B renamed", 2), task(3, "C", 3)};
+
+        Replay replay = replay(before, after);
+        assertEquals(Arrays.asList(1L, 2L, 3L), replay.ids);
+        assertEquals(Collections.singletonList(2L), replay.changed);
+        assertEquals(0, replay.structural);
+    }
+
+    @Test
+    public void insertRemoveAndMove_leaveTheNewOrder() throws Exception {
+        Task[] before = {task(1, "A", 1), task(2, "B", 2), task(3, "C", 3)};
+        Task[] after = {task(3, "C", 0), task(1, "A", 1), task(4, "D", 4)};
+
+        //the inserted row shows up as NEW, since the updates only say where it goes
+        Replay replay = replay(before, after);
+        assertEquals(Arrays.asList(3L, 1L, NEW), replay.ids);
+        assertEquals(Collections.singletonList(3L), replay.changed);
+    }
+
+    @Test
+    public void emptyList_isntCompared() throws Exception {
+        Task[] rows = {task(1, "A", 1)};
+        assertNull(TaskListDiff.calculate(new Task[0], 0, rows, 1));
+        assertNull(TaskListDiff.calculate(rows, 1, rows, 0));
+    }
+
+
+    private static Task task(long id, String name, int sortOrder) {
+        return new Task(id, name, null, sortOrder);
+    }
+
+    private static final long NEW = -1;
+
+    //the updates a diff sent, played back on the old list of ids
+    private static class Replay {
+        final List<Long> ids = new ArrayList<>();
+        final List<Long> changed = new ArrayList<>();
+        int structural = 0;
+    }
+
+    private static Replay replay(Task[] before, Task[] after) {
+        DiffUtil.DiffResult diff = TaskListDiff.calculate(before, before.length, after, after.length);
+        assertNotNull(diff);
+        final Replay replay = new Replay();
+        for(Task task : before) {
+            replay.ids.add(task.getId());
+        }
+        diff.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                replay.structural++;
+                for(int i = 0; i < count; i++) {
+                    replay.ids.add(position, NEW);
+                }
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                replay.structural++;
+                for(int i = 0; i < count; i++) {
+                    replay.ids.remove(position);
+                }
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                replay.structural++;
+                replay.ids.add(toPosition, replay.ids.remove(fromPosition));
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                for(int i = 0; i < count; i++) {
+                    replay.changed.add(replay.ids.get(position + i));
+                }
+            }
+        });
+        return replay;
+    }
+}
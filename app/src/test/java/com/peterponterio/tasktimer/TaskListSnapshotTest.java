@@ -0,0 +1,109 @@
+package com.peterponterio.tasktimer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link TaskListSnapshot} reads back the page it saved, doesnt write an unchanged page
+ * again, and ignores, or removes, a snapshot it shouldnt show. Saves are made with write, on the test
+ * thread, rather than on the snapshot's own.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class TaskListSnapshotTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private TaskListSnapshot mSnapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = new File(mFolder.getRoot(), TaskListSnapshot.FILE_NAME);
+        mSnapshot = new TaskListSnapshot(mFile);
+    }
+
+    @Test
+    public void savedPage_isReadBack() throws Exception {
+        assertNull(mSnapshot.read());
+
+        mSnapshot.write(120, new Task[]{
+                new Task(3, "Write report", "Quarterly, with \u00e9 and \u65e5\u672c", 1),
+                new Task(1, "Exercise", null, 2)});
+
+        TaskListSnapshot.Contents contents = new TaskListSnapshot(mFile).read();
+        assertNotNull(contents);
+        assertEquals(120, contents.count);
+        assertEquals(2, contents.rows.length);
+        assertEquals(3, contents.rows[0].getId());
+        assertEquals("Quarterly, with \u00e9 and \u65e5\u672c", contents.rows[0].getDescription());
+        assertEquals(1, contents.rows[0].getSortOrder());
+        assertEquals("Exercise", contents.rows[1].getName());
+        assertNull(contents.rows[1].getDescription());
+    }
+
+    @Test
+    public void unchangedPage_isntWrittenAgain() throws Exception {
+        Task[] rows = {new Task(1, "Task", "Description", 0)};
+        mSnapshot.write(1, rows);
+        mSnapshot.write(1, rows);
+        assertEquals(1, mSnapshot.getSaveCount());
+        assertEquals(1, mSnapshot.getUnchangedCount());
+
+        //a page that was read counts as saved too
+        TaskListSnapshot reopened = new TaskListSnapshot(mFile);
+        assertNotNull(reopened.read());
+        reopened.write(1, rows);
+        assertEquals(0, reopened.getSaveCount());
+
+        reopened.write(2, rows);
+        assertEquals(1, reopened.getSaveCount());
+    }
+
+    @Test
+    public void pageWithABigRow_removesTheSnapshot() throws Exception {
+        mSnapshot.write(1, new Task[]{new Task(1, "Small", null, 0)});
+        assertNotNull(new TaskListSnapshot(mFile).read());
+
+        StringBuilder description = new StringBuilder();
+        while(description.length() <= TaskListSnapshot.MAX_ROW_CHARS) {
+            description.append("long description ");
+        }
+        mSnapshot.write(2, new Task[]{new Task(1, "Small", null, 0), new Task(2, "Big", description.toString(), 0)});
+
+        assertNull(new TaskListSnapshot(mFile).read());
+        assertEquals(1, mSnapshot.getNotSavedCount());
+    }
+
+    @Test
+    public void unreadableFile_isIgnored() throws Exception {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+        } finally {
+            out.close();
+        }
+        assertNull(mSnapshot.read());
+
+        //cut short part way through a row
+        byte[] bytes = TaskListSnapshot.encode(5, new Task[]{new Task(1, "Task", "Description", 0)});
+        out = new FileOutputStream(mFile);
+        try {
+            out.write(bytes, 0, bytes.length - 4);
+        } finally {
+            out.close();
+        }
+        assertNull(mSnapshot.read());
+    }
+}
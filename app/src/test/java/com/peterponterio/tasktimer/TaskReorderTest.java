@@ -0,0 +1,207 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link TaskReorder} moves a task by writing its row alone while there's a gap to move
+ * it into, rebalances when there isnt, and keeps the list in order either way.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class TaskReorderTest {
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mDb = TestDatabases.inMemory(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void moveIntoAGap_writesOneRow() throws Exception {
+        long a = insertTask("A", TaskReorder.GAP);
+        long b = insertTask("B", 2 * TaskReorder.GAP);
+        long c = insertTask("C", 3 * TaskReorder.GAP);
+
+        TaskReorder.Move move = TaskReorder.move(mDb, c, a);
+        assertFalse(move.rebalanced);
+        assertFalse(move.crowded);
+        assertEquals(TaskReorder.GAP + TaskReorder.GAP / 2, move.sortOrder);
+
+        assertEquals(Arrays.asList(a, c, b), listOrder());
+        assertEquals(TaskReorder.GAP, sortOrderOf(a));
+        assertEquals(2 * TaskReorder.GAP, sortOrderOf(b));
+    }
+
+    @Test
+    public void moveBetweenEqualSortOrders_rebalancesFirst() throws Exception {
+        long a = insertTask("A", 0);
+        long b = insertTask("B", 0);
+        long c = insertTask("C", 0);
+        long d = insertTask("D", 1);
+
+        TaskReorder.Move move = TaskReorder.move(mDb, d, a);
+        assertTrue(move.rebalanced);
+        assertEquals(Arrays.asList(a, d, b, c), listOrder());
+
+        //every other task was given a sort order of its own, GAP apart
+        assertEquals(TaskReorder.GAP, sortOrderOf(a));
+        assertEquals(2 * TaskReorder.GAP, sortOrderOf(b));
+        assertEquals(3 * TaskReorder.GAP, sortOrderOf(c));
+    }
+
+    @Test
+    public void moveToTheTopAndBottom() throws Exception {
+        long a = insertTask("A", 1);
+        long b = insertTask("B", 2);
+        long c = insertTask("C", 3);
+
+        TaskReorder.move(mDb, c, 0);
+        assertEquals(Arrays.asList(c, a, b), listOrder());
+
+        TaskReorder.move(mDb, c, b);
+        assertEquals(Arrays.asList(a, b, c), listOrder());
+
+        //the only task
+        mDb.delete(TasksContract.TABLE_NAME, TasksContract.Columns._ID + " != ?", new String[]{Long.toString(a)});
+        assertNotNull(TaskReorder.move(mDb, a, 0));
+        assertEquals(Arrays.asList(a), listOrder());
+    }
+
+    @Test
+    public void repeatedMovesIntoOnePlace_getCrowded() throws Exception {
+        long first = insertTask("First", TaskReorder.GAP);
+        long last = insertTask("Last", 2 * TaskReorder.GAP);
+        List<Long> moved = new ArrayList<>();
+
+        TaskReorder.Move move;
+        int moves = 0;
+        do {
+            long id = insertTask("Moved " + moves, 3 * TaskReorder.GAP);
+            move = TaskReorder.move(mDb, id, first);
+            assertFalse(move.rebalanced);
+            moved.add(0, id);
+            moves++;
+        } while(!move.crowded);
+        assertEquals(10, moves);
+
+        //only the rows around the crowded place get new sort orders
+        List<Long> expected = listOrder();
+        int written = TaskReorder.rebalance(mDb, moved.get(0));
+        assertTrue(written > 0);
+        assertTrue(written < moves);
+        assertEquals(expected, listOrder());
+        assertEquals(moved, expected.subList(1, moves + 1));
+        assertEquals(TaskReorder.GAP + TaskReorder.GAP / 2, sortOrderOf(moved.get(moves - 1)));
+        assertEquals(2 * TaskReorder.GAP, sortOrderOf(last));
+
+        //already rebalanced, so nothing to write, and there's room for the next move
+        assertEquals(0, TaskReorder.rebalance(mDb, moved.get(0)));
+        move = TaskReorder.move(mDb, insertTask("Another", 3 * TaskReorder.GAP), first);
+        assertFalse(move.rebalanced);
+        assertFalse(move.crowded);
+    }
+
+    @Test
+    public void rebalance_keepsSortOrdersAwayFromTheMove() throws Exception {
+        long a = insertTask("A", 100);
+        long b = insertTask("B", 200);
+        long c = insertTask("C", 200);
+        long d = insertTask("D", 300);
+        long e = insertTask("E", 400);
+        long f = insertTask("F", 500);
+
+        TaskReorder.Move move = TaskReorder.move(mDb, e, b);
+        assertTrue(move.rebalanced);
+        assertEquals(Arrays.asList(a, b, e, c, d, f), listOrder());
+
+        //the tasks after the crowded place keep the sort orders that were typed in
+        assertEquals(300, sortOrderOf(d));
+        assertEquals(500, sortOrderOf(f));
+        assertTrue(sortOrderOf(c) - sortOrderOf(b) >= TaskReorder.MIN_GAP);
+    }
+
+    @Test
+    public void rebalanceOfMissingTask_writesNothing() throws Exception {
+        long a = insertTask("A", 0);
+        insertTask("B", 0);
+        assertEquals(0, TaskReorder.rebalance(mDb, a + 10));
+    }
+
+    @Test
+    public void tasksWithoutASortOrder_areRebalanced() throws Exception {
+        long a = insertTask("A", null);
+        long b = insertTask("B", null);
+
+        TaskReorder.Move move = TaskReorder.move(mDb, a, b);
+        assertTrue(move.rebalanced);
+        assertEquals(Arrays.asList(b, a), listOrder());
+    }
+
+    @Test
+    public void missingTasks() throws Exception {
+        long a = insertTask("A", 1);
+        assertNull(TaskReorder.move(mDb, a + 1, a));
+
+        try {
+            TaskReorder.move(mDb, a, a + 1);
+            fail("moved after a task that doesnt exist");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+
+    private long insertTask(String name, Integer sortOrder) {
+        ContentValues values = new ContentValues();
+        values.put(TasksContract.Columns.TASKS_NAME, name);
+        values.put(TasksContract.Columns.TASKS_SORTORDER, sortOrder);
+        return mDb.insertOrThrow(TasksContract.TABLE_NAME, null, values);
+    }
+
+    private List<Long> listOrder() {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = mDb.query(TasksContract.TABLE_NAME, new String[]{TasksContract.Columns._ID},
+                null, null, null, null, TaskPager.SORT_ORDER);
+        try {
+            while(cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private int sortOrderOf(long id) {
+        Cursor cursor = mDb.query(TasksContract.TABLE_NAME, new String[]{TasksContract.Columns.TASKS_SORTORDER},
+                TableStatements.ID_SELECTION, new String[]{Long.toString(id)}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link TaskRowCache} answers repeated reads from memory, drops rows when told they've
+ * been written to, and stays within its size.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class TaskRowCacheTest {
+
+    private static final String[] PROJECTION = {TasksContract.Columns._ID, TasksContract.Columns.TASKS_NAME,
+            TasksContract.Columns.TASKS_SORTORDER};
+
+    private SQLiteDatabase mDb;
+    private TaskRowCache mCache;
+
+    @Before
+    public void setUp() {
+        mDb = TestDatabases.inMemory(RuntimeEnvironment.application);
+        mCache = new TaskRowCache();
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void secondRead_isAHit() throws Exception {
+        long id = insertTask("First");
+
+        assertEquals("First", readName(id));
+        assertEquals("First", readName(id));
+
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    @Test
+    public void invalidate_readsChangedRow() throws Exception {
+        long id = insertTask("Before");
+        assertEquals("Before", readName(id));
+
+        ContentValues values = new ContentValues();
+        values.put(TasksContract.Columns.TASKS_NAME, "After");
+        mDb.update(TasksContract.TABLE_NAME, values, TableStatements.ID_SELECTION, new String[]{Long.toString(id)});
+        mCache.invalidate(id);
+
+        assertEquals("After", readName(id));
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    @Test
+    public void missingTask_givesEmptyCursor() throws Exception {
+        Cursor cursor = mCache.query(mDb, 99, PROJECTION);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void unknownColumn_isNotCached() throws Exception {
+        long id = insertTask("First");
+        assertNull(mCache.query(mDb, id, new String[]{"COUNT(*)"}));
+    }
+
+    @Test
+    public void leastRecentlyUsed_isEvicted() throws Exception {
+        for(int i = 0; i <= TaskRowCache.MAX_ROWS; i++) {
+            readName(insertTask("Task " + i));
+        }
+
+        assertEquals(1, mCache.getEvictionCount());
+    }
+
+    @Test
+    public void invalidateAll_isntCountedAsEvictions() throws Exception {
+        readName(insertTask("First"));
+        readName(insertTask("Second"));
+        mCache.invalidateAll();
+
+        assertEquals(0, mCache.getEvictionCount());
+        assertEquals(2, mCache.getClearCount());
+    }
+
+
+    private long insertTask(String name) {
+        ContentValues values = new ContentValues();
+        values.put(TasksContract.Columns.TASKS_NAME, name);
+        return mDb.insert(TasksContract.TABLE_NAME, null, values);
+    }
+
+    private String readName(long id) {
+        Cursor cursor = mCache.query(mDb, id, PROJECTION);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(id, cursor.getLong(0));
+            return cursor.getString(1);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.peterponterio.tasktimer;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * Created by peterponterio on 4/10/18.
+ *
+ * In-memory databases built with {@link AppDatabase}'s schema, for the tests that need one. They go
+ * when they're closed, and the app's own data is never touched
+ */
+
+class TestDatabases {
+
+    private TestDatabases() {
+        //only static methods
+    }
+
+
+
+    //a new, empty database with every table, index and trigger the app has. Close it when done
+    static SQLiteDatabase inMemory(Context context) {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        AppDatabase.getInstance(context).onCreate(db);
+        return db;
+    }
+
+
+
+    //the same, behind an open helper, for code that opens its own. It's created when it's first opened
+    static SQLiteOpenHelper inMemoryHelper(Context context) {
+        return new MemoryDatabase(context);
+    }
+
+
+
+
+
+    private static class MemoryDatabase extends SQLiteOpenHelper {
+        private final Context mContext;
+
+        MemoryDatabase(Context context) {
+            super(context, null, null, AppDatabase.DATABASE_VERSION);
+            mContext = context;
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            AppDatabase.getInstance(mContext).onCreate(db);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            //never upgraded; every one starts at the current version
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.peterponterio.tasktimer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link TimerEngine} with a clock the test moves by hand, including the wall clock jumping
+ * while a timing runs, and recovery after the process dies or the device restarts.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class TimerEngineTest {
+
+    private static final long MINUTE = 60 * 1000;
+    //the wall clock when the fake device booted
+    private static final long BOOT_WALL = 1522540800000L;
+
+    private FakeClock mClock;
+    private FakeStore mStore;
+    private TimerEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock();
+        mStore = new FakeStore();
+        mEngine = new TimerEngine(mClock, mStore, null);
+    }
+
+    @Test
+    public void stop_writesOneTiming() throws Exception {
+        mEngine.start(1, "Task");
+        mClock.advance(10 * MINUTE);
+        mEngine.checkpoint();
+        mClock.advance(5 * MINUTE);
+        mEngine.stop();
+
+        assertEquals(1, mStore.timings.size());
+        assertArrayEquals(new long[]{1, BOOT_WALL / 1000 + 100, 15 * 60}, mStore.timings.get(0));
+        assertNull(mStore.checkpoint);
+        assertEquals(0, mEngine.getTaskId());
+    }
+
+    @Test
+    public void running_writesNoTimings() throws Exception {
+        mEngine.start(1, "Task");
+        for(int i = 0; i < 10; i++) {
+            mClock.advance(MINUTE);
+            mEngine.checkpoint();
+        }
+
+        assertTrue(mStore.timings.isEmpty());
+        assertEquals(10 * MINUTE, mEngine.getElapsedMillis());
+    }
+
+    @Test
+    public void startingAnotherTask_stopsTheFirst() throws Exception {
+        mEngine.start(1, "First");
+        mClock.advance(MINUTE);
+        mEngine.start(2, "Second");
+        mClock.advance(2 * MINUTE);
+        mEngine.toggle(2, "Second");
+
+        assertEquals(2, mStore.timings.size());
+        assertEquals(60, mStore.timings.get(0)[2]);
+        assertEquals(2, mStore.timings.get(1)[0]);
+        assertEquals(120, mStore.timings.get(1)[2]);
+    }
+
+    @Test
+    public void wallClockJump_doesNotChangeDuration() throws Exception {
+        mEngine.start(1, "Task");
+        mClock.advance(MINUTE);
+        mClock.wall -= 3 * 60 * MINUTE;     //the user sets the clock back three hours
+        mClock.advance(MINUTE);
+        mClock.wall += 24 * 60 * MINUTE;    //then forward a day
+        mClock.advance(MINUTE);
+        mEngine.stop();
+
+        assertEquals(3 * 60, mStore.timings.get(0)[2]);
+        //the start time is the wall clock when the timing started
+        assertEquals(BOOT_WALL / 1000 + 100, mStore.timings.get(0)[1]);
+    }
+
+    @Test
+    public void processDeath_sameBoot_carriesOn() throws Exception {
+        mEngine.start(1, "Task");
+        mClock.advance(10 * MINUTE);
+        mEngine.checkpoint();
+        mClock.advance(20 * MINUTE);
+
+        //the process is killed and the app started again
+        TimerEngine recovered = new TimerEngine(mClock, mStore, null);
+        final List<Long> changes = new ArrayList<>();
+        recovered.addListener(new TimerEngine.Listener() {
+            @Override
+            public void onTimingChanged(long taskId, String taskName) {
+                changes.add(taskId);
+            }
+        });
+        recovered.recover();
+
+        assertEquals(1, recovered.getTaskId());
+        assertEquals("Task", recovered.getTaskName());
+        assertEquals(30 * MINUTE, recovered.getElapsedMillis());
+        assertEquals(1, changes.size());
+        assertTrue(mStore.timings.isEmpty());
+
+        mClock.advance(MINUTE);
+        recovered.stop();
+        assertEquals(31 * 60, mStore.timings.get(0)[2]);
+    }
+
+    @Test
+    public void deviceRestart_endsTimingAtCheckpoint() throws Exception {
+        mEngine.start(1, "Task");
+        mClock.advance(10 * MINUTE);
+        mEngine.checkpoint();
+        mClock.advance(MINUTE / 2);
+
+        //the device restarts two minutes later, and the app is started a minute after that
+        mClock.reboot(2 * MINUTE, MINUTE);
+        TimerEngine recovered = new TimerEngine(mClock, mStore, null);
+        recovered.recover();
+
+        assertEquals(0, recovered.getTaskId());
+        assertEquals(1, mStore.timings.size());
+        assertEquals(10 * 60, mStore.timings.get(0)[2]);
+        assertNull(mStore.checkpoint);
+    }
+
+    @Test
+    public void deviceRestart_uptimePastCheckpoint_isStillDetected() throws Exception {
+        mEngine.start(1, "Task");
+        mClock.advance(5 * MINUTE);
+        mEngine.checkpoint();
+
+        //the app isnt opened until the device has been up for longer than it had been at the checkpoint
+        mClock.reboot(MINUTE, 60 * MINUTE);
+        TimerEngine recovered = new TimerEngine(mClock, mStore, null);
+        recovered.recover();
+
+        assertEquals(0, recovered.getTaskId());
+        assertEquals(5 * 60, mStore.timings.get(0)[2]);
+    }
+
+    @Test
+    public void startBeforeRecovery_recoversFirst() throws Exception {
+        mEngine.start(1, "First");
+        mClock.advance(10 * MINUTE);
+        mEngine.checkpoint();
+
+        //the process is killed, and another task started before the background recovery has run
+        TimerEngine recovered = new TimerEngine(mClock, mStore, null);
+        recovered.start(2, "Second");
+
+        assertEquals(2, recovered.getTaskId());
+        assertEquals(1, mStore.timings.size());
+        assertEquals(1, mStore.timings.get(0)[0]);
+        assertEquals(10 * 60, mStore.timings.get(0)[2]);
+
+        //the recovery that was waiting to run does nothing
+        recovered.recover();
+        assertEquals(2, recovered.getTaskId());
+        assertEquals(1, mStore.timings.size());
+    }
+
+    @Test
+    public void discard_writesNothing() throws Exception {
+        mEngine.start(1, "Task");
+        mClock.advance(MINUTE);
+        mEngine.discard(2);
+        assertEquals(1, mEngine.getTaskId());
+
+        mEngine.discard(1);
+        assertEquals(0, mEngine.getTaskId());
+        assertTrue(mStore.timings.isEmpty());
+        assertNull(mStore.checkpoint);
+    }
+
+
+
+
+
+    private static class FakeClock implements TimerEngine.Clock {
+        long elapsed = 100 * 1000;
+        long wall = BOOT_WALL + elapsed;
+
+        void advance(long millis) {
+            elapsed += millis;
+            wall += millis;
+        }
+
+        //the device is off for offMillis, then up for upMillis
+        void reboot(long offMillis, long upMillis) {
+            wall += offMillis + upMillis;
+            elapsed = upMillis;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return elapsed;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return wall;
+        }
+    }
+
+    private static class FakeStore implements TimerEngine.Store {
+        TimerEngine.Checkpoint checkpoint = null;
+        final List<long[]> timings = new ArrayList<>();
+
+        @Override
+        public void saveCheckpoint(TimerEngine.Checkpoint checkpoint) {
+            this.checkpoint = checkpoint;
+        }
+
+        @Override
+        public TimerEngine.Checkpoint loadCheckpoint() {
+            return checkpoint;
+        }
+
+        @Override
+        public void clearCheckpoint() {
+            checkpoint = null;
+        }
+
+        @Override
+        public void writeTiming(long taskId, long startTime, long duration) {
+            timings.add(new long[]{taskId, startTime, duration});
+        }
+    }
+}
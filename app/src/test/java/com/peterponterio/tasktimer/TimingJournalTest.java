@@ -0,0 +1,235 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentValues;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link TimingJournal} drains timings into its target once each, replays what the last
+ * run left behind, and cuts off a record that was only partly written. Drains are called by hand;
+ * the journal's own are put off for an hour so they dont get in the way.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class TimingJournalTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private FakeTarget mTarget;
+    private TimingJournal mJournal;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = new File(mFolder.getRoot(), TimingJournal.FILE_NAME);
+        mTarget = new FakeTarget();
+        mJournal = new TimingJournal(mFile, TimingJournal.SyncPolicy.NEVER, mTarget, HOUR);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if(mJournal != null) {
+            mJournal.close();
+        }
+    }
+
+    @Test
+    public void drain_insertsTimingsAndEmptiesFile() throws Exception {
+        mJournal.append(1, 1000, 60);
+        mJournal.append(2, 2000, 120);
+        assertEquals(2 * TimingJournal.RECORD_SIZE, mFile.length());
+        assertTrue(mTarget.rows.isEmpty());
+
+        mJournal.drain();
+
+        assertEquals(2, mTarget.rows.size());
+        assertArrayEquals(new long[]{2, 2000, 120}, mTarget.rows.get(1));
+        assertEquals(1, mTarget.inserts);
+        assertEquals(0, mFile.length());
+
+        //a second drain has nothing to do
+        mJournal.drain();
+        assertEquals(2, mTarget.rows.size());
+    }
+
+    @Test
+    public void manyTimings_goInBatches() throws Exception {
+        int count = TimingJournal.DRAIN_BATCH_SIZE * 2 + 1;
+        for(int i = 0; i < count; i++) {
+            mJournal.append(1, i, 1);
+        }
+        mJournal.drain();
+
+        assertEquals(count, mTarget.rows.size());
+        assertTrue(mTarget.inserts >= 3);
+        assertEquals(TimingJournal.DRAIN_BATCH_SIZE, mTarget.largestInsert);
+        assertEquals(count, mJournal.getDrainedCount());
+    }
+
+    @Test
+    public void reopen_replaysUndrainedTimings() throws Exception {
+        mJournal.append(1, 1000, 60);
+        mJournal.append(2, 2000, 120);
+        crash();
+        //the first one made it into the table before the process died
+        mTarget.rows.add(new long[]{1, 1000, 60});
+
+        TimingJournal reopened = new TimingJournal(mFile, TimingJournal.SyncPolicy.NEVER, mTarget, HOUR);
+        reopened.drain();
+
+        assertEquals(2, mTarget.rows.size());
+        assertArrayEquals(new long[]{2, 2000, 120}, mTarget.rows.get(1));
+        assertEquals(1, reopened.getReplayedCount());
+        assertEquals(1, reopened.getSkippedCount());
+        assertEquals(0, mFile.length());
+        reopened.close();
+    }
+
+    @Test
+    public void deletedTask_timingsAreDropped() throws Exception {
+        mJournal.append(1, 1000, 60);
+        mJournal.append(2, 2000, 120);
+        mJournal.append(2, 3000, 180);
+        crash();
+        //task 2 was deleted before the journal was replayed
+        mTarget.deletedTasks.add(2L);
+
+        TimingJournal reopened = new TimingJournal(mFile, TimingJournal.SyncPolicy.NEVER, mTarget, HOUR);
+        reopened.append(2, 4000, 240);
+        reopened.drain();
+
+        assertEquals(1, mTarget.rows.size());
+        assertEquals(1, mTarget.rows.get(0)[0]);
+        assertEquals(3, reopened.getOrphanedCount());
+        assertEquals(0, mFile.length());
+        reopened.close();
+    }
+
+    @Test
+    public void failedDrain_isRetried() throws Exception {
+        mJournal.close();
+        mJournal = new TimingJournal(mFile, TimingJournal.SyncPolicy.NEVER, mTarget, 10);
+        mTarget.failures = 1;
+
+        mJournal.append(1, 1000, 60);
+        long giveUp = System.currentTimeMillis() + 5000;
+        while(mTarget.rowCount() == 0 && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, mTarget.rowCount());
+        assertEquals(0, mTarget.failures);
+    }
+
+    @Test
+    public void partlyWrittenRecord_isCutOff() throws Exception {
+        mJournal.append(1, 1000, 60);
+        mJournal.append(2, 2000, 120);
+
+        crash();
+        //the process died half way through writing the second record
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(TimingJournal.RECORD_SIZE + TimingJournal.RECORD_SIZE / 2);
+        file.close();
+
+        TimingJournal reopened = new TimingJournal(mFile, TimingJournal.SyncPolicy.ALWAYS, mTarget, HOUR);
+        assertEquals(TimingJournal.RECORD_SIZE, mFile.length());
+
+        //new timings go after the last good record
+        reopened.append(3, 3000, 180);
+        reopened.drain();
+
+        assertEquals(2, mTarget.rows.size());
+        assertEquals(1, mTarget.rows.get(0)[0]);
+        assertEquals(3, mTarget.rows.get(1)[0]);
+        reopened.close();
+    }
+
+    @Test
+    public void corruptRecord_isCutOff() throws Exception {
+        mJournal.append(1, 1000, 60);
+        mJournal.append(2, 2000, 120);
+
+        crash();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(TimingJournal.RECORD_SIZE + 10);
+        file.write(0xff);
+        file.close();
+
+        TimingJournal reopened = new TimingJournal(mFile, TimingJournal.SyncPolicy.NEVER, mTarget, HOUR);
+        reopened.drain();
+
+        assertEquals(1, mTarget.rows.size());
+        assertEquals(1, mTarget.rows.get(0)[0]);
+        reopened.close();
+    }
+
+
+    //forgets the journal without draining it, as if the process had died
+    private void crash() {
+        mJournal = null;
+    }
+
+
+    private static class FakeTarget implements TimingJournal.Target {
+        final List<long[]> rows = new ArrayList<>();
+        final Set<Long> deletedTasks = new HashSet<>();
+        int inserts = 0;
+        int largestInsert = 0;
+        //number of inserts still to fail
+        int failures = 0;
+
+        @Override
+        public synchronized void insert(ContentValues[] timings) {
+            if(failures > 0) {
+                failures--;
+                throw new IllegalStateException("database is locked");
+            }
+            inserts++;
+            largestInsert = Math.max(largestInsert, timings.length);
+            for(ContentValues values : timings) {
+                rows.add(new long[]{values.getAsLong(TimingsContract.Columns.TIMINGS_TASK_ID),
+                        values.getAsLong(TimingsContract.Columns.TIMINGS_START_TIME),
+                        values.getAsLong(TimingsContract.Columns.TIMINGS_DURATION)});
+            }
+        }
+
+        @Override
+        public synchronized boolean contains(long taskId, long startTime) {
+            for(long[] row : rows) {
+                if((row[0] == taskId) && (row[1] == startTime)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public synchronized boolean taskExists(long taskId) {
+            return !deletedTasks.contains(taskId);
+        }
+
+        synchronized int rowCount() {
+            return rows.size();
+        }
+    }
+}
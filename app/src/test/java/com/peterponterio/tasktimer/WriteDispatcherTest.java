@@ -0,0 +1,180 @@
+package com.peterponterio.tasktimer;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link WriteDispatcher} makes writes in the order they were queued, off the calling
+ * thread, and reports each one on the main thread, failures included. The writes go to a provider
+ * that only records them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class WriteDispatcherTest {
+
+    private static final String AUTHORITY = "com.peterponterio.tasktimer.test";
+    private static final Uri ROWS = Uri.parse("content://" + AUTHORITY + "/rows");
+    private static final Uri FAILING = Uri.parse("content://" + AUTHORITY + "/fail");
+
+    private RecordingProvider mProvider;
+    private WriteDispatcher mDispatcher;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(RecordingProvider.class).create(AUTHORITY).get();
+        mDispatcher = new WriteDispatcher(RuntimeEnvironment.application.getContentResolver());
+    }
+
+    @Test
+    public void writes_runInOrderOffTheCallingThread() throws Exception {
+        final List<WriteDispatcher.Result> results = new ArrayList<>();
+        WriteDispatcher.Callback callback = new WriteDispatcher.Callback() {
+            @Override
+            public void onWriteComplete(WriteDispatcher.Result result) {
+                results.add(result);
+            }
+        };
+
+        mDispatcher.insert(ROWS, new ContentValues(), callback);
+        mDispatcher.update(ContentUris.withAppendedId(ROWS, 1), new ContentValues(), callback);
+        mDispatcher.delete(ContentUris.withAppendedId(ROWS, 1), callback);
+        awaitWrites();
+
+        assertEquals(3, mProvider.calls.size());
+        assertTrue(mProvider.calls.get(0).startsWith("insert"));
+        assertTrue(mProvider.calls.get(1).startsWith("update"));
+        assertTrue(mProvider.calls.get(2).startsWith("delete"));
+        for(String call : mProvider.calls) {
+            assertFalse(call, call.endsWith(Thread.currentThread().getName()));
+        }
+
+        //callbacks wait for the main thread
+        assertTrue(results.isEmpty());
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(3, results.size());
+        assertEquals(ContentUris.withAppendedId(ROWS, 1), results.get(0).uri);
+        assertEquals(1, results.get(1).rows);
+        assertTrue(results.get(2).succeeded());
+    }
+
+    @Test
+    public void failedWrite_isReportedAndLaterWritesCarryOn() throws Exception {
+        final List<WriteDispatcher.Result> results = new ArrayList<>();
+        WriteDispatcher.Callback callback = new WriteDispatcher.Callback() {
+            @Override
+            public void onWriteComplete(WriteDispatcher.Result result) {
+                results.add(result);
+            }
+        };
+
+        mDispatcher.delete(FAILING, callback);
+        mDispatcher.insert(ROWS, new ContentValues(), callback);
+        awaitWrites();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        assertEquals(2, results.size());
+        assertFalse(results.get(0).succeeded());
+        assertTrue(results.get(0).error instanceof IllegalStateException);
+        assertTrue(results.get(1).succeeded());
+        assertEquals(1, mDispatcher.getFailureCount());
+        assertEquals(2, mDispatcher.getWriteCount());
+    }
+
+    @Test
+    public void queueDepth_isCounted() throws Exception {
+        mProvider.delayMillis = 20;
+        for(int i = 0; i < 5; i++) {
+            mDispatcher.insert(ROWS, new ContentValues(), null);
+        }
+        assertTrue(mDispatcher.getQueueDepth() > 0);
+        awaitWrites();
+
+        assertEquals(0, mDispatcher.getQueueDepth());
+        assertTrue(mDispatcher.getMaxQueueDepth() >= 4);
+        assertTrue(mDispatcher.getMaxLatencyMillis() >= 20);
+        assertEquals(5, mDispatcher.getWriteCount());
+    }
+
+
+    private void awaitWrites() throws InterruptedException {
+        //Robolectric's SystemClock only moves when the test moves it, so this uses the real clock
+        long deadline = System.currentTimeMillis() + 5000;
+        while((mDispatcher.getQueueDepth() > 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, mDispatcher.getQueueDepth());
+    }
+
+
+
+    //records each write, and the thread it was made on
+    public static class RecordingProvider extends ContentProvider {
+        final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+        volatile long delayMillis = 0;
+
+        private void record(String call) {
+            if(delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            calls.add(call + " " + Thread.currentThread().getName());
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            record("insert");
+            return ContentUris.withAppendedId(uri, calls.size());
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            record("update");
+            return 1;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            if(uri.equals(FAILING)) {
+                throw new IllegalStateException("failing on purpose");
+            }
+            record("delete");
+            return 1;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+    }
+}